@@ -19,6 +19,8 @@
 
 package bobby.engine.bobengine;
 
+import java.nio.ShortBuffer;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
@@ -41,20 +43,48 @@ public class BobRenderer implements Renderer {
 
 	// Variables
 	public static final long FPS = 60;                // The optimal speed that the game will run
+	public static final double STEP_TIME = 1000.0 / FPS;   // Length of an update when using a fixed timestep, in milliseconds
+	public static final int DEF_MAX_STEPS = 5;        // Default most updates to do in one frame when using a fixed timestep
+	public static final long STOP_TIMEOUT = 2000;     // Longest the GL thread waits for the update thread to stop, in milliseconds
 	private float OPTIMAL_TIME = 1000 / FPS;          // Optimal time for a frame to take
+
+	/*
+	 * Frame timing. Only used by the thread that updates rooms: the GL thread, or the
+	 * update thread while it runs. Other threads ask for a reset with resetTiming.
+	 */
 	private float averageDelta = OPTIMAL_TIME;        // Average amount of time a frame takes
 	private long lastTime;                            // Time the last frame took
 	private long now;                                 // Time now
 	private int frames = 0;                           // # of frames passed
 	private long timeElapsed = 16;                    // Amount of time the frame took
 
+	/* Fixed timestep */
+	private volatile boolean useFixedTimestep = false;   // Flag indicates rooms are updated in steps of STEP_TIME
+	private int maxSteps = DEF_MAX_STEPS;             // Most updates to do in one frame before letting the game slow down
+	private double accumulator = 0;                   // Time that has passed but hasn't been updated yet, in milliseconds
+	private long lastStep = 0;                        // Time steps were last run, 0 if they haven't been
+
 	private double low;   // The lowest FPS
 	private double high;  // The highest FPS
+	private volatile boolean resetTiming = false;     // Flag indicates the timing should start over before the next update
 
 	/* Camera variables */
 	private double camwidth;
 	private double camheight;
 
+	/* OpenGL context */
+	private int contextGeneration = 0;                // Increases each time a new OpenGL context is created
+	private int indexVBO = 0;                         // Buffer object holding QuadIndices in the current context, 0 if not created
+	private int indexVBOQuads = 0;                    // Number of quads the indices in indexVBO can draw
+	private int ids[] = new int[1];                   // For generating buffer objects
+
+	/* Update thread */
+	private volatile boolean useUpdateThread = false;   // Flag indicates game logic runs on its own thread instead of the GL thread
+	private int building = 0;                         // Index of the frame the update thread is building
+	private int ready = 1;                            // Index of the most recently finished frame
+	private int drawing = 2;                          // Index of the frame the GL thread is drawing
+	private boolean fresh = false;                    // Flag indicates the ready frame hasn't been taken by the GL thread yet
+
 	/* Background color values */
 	private float red = 1;
 	private float green = 1;
@@ -63,6 +93,12 @@ public class BobRenderer implements Renderer {
 
 	// Objects
 	private BobView myOwner;                          // The BobView that this BobRenderer belongs to.
+	private RenderFrame frame = new RenderFrame();    // Frame rooms build and draw with on the GL thread
+	private RenderFrame snapshots[] = {new RenderFrame(), new RenderFrame(), new RenderFrame()};   // Frames passed from the update thread to the GL thread
+	private VertexBufferObjects vbos = new VertexBufferObjects();   // Keeps the drawing room's vertices in GPU memory when it uses VBOs
+	private final Object frameLock = new Object();    // Guards building, ready, drawing, and fresh
+	private volatile Thread updateThread;             // Thread that updates the current room, null if not running
+	private volatile Thread stoppingThread;           // Update thread that was told to stop but hadn't yet, null if none
 
 	/**
 	 * Sets the BobView associated with this BobRenderer.
@@ -96,10 +132,25 @@ public class BobRenderer implements Renderer {
 	 */
 	@Override
 	public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+		contextGeneration++;                                               // Buffer objects from the old context are gone
+		indexVBO = 0;
+		indexVBOQuads = 0;
+
+		myOwner.getGraphicsHelper().useGLES2(usesShaders());
 		myOwner.getGraphicsHelper().handleGraphics((GL11) gl);// Load textures for the view
 
 		low = high = -1;
 
+		setUpGL(gl);
+	}
+
+	/**
+	 * Enable the OpenGL features BobEngine uses and disable the ones it doesn't.
+	 * Called when the surface is created.
+	 *
+	 * @param gl The OpenGL object for the new surface
+	 */
+	protected void setUpGL(GL10 gl) {
 		gl.glBlendFunc(GL10.GL_ONE, GL10.GL_ONE_MINUS_SRC_ALPHA);          // How to interpret transparency
 		gl.glAlphaFunc(GL10.GL_GREATER, 0);
 		gl.glEnable(GL10.GL_BLEND);                                        // Enable transparency
@@ -121,22 +172,110 @@ public class BobRenderer implements Renderer {
 	/**
 	 * Execute a frame. <br />
 	 * <br />
-	 * This method will update game logic and update the graphics.
+	 * This method will update game logic and update the graphics. When the update
+	 * thread is used, this only draws the newest frame the update thread finished.
 	 */
 	@Override
 	public void onDrawFrame(GL10 gl) {
 		Room current = myOwner.getCurrentRoom();
 
-		gl.glClear(GL10.GL_COLOR_BUFFER_BIT);                              // Get rid of the previous frame
-		gl.glClearColor(red, green, blue, alpha);                          // BG color
+		clear(gl, red, green, blue, alpha);
 
 		myOwner.getGraphicsHelper().handleGraphics((GL11) gl);
 
+		if (useUpdateThread) {
+			startUpdateThread();                           // Not until a stopped update thread has finished
+
+			RenderFrame frame = takeFrame();
+			if (frame.getRoom() != null) {
+				frame.getRoom().render(gl, frame);         // Draw graphics
+			}
+
+			return;
+		}
+
+		if (!stopUpdateThread()) return;                   // In case the update thread was just turned off. Don't update alongside it.
+
 		if (current != null) {
-			current.update(averageDelta / OPTIMAL_TIME);   // Update game logic
+			update(current);                               // Update game logic
 			current.draw(gl);                              // Draw graphics
 		}
 
+		measureFrame();
+	}
+
+	/**
+	 * Update a room for one drawn frame. With a fixed timestep the room is updated
+	 * once for each STEP_TIME that has passed, up to the max steps, and told how far
+	 * it is into the next step so it can be drawn between updates.
+	 *
+	 * @param room The room to update
+	 */
+	private void update(Room room) {
+		if (resetTiming) {
+			resetTiming = false;
+			averageDelta = OPTIMAL_TIME;
+			lastTime = 0;
+			accumulator = 0;
+			lastStep = 0;
+		}
+
+		if (!useFixedTimestep) {
+			room.setInterpolation(1);
+			room.update(averageDelta / OPTIMAL_TIME);
+			return;
+		}
+
+		long time = SystemClock.uptimeMillis();
+		accumulator += lastStep > 0 ? time - lastStep : STEP_TIME;
+		lastStep = time;
+
+		int steps = 0;
+		while (accumulator >= STEP_TIME && steps < maxSteps) {
+			room.update(1);
+			accumulator -= STEP_TIME;
+			steps++;
+		}
+
+		if (accumulator >= STEP_TIME) {                    // Too far behind to catch up. Drop the extra time instead of falling further behind.
+			accumulator %= STEP_TIME;
+		}
+
+		room.setInterpolation((float) (accumulator / STEP_TIME));
+	}
+
+	/**
+	 * Update rooms in fixed steps of STEP_TIME milliseconds instead of once per
+	 * frame with a deltaTime that changes from frame to frame. <br/><br/>
+	 *
+	 * When frames take longer than a step, rooms are updated more than once per
+	 * frame so the game keeps its speed. When frames take less time, some frames
+	 * have no update. Either way GameObjects are drawn between where they were
+	 * before and after the last update, so movement stays smooth. deltaTime is
+	 * always 1. Off by default.
+	 *
+	 * @param use True to use a fixed timestep.
+	 */
+	public void useFixedTimestep(boolean use) {
+		useFixedTimestep = use;
+		resetTiming = true;
+	}
+
+	/**
+	 * Set the most updates to do in one frame when using a fixed timestep. If the
+	 * game falls further behind than this, it slows down instead of trying to catch
+	 * up, which would make every frame take even longer.
+	 *
+	 * @param steps Most updates per frame. Default is DEF_MAX_STEPS.
+	 */
+	public void setMaxSteps(int steps) {
+		maxSteps = Math.max(1, steps);
+	}
+
+	/**
+	 * Update the average frame time after a frame has been updated.
+	 */
+	private void measureFrame() {
 		now = SystemClock.uptimeMillis();
 		if (lastTime > 0)
 			timeElapsed = now - lastTime;                    // The amount of time the last frame took
@@ -176,7 +315,157 @@ public class BobRenderer implements Renderer {
 						"    HIGH: " + Double.toString(high)); // Show FPS in logcat
 			}
 		}
+	}
+
+	/**
+	 * Run game logic on a thread of its own instead of the GL thread. <br/><br/>
+	 *
+	 * The update thread updates the current room and builds a RenderFrame from it
+	 * while the GL thread draws the frame before it, so updating and drawing no
+	 * longer have to fit in one frame time together. Three frames are passed
+	 * between the threads: one being built, one finished, and one being drawn. The
+	 * update thread waits when it gets a frame ahead, so the game still updates
+	 * once for each frame that is drawn. <br/><br/>
+	 *
+	 * Rooms are only updated and built on the update thread while this is on, so
+	 * room and object code must not make OpenGL calls. Room.draw() is not called.
+	 * Off by default.
+	 *
+	 * @param use True to update on a separate thread, false to update on the GL thread.
+	 */
+	public void useUpdateThread(boolean use) {
+		useUpdateThread = use;
+	}
+
+	/**
+	 * Returns true if game logic runs on its own thread. See useUpdateThread().
+	 */
+	public boolean usesUpdateThread() {
+		return useUpdateThread;
+	}
+
+	/**
+	 * Start the update thread if it isn't running. Does nothing while an update
+	 * thread that was stopped is still finishing.
+	 */
+	private void startUpdateThread() {
+		if (updateThread != null || !stopUpdateThread()) return;
+
+		synchronized (frameLock) {
+			fresh = false;
+		}
+
+		lastTime = 0;                                       // Don't count the time the thread wasn't running
+		lastStep = 0;
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				runUpdates();
+			}
+		}, "BobEngine update");
+
+		updateThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stop the update thread and wait up to STOP_TIMEOUT for it to finish the frame
+	 * it is working on. The GL thread isn't held up longer than that even if game
+	 * code doesn't return, so the app doesn't stop responding.
+	 *
+	 * @return True if no update thread is running anymore. False if it hasn't
+	 *         stopped yet, in which case rooms must not be updated on this thread.
+	 */
+	private boolean stopUpdateThread() {
+		Thread thread = updateThread;
+
+		if (thread != null) {
+			updateThread = null;                            // Ends the thread's loop even if game code swallows the interrupt
+			thread.interrupt();
+
+			try {
+				thread.join(STOP_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (thread.isAlive()) {
+				Log.w("BobEngine", "The update thread didn't stop within " + STOP_TIMEOUT + "ms. Is a step() not returning?");
+				stoppingThread = thread;
+				return false;
+			}
+
+			return true;
+		}
+
+		if (stoppingThread != null) {
+			if (stoppingThread.isAlive()) return false;
+
+			stoppingThread = null;
+		}
+
+		return true;
+	}
+
+	/**
+	 * The update thread's loop. Updates the current room, builds a frame from it, and
+	 * hands the frame to the GL thread until the thread is interrupted.
+	 */
+	private void runUpdates() {
+		try {
+			while (updateThread == Thread.currentThread() && !Thread.currentThread().isInterrupted()) {
+				Room current = myOwner.getCurrentRoom();
+
+				if (current == null) {
+					Thread.sleep((long) OPTIMAL_TIME);          // Nothing to update yet
+					continue;
+				}
+
+				update(current);                               // Update game logic
+				current.buildFrame(snapshots[building]);       // Get the graphics ready for the GL thread
+
+				publishFrame();
+				measureFrame();
+			}
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Make the frame the update thread just built the ready frame. Waits first if
+	 * the GL thread hasn't taken the last ready frame yet.
+	 */
+	private void publishFrame() throws InterruptedException {
+		synchronized (frameLock) {
+			while (fresh) {
+				frameLock.wait();
+			}
+
+			int built = building;
+			building = ready;
+			ready = built;
+			fresh = true;
+		}
+	}
 
+	/**
+	 * Get the frame the GL thread should draw. This is the newest ready frame, or the
+	 * last frame drawn again if the update thread hasn't finished a new one.
+	 */
+	private RenderFrame takeFrame() {
+		synchronized (frameLock) {
+			if (fresh) {
+				int taken = ready;
+				ready = drawing;
+				drawing = taken;
+				fresh = false;
+				frameLock.notifyAll();
+			}
+
+			return snapshots[drawing];
+		}
 	}
 
 	/**
@@ -195,6 +484,17 @@ public class BobRenderer implements Renderer {
 		camwidth = width;
 		camheight = height;
 
+		setUpViewport(gl, width, height);
+	}
+
+	/**
+	 * Set the viewport and the default projection for a surface of the given size.
+	 *
+	 * @param gl The OpenGL object for the surface
+	 * @param width Width of the surface in pixels
+	 * @param height Height of the surface in pixels
+	 */
+	protected void setUpViewport(GL10 gl, int width, int height) {
 		gl.glViewport(0, 0, width, height);
 		gl.glMatrixMode(GL10.GL_PROJECTION);      // Select The Projection Matrix
 		gl.glLoadIdentity();                      // Reset The Projection Matrix
@@ -204,13 +504,106 @@ public class BobRenderer implements Renderer {
 		gl.glLoadIdentity();
 	}
 
+	/**
+	 * Clear the screen to the background color.
+	 *
+	 * @param gl The OpenGL object for the surface
+	 */
+	protected void clear(GL10 gl, float red, float green, float blue, float alpha) {
+		gl.glClear(GL10.GL_COLOR_BUFFER_BIT);                              // Get rid of the previous frame
+		gl.glClearColor(red, green, blue, alpha);                          // BG color
+	}
+
+	/**
+	 * Returns true if this renderer draws with OpenGL ES 2.0 shaders instead of
+	 * the OpenGL ES 1.x fixed function pipeline.
+	 */
+	public boolean usesShaders() {
+		return false;
+	}
+
 	/**
 	 * The app is resumed from being paused. <br />
 	 * <br />
 	 * This method will reset the average delta time, resume the game.
 	 */
 	public void onResume() {
-		averageDelta = 16.6f;
+		resetTiming = true;                                // Don't try to catch up on the time spent paused
+	}
+
+	/**
+	 * Get the frame rooms build and draw with in Room.draw(). There is one for the
+	 * whole view instead of one per room, so the memory used for vertices doesn't
+	 * grow with the number of rooms. Only use it on the GL thread.
+	 */
+	public RenderFrame getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Get the vertex buffer objects used by rooms that draw with VBOs. Like the
+	 * frame, they are shared by every room. See Room.useVBOs().
+	 */
+	public VertexBufferObjects getVertexBufferObjects() {
+		return vbos;
+	}
+
+	/**
+	 * Let go of vertex storage the frames don't need anymore. They are made to fit
+	 * the next frames built. See Room.trimToSize().
+	 */
+	public void trimFrames() {
+		frame.shrink();
+
+		for (int i = 0; i < snapshots.length; i++) {
+			snapshots[i].shrink();
+		}
+	}
+
+	/**
+	 * The app is being paused. <br />
+	 * <br />
+	 * This method will stop the update thread. It is started again when the next
+	 * frame is drawn.
+	 */
+	public void onPause() {
+		stopUpdateThread();
+	}
+
+	/**
+	 * Returns a number that changes every time a new OpenGL context is created.
+	 * Anything created in OpenGL, such as buffer objects, must be recreated when
+	 * this number changes.
+	 */
+	public int getContextGeneration() {
+		return contextGeneration;
+	}
+
+	/**
+	 * Get the buffer object holding the shared quad indices from QuadIndices. It is
+	 * created the first time it is needed in each OpenGL context and filled again
+	 * when more quads need to be drawn at once than it holds indices for.
+	 *
+	 * @param gl The OpenGL object to create the buffer object with
+	 * @param quads The most quads that will be drawn with one draw call, at most QuadIndices.MAX_QUADS
+	 * @return The name of the element array buffer object.
+	 */
+	public int getIndexVBO(GL11 gl, int quads) {
+		if (indexVBO == 0) {
+			gl.glGenBuffers(1, ids, 0);
+			indexVBO = ids[0];
+		}
+
+		if (quads > indexVBOQuads) {
+			ShortBuffer indices = QuadIndices.get(quads);
+			indexVBOQuads = indices.capacity() / QuadIndices.INDICES_PER_QUAD;
+
+			gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+			gl.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER, indexVBOQuads * QuadIndices.INDICES_PER_QUAD * 2, indices, GL11.GL_STATIC_DRAW);
+			gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+		}
+
+		return indexVBO;
 	}
 
 	/**
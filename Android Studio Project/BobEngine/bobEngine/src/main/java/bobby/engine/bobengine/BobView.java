@@ -117,7 +117,13 @@ public abstract class BobView extends GLSurfaceView {
 		setEGLConfigChooser(8, 8, 8, 8, 16, 0);         // These two lines enable transparent
 		getHolder().setFormat(PixelFormat.TRANSLUCENT); // backgrounds.
 
-		renderer = new BobRenderer();                   // Initialize the renderer
+		if (useShaders()) {                             // Initialize the renderer
+			setEGLContextClientVersion(2);
+			renderer = new ShaderRenderer();
+		} else {
+			renderer = new BobRenderer();
+		}
+
 		setRenderer(renderer);                          // and assign it to this view
 
 		setOnTouchListener(myTouch = new Touch(this));  // Initialize the touch listener and assign it to this view
@@ -390,9 +396,16 @@ public abstract class BobView extends GLSurfaceView {
 		setFocusable(true);
 		setFocusableInTouchMode(true);
 		requestFocus();
+		renderer.onResume();
 		super.onResume();
 	}
 
+	@Override
+	public void onPause() {
+		super.onPause();                                // Waits for the GL thread to stop drawing
+		renderer.onPause();
+	}
+
 	@Override
 	public boolean onKeyDown(int index, KeyEvent event) {
 		if (controller != null && controller.onKeyDown(index, event)) {
@@ -420,6 +433,19 @@ public abstract class BobView extends GLSurfaceView {
 		return super.onGenericMotionEvent(event);
 	}
 
+	/**
+	 * Override this to return true to draw with OpenGL ES 2.0 shaders instead of the
+	 * OpenGL ES 1.x fixed function pipeline. The shader renderer draws each GameObject
+	 * with its own color from GameObject.setColor(), so tinted and faded objects still
+	 * share draw calls with the other objects using the same graphic. Called once when
+	 * this BobView is created. Requires a device that supports OpenGL ES 2.0.
+	 *
+	 * @return True to use a ShaderRenderer, false to use a BobRenderer. False by default.
+	 */
+	protected boolean useShaders() {
+		return false;
+	}
+
 	/**
 	 * This method should be used to add graphics using getGraphicsHelper().addGraphic(drawable).
 	 * addGraphic returns a Graphic object which should be stored so that it can be accessed
@@ -0,0 +1,65 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+
+/**
+ * Quickly finds the GameObjects that might be colliding, so that the exact check
+ * in Room.checkCollision() only has to be done for those. <br/><br/>
+ *
+ * A broadphase only looks at the collision bounds of each object (see
+ * GameObject.updateCollisionBounds()). Every pair whose bounds overlap must be
+ * found; pairs whose boxes don't actually touch may be found too. <br/><br/>
+ *
+ * Give a room a broadphase with Room.setBroadphase(). The room calls update()
+ * after each of its updates.
+ */
+public interface Broadphase {
+
+	/**
+	 * Bring the broadphase up to date with where the objects are now.
+	 *
+	 * @param objects The room's objects. Null entries and objects without collision
+	 *                boxes are skipped. Their collision bounds have already been updated.
+	 */
+	public void update(ArrayList<GameObject> objects);
+
+	/**
+	 * Find every pair of objects whose collision bounds overlap. Each pair is only
+	 * found once.
+	 *
+	 * @param pairs Each pair is added to the end of this list as two entries in a row.
+	 */
+	public void findPairs(ArrayList<GameObject> pairs);
+
+	/**
+	 * Find every object whose collision bounds overlap a rectangle. Each object is
+	 * only found once.
+	 *
+	 * @param left Left edge of the rectangle
+	 * @param bottom Bottom edge
+	 * @param right Right edge
+	 * @param top Top edge
+	 * @param results The objects are added to the end of this list.
+	 */
+	public void query(double left, double bottom, double right, double top, ArrayList<GameObject> results);
+}
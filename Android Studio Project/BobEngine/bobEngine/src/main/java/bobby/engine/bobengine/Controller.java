@@ -22,10 +22,13 @@ package bobby.engine.bobengine;
 
 import android.annotation.TargetApi;
 import android.os.Build;
+import android.os.SystemClock;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * This class handles input from a gamepad. It will call newpress and release events
  * in the Rooms and GameObjects. Newpress and released events pass along two pieces of
@@ -43,7 +46,25 @@ import android.view.MotionEvent;
  * ...D_LEFT, D_RIGHT, D_UP, D_DOWN         <br /><br />
  *
  * <b>NOTE: you must pass the onKeyDown, onKeyUp, and onGenericMotionEvent events
- * from your main activity to this.</b>
+ * from your main activity to this.</b> <br /><br />
+ *
+ * Presses and releases arrive on the UI thread, so they are put in a queue that
+ * the BobView's current room empties at the start of each update, like touch events
+ * (see Touch). Every press and release is handled, in order, even when several
+ * happen in the same frame. After each update the buttons held and the buttons
+ * pressed and released during it can be read as bit masks with one bit for each
+ * button, (1 << Controller.A) for A and so on. <br /><br />
+ *
+ * Room.signifyNewpress(int, int) and signifyReleased(int, int) put presses and
+ * releases in the same queue, so they are handled in order with the real ones. <br /><br />
+ *
+ * If the game stops taking events out for long enough that the queue fills up,
+ * the presses and releases that don't fit are still handled at the next update,
+ * but each button only gets one press and one release for all of them. <br /><br />
+ *
+ * The D-pad directions worked out from axes (see useSimpleDPAD(), useRSasDPAD()
+ * and useLSasDPAD()) are only held, without newpress and released events, unless
+ * useAxisDPADEvents() is turned on.
  *
  * Created by Benjamin on 4/9/2015.
  *
@@ -54,6 +75,12 @@ public class Controller {
 	public static final int MAX_CONTROLLERS = 4;
 	public static final int NUM_BUTTONS = 12;
 
+	// Event types
+	public static final int PRESSED = 0;
+	public static final int RELEASED = 1;
+
+	private static final int QUEUE_SIZE = 64;         // Number of events the queue holds. Must be a power of 2.
+
 	// Button and Axis Constants
 	public static final int A = 0;
 	public static final int B = 1;
@@ -85,8 +112,37 @@ public class Controller {
 	// owner
 	BobView view;
 
-	// held values
-	private boolean held[][] = new boolean[MAX_CONTROLLERS][NUM_BUTTONS];
+	// Button states as of the last update, one bit for each button
+	private int heldButtons[] = new int[MAX_CONTROLLERS];
+	private int pressedButtons[] = new int[MAX_CONTROLLERS];    // Buttons pressed during the last update
+	private int releasedButtons[] = new int[MAX_CONTROLLERS];   // Buttons released during the last update
+
+	// D-pad directions held on the axes as of the last update, when they don't make events
+	private int axisButtons[] = new int[MAX_CONTROLLERS];
+
+	// Buttons down as of the last event put in the queue. Only used on the UI thread.
+	private int down[] = new int[MAX_CONTROLLERS];
+	private boolean overflowing;                               // Flag indicates events go in lost until handleEvents() has taken it. Only used by queueEvent().
+
+	// Written by the UI thread and queueEvent(), taken by handleEvents().
+	private AtomicIntegerArray axisDown = new AtomicIntegerArray(MAX_CONTROLLERS);   // D-pad directions held on the axes
+	private AtomicIntegerArray lost = new AtomicIntegerArray(MAX_CONTROLLERS);       // Presses (low bits) and releases (high bits) that didn't fit in the queue
+
+	// Queue of events waiting to be handled. Only queueEvent() writes events and
+	// tail, one thread at a time, only handleEvents() reads events and writes head.
+	private int queueType[] = new int[QUEUE_SIZE];
+	private int queueController[] = new int[QUEUE_SIZE];
+	private int queueButton[] = new int[QUEUE_SIZE];
+	private long queueTime[] = new long[QUEUE_SIZE];           // In SystemClock.uptimeMillis() time
+	private volatile int head;                                 // Number of events taken out of the queue so far
+	private volatile int tail;                                 // Number of events put in the queue so far
+
+	// Events handled in the last update, copied out of the queue
+	private int numEvents;
+	private int eventType[] = new int[QUEUE_SIZE];
+	private int eventController[] = new int[QUEUE_SIZE];
+	private int eventButton[] = new int[QUEUE_SIZE];
+	private long eventTime[] = new long[QUEUE_SIZE];
 
 	// Axis values
 	private double rsx[] = new double[MAX_CONTROLLERS];
@@ -102,6 +158,7 @@ public class Controller {
 	private boolean RSdpad;
 	private boolean LSdpad;
 	private boolean simpleDPAD;
+	private boolean axisEvents;
 
 	// Variables
 	private int lastPlayerDown;
@@ -112,6 +169,7 @@ public class Controller {
 		simpleDPAD = false;
 		RSdpad = false;
 		LSdpad = false;
+		axisEvents = false;
 
 		lastPlayerDown = -1;
 		lastPlayerUp = -1;
@@ -134,7 +192,8 @@ public class Controller {
 	/**
 	 * For controllers that provide axis values for the directional pad
 	 * rather than simple button presses, act as though an axis value above
-	 * 0.5 or below -0.5 is a button press.
+	 * 0.5 or below -0.5 is a button press. The press is only held, without
+	 * newpress and released events, unless useAxisDPADEvents() is on.
 	 *
 	 * @param simpleDPAD
 	 */
@@ -144,7 +203,8 @@ public class Controller {
 
 	/**
 	 * Indicate whether the right stick should fire dpad events. Use the right
-	 * stick as a dpad.
+	 * stick as a dpad. Like useSimpleDPAD(), this only holds the directions
+	 * unless useAxisDPADEvents() is on.
 	 *
 	 * @param RSdpad
 	 */
@@ -154,7 +214,8 @@ public class Controller {
 
 	/**
 	 * Indicate whether the left stick should fire dpad events. Use the left
-	 * stick as a dpad.
+	 * stick as a dpad. Like useSimpleDPAD(), this only holds the directions
+	 * unless useAxisDPADEvents() is on.
 	 *
 	 * @param LSdpad
 	 */
@@ -163,58 +224,301 @@ public class Controller {
 	}
 
 	/**
-	 * Update the held state of the specified button.
+	 * Indicate whether the D-pad directions worked out from axes should cause
+	 * newpress and released events like the D-pad buttons do. When off, the
+	 * directions are only held (see held()). Off by default.
+	 *
+	 * @param axisEvents
+	 */
+	public void useAxisDPADEvents(boolean axisEvents) {
+		this.axisEvents = axisEvents;
+	}
+
+	/**
+	 * Queue a press or release of a button if it changes whether the button is
+	 * down.
 	 *
 	 * @param controller
 	 * @param keyCode
-	 * @param state
+	 * @param state True for down
+	 * @param time When it happened
 	 */
-	private void updateHeld(int controller, int keyCode, boolean state){
-		if (controller >= 0 && controller <= 4 && getButton(keyCode) != -1) {
-			held[controller][getButton(keyCode)] = state;
-		}
+	private void setButton(int controller, int keyCode, boolean state, long time) {
+		int button = getButton(keyCode);
+
+		if (controller < 0 || controller >= MAX_CONTROLLERS || button == -1) return;
+
+		int bit = 1 << button;
+
+		if (((down[controller] & bit) != 0) == state) return;   // Key repeat, or the same axis value again
+
+		down[controller] ^= bit;
+		queueEvent(controller, button, state, time);
 	}
 
 	/**
-	 * Cause newpress event.
+	 * Queue a press or release of a button for the current room, from any thread.
+	 * Used by Room.signifyNewpress(int, int) and Room.signifyReleased(int, int).
 	 *
 	 * @param controller
-	 * @param keyCode
+	 * @param button Controller.A, B and so on
+	 * @param state True for a press
+	 */
+	void signify(int controller, int button, boolean state) {
+		if (controller < 0 || controller >= MAX_CONTROLLERS || button < 0 || button >= NUM_BUTTONS) return;
+
+		queueEvent(controller, button, state, SystemClock.uptimeMillis());
+	}
+
+	/**
+	 * Put a press or release in the queue. If the queue is full, it is kept in the
+	 * lost bits instead. After that, events keep going there until handleEvents()
+	 * has taken them, so they are still handled after the ones in the queue.
+	 * Synchronized so signify() can be called from another thread than the UI
+	 * thread's key events; handleEvents() doesn't lock.
+	 */
+	private synchronized void queueEvent(int controller, int button, boolean state, long time) {
+		int bit = 1 << button;
+
+		if (overflowing && isLostEmpty()) overflowing = false;   // handleEvents() took the lost events
+
+		int t = tail;
+
+		if (overflowing || t - head == QUEUE_SIZE) {             // The game isn't taking events out fast enough
+			overflowing = true;
+			int edge = state ? bit : bit << 16;
+			int old;
+
+			do {
+				old = lost.get(controller);
+			} while (!lost.compareAndSet(controller, old, old | edge));
+
+			return;
+		}
+
+		int q = t & (QUEUE_SIZE - 1);
+
+		queueType[q] = state ? PRESSED : RELEASED;
+		queueController[q] = controller;
+		queueButton[q] = button;
+		queueTime[q] = time;
+
+		tail = t + 1;                                            // Only now can handleEvents() see it
+	}
+
+	/**
+	 * Returns true if there are no events in the lost bits.
 	 */
-	private void newpress(int controller, int keyCode) {
-		if (view != null && view.getCurrentRoom() != null && getButton(keyCode) != -1) {
-			view.getCurrentRoom().signifyNewpress(controller, getButton(keyCode));
-			updateHeld(controller, keyCode, true);
+	private boolean isLostEmpty() {
+		for (int c = 0; c < MAX_CONTROLLERS; c++) {
+			if (lost.get(c) != 0) return false;
 		}
+
+		return true;
 	}
 
 	/**
-	 * Cause released event.
+	 * Set the D-pad directions held on the axes of a controller. They only cause
+	 * events if useAxisDPADEvents() is on.
 	 *
 	 * @param controller
-	 * @param keyCode
+	 * @param buttons The directions held, one bit for each button
+	 * @param time When it happened
 	 */
-	private void released(int controller, int keyCode) {
-		if (view != null && view.getCurrentRoom() != null && getButton(keyCode) != -1) {
-			view.getCurrentRoom().signifyReleased(controller, getButton(keyCode));
-			updateHeld(controller, keyCode, false);
+	private void setAxisButtons(int controller, int buttons, long time) {
+		if (controller < 0 || controller >= MAX_CONTROLLERS) return;
+
+		if (!axisEvents) {
+			axisDown.set(controller, buttons);
+			return;
+		}
+
+		axisDown.set(controller, 0);
+		setButton(controller, KeyEvent.KEYCODE_DPAD_RIGHT, (buttons & (1 << D_RIGHT)) != 0, time);
+		setButton(controller, KeyEvent.KEYCODE_DPAD_LEFT, (buttons & (1 << D_LEFT)) != 0, time);
+		setButton(controller, KeyEvent.KEYCODE_DPAD_DOWN, (buttons & (1 << D_DOWN)) != 0, time);
+		setButton(controller, KeyEvent.KEYCODE_DPAD_UP, (buttons & (1 << D_UP)) != 0, time);
+	}
+
+	/**
+	 * Take the waiting events out of the queue, in the order they happened. For each
+	 * event the button masks are changed, then the room's newpress or released
+	 * event runs. Called by the BobView's current room at the start of each of its
+	 * updates, once per update.
+	 *
+	 * @param room The room being updated
+	 */
+	void handleEvents(Room room) {
+		int first = head;
+		int last = tail;                                         // Events put in after this wait for the next update
+
+		numEvents = last - first;
+
+		for (int e = 0; e < numEvents; e++) {
+			int q = (first + e) & (QUEUE_SIZE - 1);
+
+			eventType[e] = queueType[q];
+			eventController[e] = queueController[q];
+			eventButton[e] = queueButton[q];
+			eventTime[e] = queueTime[q];
+		}
+
+		head = last;                                             // The UI thread can use the slots again
+
+		for (int c = 0; c < MAX_CONTROLLERS; c++) {
+			pressedButtons[c] = 0;
+			releasedButtons[c] = 0;
+		}
+
+		for (int e = 0; e < numEvents; e++) {
+			int c = eventController[e];
+			int bit = 1 << eventButton[e];
+
+			if (eventType[e] == PRESSED) {
+				heldButtons[c] |= bit;
+				pressedButtons[c] |= bit;
+				room.newpress(c, eventButton[e]);
+			} else {
+				heldButtons[c] &= ~bit;
+				releasedButtons[c] |= bit;
+				room.released(c, eventButton[e]);
+			}
+		}
+
+		// Events that didn't fit in the queue came after all of the ones in it
+		for (int c = 0; c < MAX_CONTROLLERS; c++) {
+			axisButtons[c] = axisDown.get(c);
+
+			int edges = lost.getAndSet(c, 0);
+
+			if (edges == 0) continue;
+
+			for (int b = 0; b < NUM_BUTTONS; b++) {
+				int bit = 1 << b;
+				boolean press = (edges & bit) != 0;
+				boolean release = (edges & (bit << 16)) != 0;
+
+				if (release && (heldButtons[c] & bit) != 0) {     // A held button can only be released first
+					heldButtons[c] &= ~bit;
+					releasedButtons[c] |= bit;
+					room.released(c, b);
+					release = false;
+				}
+
+				if (press) {
+					heldButtons[c] |= bit;
+					pressedButtons[c] |= bit;
+					room.newpress(c, b);
+				}
+
+				if (release) {
+					heldButtons[c] &= ~bit;
+					releasedButtons[c] |= bit;
+					room.released(c, b);
+				}
+			}
 		}
 	}
 
 	/**
-	 * Determine if a button is being held.
+	 * Determine if a button is being held. D-pad directions held on the axes count,
+	 * whether they cause events or not.
 	 *
 	 * @param controller
 	 * @param button
 	 * @return True if the specified button on the specified controller is being held.
 	 */
 	public boolean held(int controller, int button) {
-		if (controller >= 0 && controller <= 4 && button >= 0 && button <= 9)
-			return held[controller][button];
+		if (button >= 0 && button < NUM_BUTTONS)
+			return (getHeldButtons(controller) & (1 << button)) != 0;
 		else
 			return false;
 	}
 
+	/**
+	 * Determine if a button was pressed during the last update. Also true for a
+	 * button that was pressed and released again in the same update.
+	 *
+	 * @param controller
+	 * @param button
+	 */
+	public boolean pressed(int controller, int button) {
+		return (getPressedButtons(controller) & (1 << button)) != 0;
+	}
+
+	/**
+	 * Determine if a button was released during the last update.
+	 *
+	 * @param controller
+	 * @param button
+	 */
+	public boolean released(int controller, int button) {
+		return (getReleasedButtons(controller) & (1 << button)) != 0;
+	}
+
+	/**
+	 * Returns the buttons held on a controller as of the last update, as a bit mask.
+	 * Button b is held if (getHeldButtons(controller) & (1 << b)) != 0.
+	 */
+	public int getHeldButtons(int controller) {
+		return controller >= 0 && controller < MAX_CONTROLLERS ? heldButtons[controller] | axisButtons[controller] : 0;
+	}
+
+	/**
+	 * Returns the buttons pressed on a controller during the last update, as a bit
+	 * mask.
+	 */
+	public int getPressedButtons(int controller) {
+		return controller >= 0 && controller < MAX_CONTROLLERS ? pressedButtons[controller] : 0;
+	}
+
+	/**
+	 * Returns the buttons released on a controller during the last update, as a bit
+	 * mask.
+	 */
+	public int getReleasedButtons(int controller) {
+		return controller >= 0 && controller < MAX_CONTROLLERS ? releasedButtons[controller] : 0;
+	}
+
+	/**
+	 * Returns the number of button events handled at the start of the last update.
+	 */
+	public int getNumEvents() {
+		return numEvents;
+	}
+
+	/**
+	 * Returns the type of a button event handled in the last update: PRESSED or
+	 * RELEASED.
+	 *
+	 * @param e The event, from 0 to getNumEvents() - 1, oldest first
+	 */
+	public int getEventType(int e) {
+		return eventType[e];
+	}
+
+	/**
+	 * Returns the controller that caused a button event handled in the last update.
+	 */
+	public int getEventController(int e) {
+		return eventController[e];
+	}
+
+	/**
+	 * Returns the button of a button event handled in the last update.
+	 */
+	public int getEventButton(int e) {
+		return eventButton[e];
+	}
+
+	/**
+	 * Returns when a button event handled in the last update happened, in
+	 * SystemClock.uptimeMillis() time.
+	 */
+	public long getEventTime(int e) {
+		return eventTime[e];
+	}
+
 	/**
 	 * Returns the value of the specified axis on the specified controller. Options for
 	 * axis are:
@@ -318,7 +622,7 @@ public class Controller {
 			}
 
 			if (event.getRepeatCount() == 0 || player != lastPlayerDown) {
-				newpress(player, keyCode);
+				setButton(player, keyCode, true, event.getEventTime());
 				lastPlayerDown = player;
 			}
 
@@ -340,7 +644,7 @@ public class Controller {
 			}
 
 			if (event.getRepeatCount() == 0 || player != lastPlayerUp) {
-				released(player, keyCode);
+				setButton(player, keyCode, false, event.getEventTime());
 				lastPlayerUp = player;
 			}
 
@@ -378,101 +682,30 @@ public class Controller {
 			dud[player] = event.getAxisValue(MotionEvent.AXIS_HAT_Y);
 
 			if (simpleDPAD) {
-				// DPAD RIGHT
-				if (dlr[player] > 0.5) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, true);
-					right = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, false);
-				}
-
-				// DPAD LEFT
-				if (dlr[player] < -0.5) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, true);
-					left = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, false);
-				}
-
-				// DPAD DOWN
-				if (dud[player] > 0.5) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, true);
-					down = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, false);
-				}
-
-				// DPAD UP
-				if (dud[player] < -0.5) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, true);
-					up = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, false);
-				}
+				right = dlr[player] > 0.5;
+				left = dlr[player] < -0.5;
+				down = dud[player] > 0.5;
+				up = dud[player] < -0.5;
 			}
 
 			if (RSdpad) {
-				// DPAD RIGHT
-				if (rsx[player] > 0.5 || right) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, true);
-					right = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, false);
-				}
-
-				// DPAD LEFT
-				if (rsx[player] < -0.5 || left) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, true);
-					left = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, false);
-				}
-
-				// DPAD DOWN
-				if (rsy[player] > 0.5 || down) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, true);
-					down = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, false);
-				}
-
-				// DPAD UP
-				if (rsy[player] < -0.5 || up) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, true);
-					up = true;
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, false);
-				}
+				right |= rsx[player] > 0.5;
+				left |= rsx[player] < -0.5;
+				down |= rsy[player] > 0.5;
+				up |= rsy[player] < -0.5;
 			}
 
 			if (LSdpad) {
-				// DPAD RIGHT
-				if (lsx[player] > 0.5 || right) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, true);
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_RIGHT, false);
-				}
-
-				// DPAD LEFT
-				if (lsx[player] < -0.5 || left) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, true);
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_LEFT, false);
-				}
-
-				// DPAD DOWN
-				if (lsy[player] > 0.5 || down) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, true);
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_DOWN, false);
-				}
+				right |= lsx[player] > 0.5;
+				left |= lsx[player] < -0.5;
+				down |= lsy[player] > 0.5;
+				up |= lsy[player] < -0.5;
+			}
 
-				// DPAD UP
-				if (lsy[player] < -0.5 || up) {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, true);
-				} else {
-					updateHeld(player, KeyEvent.KEYCODE_DPAD_UP, false);
-				}
+			// Set each direction once so the axes can't release and press it again in one event
+			if (simpleDPAD || RSdpad || LSdpad) {
+				int buttons = (right ? 1 << D_RIGHT : 0) | (left ? 1 << D_LEFT : 0) | (down ? 1 << D_DOWN : 0) | (up ? 1 << D_UP : 0);
+				setAxisButtons(player, buttons, event.getEventTime());
 			}
 
 			return true;
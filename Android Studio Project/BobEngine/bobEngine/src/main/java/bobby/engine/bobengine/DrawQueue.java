@@ -0,0 +1,199 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the GameObjects that are going to be drawn into batches. Each batch holds
+ * all of the objects that share a layer and a graphic, so each batch can be drawn
+ * with a single texture bind and a single draw call. <br/><br/>
+ *
+ * Objects are added with add() in one pass over a Room's objects. finish() then
+ * orders the batches by layer first and graphic second, the same order the Room
+ * has always drawn in. Objects inside a batch keep the order they were added in.
+ * Only batches that have objects are visited, so the cost depends on the number
+ * of objects and not on the number of layers times the number of graphics. <br/><br/>
+ *
+ * No memory is allocated once the queue has grown to fit the largest frame.
+ */
+public class DrawQueue {
+	// Constants
+	private static final int DEF_SIZE = 64;       // Starting number of objects and batches this queue can hold
+
+	// Variables
+	private int stride;                           // Number of graphic IDs per layer in bucketOf[]
+	private int bucketOf[];                       // Maps a (layer, graphic) key to its batch, -1 if there isn't one yet
+	private int numBatches;                       // The number of batches this frame
+	private int batchKey[];                       // The (layer, graphic) key of each batch, sorted by finish()
+	private int batchCount[];                     // The number of objects in each batch, indexed by the order the batches were created
+	private int batchStart[];                     // Index in sorted[] of the first object in each batch, indexed by creation order
+	private int numObjects;                       // The number of objects added this frame
+	private int objectKey[];                      // The (layer, graphic) key of each added object
+	private GameObject added[];                   // Objects in the order they were added
+	private GameObject sorted[];                  // Objects grouped by batch
+
+	public DrawQueue() {
+		stride = 1;
+		bucketOf = new int[DEF_SIZE];
+		Arrays.fill(bucketOf, -1);
+
+		batchKey = new int[DEF_SIZE];
+		batchCount = new int[DEF_SIZE];
+		batchStart = new int[DEF_SIZE];
+
+		objectKey = new int[DEF_SIZE];
+		added = new GameObject[DEF_SIZE];
+		sorted = new GameObject[DEF_SIZE];
+	}
+
+	/**
+	 * Empty the queue and get it ready for a new frame.
+	 *
+	 * @param layers The number of layers in the Room.
+	 * @param maxGraphicID The highest graphic ID that might be added this frame.
+	 */
+	public void begin(int layers, int maxGraphicID) {
+		// Forget the batches from last frame. Only the entries that were used need to be reset.
+		for (int b = 0; b < numBatches; b++) {
+			bucketOf[batchKey[b]] = -1;
+		}
+
+		// Let go of last frame's objects so removed objects can be garbage collected
+		Arrays.fill(added, 0, numObjects, null);
+		Arrays.fill(sorted, 0, numObjects, null);
+
+		numBatches = 0;
+		numObjects = 0;
+
+		stride = maxGraphicID + 1;
+
+		if (layers * stride > bucketOf.length) {
+			bucketOf = new int[layers * stride];
+			Arrays.fill(bucketOf, -1);
+		}
+	}
+
+	/**
+	 * Add an object to the batch for its layer and graphic.
+	 *
+	 * @param o The object to draw
+	 * @param layer The layer to draw o on. Must be less than the number of layers passed to begin().
+	 * @param graphicID The graphic to draw o with. Must not be more than the max graphic ID passed to begin().
+	 */
+	public void add(GameObject o, int layer, int graphicID) {
+		int key = layer * stride + graphicID;
+		int batch = bucketOf[key];
+
+		if (batch == -1) {                             // First object in this layer with this graphic
+			if (numBatches == batchKey.length) {
+				batchKey = Arrays.copyOf(batchKey, numBatches * 2);
+				batchCount = Arrays.copyOf(batchCount, numBatches * 2);
+				batchStart = Arrays.copyOf(batchStart, numBatches * 2);
+			}
+
+			batch = numBatches;
+			bucketOf[key] = batch;
+			batchKey[batch] = key;
+			batchCount[batch] = 0;
+			numBatches++;
+		}
+
+		if (numObjects == added.length) {
+			added = Arrays.copyOf(added, numObjects * 2);
+			sorted = Arrays.copyOf(sorted, numObjects * 2);
+			objectKey = Arrays.copyOf(objectKey, numObjects * 2);
+		}
+
+		added[numObjects] = o;
+		objectKey[numObjects] = key;
+		numObjects++;
+
+		batchCount[batch]++;
+	}
+
+	/**
+	 * Sort the batches into drawing order and group the objects by batch. Must be
+	 * called after the last add() and before reading the batches.
+	 */
+	public void finish() {
+		// Layer is the high part of the key, so sorting the keys sorts by layer then graphic.
+		Arrays.sort(batchKey, 0, numBatches);
+
+		int start = 0;
+		for (int b = 0; b < numBatches; b++) {
+			int batch = bucketOf[batchKey[b]];
+			batchStart[batch] = start;
+			start += batchCount[batch];
+		}
+
+		// Place each object after the ones already in its batch. batchStart[] is used as the
+		// write cursor, so afterwards it points at the end of each batch.
+		for (int o = 0; o < numObjects; o++) {
+			int batch = bucketOf[objectKey[o]];
+			sorted[batchStart[batch]] = added[o];
+			batchStart[batch]++;
+		}
+	}
+
+	/**
+	 * Returns the number of non-empty batches this frame.
+	 */
+	public int getNumBatches() {
+		return numBatches;
+	}
+
+	/**
+	 * Returns the layer of batch b. Batches are numbered in drawing order.
+	 */
+	public int getLayer(int b) {
+		return batchKey[b] / stride;
+	}
+
+	/**
+	 * Returns the graphic ID of batch b.
+	 */
+	public int getGraphicID(int b) {
+		return batchKey[b] % stride;
+	}
+
+	/**
+	 * Returns the index of the first object in batch b. Use with getObject().
+	 */
+	public int getStart(int b) {
+		int batch = bucketOf[batchKey[b]];
+		return batchStart[batch] - batchCount[batch];
+	}
+
+	/**
+	 * Returns the index after the last object in batch b.
+	 */
+	public int getEnd(int b) {
+		return batchStart[bucketOf[batchKey[b]]];
+	}
+
+	/**
+	 * Returns the object at index i. Objects in the same batch are next to each other.
+	 */
+	public GameObject getObject(int i) {
+		return sorted[i];
+	}
+}
@@ -21,7 +21,11 @@
 package bobby.engine.bobengine;
 
 import android.app.Activity;
-import android.util.Log;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 
 
 /**
@@ -33,20 +37,10 @@ import android.util.Log;
 
 public class GameObject {
 	// Constants
-	private static final int MAX_COL_BOXES = 10;       // The maximum number of collision boxes this GameObject can have
+	private static final double NO_BOXES[] = new double[0];   // Collision boxes of objects that don't have any
 	private static final int DEFAULT_NUM_QUADS = 5;    // The default max number of quads
 
 	// Data
-	/** X-Coord; Midpoint!. */
-	public double x;
-	/** Y-Coord; Midpoint!. */
-	public double y;
-	/** This object's current rotation angle. */
-	public double angle;
-	/** Height of this object in px. */
-	public double height;
-	/** Width of this object in px. */
-	public double width;
 	/** The layer that this object is to be drawn on. */
 	public int layer;
 	/** This object's ID number. */
@@ -61,22 +55,131 @@ public class GameObject {
 	/** This object's number of collision boxes. */
 	private int colBoxes;
 
+	/** Bounds of all of this object's collision boxes in the room, set by updateCollisionBounds(). */
+	private double colLeft;
+	private double colRight;
+	private double colBottom;
+	private double colTop;
+	/** Half the diagonal of the collision bounds. */
+	private double colRadius;
+
+	/** Position before the last update, for swept collision checks. */
+	private double prevX;
+	private double prevY;
+	/** Flag that indicates prevX and prevY have been set. */
+	private boolean hasPrevious;
+	/** Flag that indicates this object moves fast enough to need swept collision checks. */
+	private boolean fast;
+	/** Flag that indicates this object's update only changes this object, so it can run on any thread. */
+	private boolean parallelSafe;
+
+	/** Pass number of the last Room.getCollidingPairs() that swept this object. */
+	int sweepPass;
+
+	/** This object's place in its room's list of objects, -1 if it isn't in the list. */
+	int roomIndex = -1;
+	/** This object's place in its room's touch or touch area listener list. */
+	int touchIndex = -1;
+	/** This object's place in its room's gamepad listener list. */
+	int buttonIndex = -1;
+
+	/** Flag that indicates this object is in its room, or will be once the room's waiting changes are made. */
+	boolean inRoom;
+
+	/** Flag that indicates this object is waiting in an ObjectPool. */
+	boolean pooled;
+
+	/** Kinds of input event this object's class handles, Room.TOUCH_EVENTS and/or Room.BUTTON_EVENTS. */
+	int inputEvents;
+	/** Flag that indicates this object only gets touch events for pointers that touch it. */
+	private boolean touchArea;
+
+	/** Bits for the kinds of object this is, for collision filtering. */
+	private int colCategory;
+	/** Bits for the kinds of object this object can collide with. */
+	private int colMask;
+
+	/** Position and size the collision bounds were last worked out for. */
+	private double boundsX;
+	private double boundsY;
+	private double boundsWidth;
+	private double boundsHeight;
+
+	/** This object's color intensities, from 0 to 1. Set with setColor(). */
+	private float red;
+	private float green;
+	private float blue;
+	private float alpha;
+
 	// Objects
 	/** The room that this object is in. */
 	protected Room myRoom;
 
+	/**
+	 * The store that holds this object's x, y, angle, width and height: its room's
+	 * while it is in the room's list of objects, detached the rest of the time.
+	 */
+	TransformStore transforms;
+	/** This object's slot in transforms. */
+	int slot;
+	/** Store of this object's own, with one slot, for when it isn't in a room. */
+	TransformStore detached;
+
 	/** This object's graphic */
 	private Graphic myGraphic;
 
 	/**
-	 * This object's collision boxes. Use giveCollisionBox() to give this object
-	 * a new collision box.
+	 * This object's collision boxes, four numbers for each: the left, right, top
+	 * and bottom edges, from 0 to 1. Use giveCollisionBox() to give this object a
+	 * new collision box.
 	 */
-	public double box[][];
+	private double boxes[];
+
+	/** This object's collision boxes in the room, four numbers for each: left, right, bottom and top. */
+	private double worldBoxes[];
 
 	private Quad[] quads;
 	protected Quad main;
 	private int maxQuads;
+	/** The only quad in quads, or null if there are none or more than one. */
+	private Quad onlyQuad;
+
+	/** Scratch space that a Quad uses to build its vertices before putting them in a buffer. */
+	private float[] scratch;
+
+	/**
+	 * Flag that indicates this object's class overrides getVertices(), getGraphicVerts(), or
+	 * getIndices() so putQuads() has to go through them.
+	 */
+	private boolean usesArrays;
+
+	/** The layer this object was on the last time the Room checked it for changes. */
+	int checkedLayer = -1;
+
+	/** Build number of the last RenderFrame that tracked changes this object was put in, and the quad it started at. */
+	int frameBuild;
+	int frameStart;
+
+	/** Flag that indicates quads were added or removed since the last check for changes. */
+	private boolean quadsChanged;
+
+	/** Flag that indicates the quads should not be drawn moving from where they were before the next update. */
+	private boolean skipInterpolation;
+
+	/** Snapshot of the object attributes that affect drawing, taken by hasChanged(). */
+	private boolean lastVisible;
+	private boolean lastFollowCamera;
+	private Graphic lastGraphic;
+	private int lastPlacement;
+	private float lastRed;
+	private float lastGreen;
+	private float lastBlue;
+	private float lastAlpha;
+
+	/** Remembers which GameObject classes override the array methods so each class is only checked once. */
+	private static final HashMap<Class<?>, Boolean> arrayOverrides = new HashMap<Class<?>, Boolean>();
+	/** Remembers which input events each GameObject class handles so each class is only checked once. */
+	private static final HashMap<Class<?>, Integer> inputOverrides = new HashMap<Class<?>, Integer>();
 
 	/**
 	 * Create a GameObject with the specified id number and specifed room
@@ -106,31 +209,41 @@ public class GameObject {
 	private void init(int id, Room room, boolean addToRoom) {
 		this.id = id;
 		myRoom = room;
-		if (addToRoom) room.addObject(this);
 
-		myGraphic = new Graphic();
+		detached = new TransformStore(this);       // The room moves the transform into its own store
+		transforms = detached;
+		slot = 0;
+		detached.x[0] = detached.y[0] = detached.width[0] = detached.height[0] = 100;
+		detached.angle[0] = 0;
 
-		x = y = width = height = 100;
+		myGraphic = new Graphic();
 
 		frame = 0;
-		angle = 0;
-		box = new double[MAX_COL_BOXES][4];
+		boxes = worldBoxes = NO_BOXES;
 		colBoxes = 0;
+		boundsWidth = Double.NaN;
+		colCategory = 1;
+		colMask = -1;                              // Collides with everything
+		hasPrevious = false;
+		fast = false;
+		parallelSafe = false;
+		inputEvents = inputEventsHandled(getClass());
+		touchArea = false;
 		layer = 2;
 		visible = true;
 		followCamera = false;
+		red = green = blue = alpha = 1f;
 
 		quads = new Quad[DEFAULT_NUM_QUADS];
+		scratch = new float[Quad.VERT_SIZE];
+		usesArrays = overridesArrayMethods(getClass());
 
 		main = new Quad();
-		main.x = x;
-		main.y = y;
-		main.height = height;
-		main.width = width;
-		main.angle = angle;
 		main.visible = true;
 
 		maxQuads = DEFAULT_NUM_QUADS;
+
+		if (addToRoom) room.addObject(this);       // Last, so the room sees this object's input events and layer
 	}
 
 	/**
@@ -147,17 +260,19 @@ public class GameObject {
 	 *            - Bottom edge
 	 */
 	public void giveCollisionBox(double x1, double y1, double x2, double y2) {
+		int b = colBoxes * 4;
 
-		if (colBoxes < MAX_COL_BOXES) {
-			box[colBoxes][0] = x1;
-			box[colBoxes][1] = x2;
-			box[colBoxes][2] = y1;
-			box[colBoxes][3] = y2;
+		// The arrays only hold the boxes this object actually has
+		boxes = Arrays.copyOf(boxes, b + 4);
+		worldBoxes = Arrays.copyOf(worldBoxes, b + 4);
 
-			colBoxes++;
-		} else {
-			Log.d("BobEngine", "Hit maximum number of collision boxes.");
-		}
+		boxes[b] = x1;
+		boxes[b + 1] = x2;
+		boxes[b + 2] = y1;
+		boxes[b + 3] = y2;
+
+		colBoxes++;
+		boundsWidth = Double.NaN;                  // Work the bounds out again
 	}
 	
 	/**
@@ -167,6 +282,327 @@ public class GameObject {
 		return colBoxes;
 	}
 
+	/**
+	 * Returns one edge of one of this object's collision boxes, from 0 to 1.
+	 *
+	 * @param b The collision box, from 0 to getNumColBoxes() - 1
+	 * @param edge 0 for the left edge, 1 for the right, 2 for the top, 3 for the bottom
+	 */
+	public double getColBox(int b, int edge) {
+		return boxes[b * 4 + edge];
+	}
+
+	/**
+	 * Change one edge of one of this object's collision boxes. Use this where
+	 * code used to write to the old box field.
+	 *
+	 * @param b The collision box, from 0 to getNumColBoxes() - 1
+	 * @param edge 0 for the left edge, 1 for the right, 2 for the top, 3 for the bottom
+	 * @param value The new edge, from 0 to 1
+	 */
+	public void setColBox(int b, int edge, double value) {
+		boxes[b * 4 + edge] = value;
+		boundsWidth = Double.NaN;                  // Work the bounds out again
+	}
+
+	/**
+	 * Returns a copy of this object's collision boxes laid out like the old box
+	 * field, box[b][edge], with one row for each box.
+	 *
+	 * @deprecated The public box field is gone and this only returns a copy of it.
+	 *             Writing to the copy, like code that used to write box[b][edge]
+	 *             does, has no effect on the object's collision boxes. Use
+	 *             setColBox() to change a box, and getNumColBoxes() and getColBox()
+	 *             to read them.
+	 */
+	@Deprecated
+	public double[][] getColBoxes() {
+		double copy[][] = new double[colBoxes][4];
+
+		for (int b = 0; b < colBoxes; b++) {
+			System.arraycopy(boxes, b * 4, copy[b], 0, 4);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Work out where this object's collision boxes are in the room and the
+	 * smallest rectangle that holds them all. Only does any work if the object
+	 * has moved or changed size since the last time, so it can be called as often
+	 * as needed. Rooms call this before checking for collisions.
+	 *
+	 * @return False if this object has no collision boxes.
+	 */
+	public boolean updateCollisionBounds() {
+		if (colBoxes == 0) return false;
+
+		double x = transforms.x[slot];
+		double y = transforms.y[slot];
+		double width = transforms.width[slot];
+		double height = transforms.height[slot];
+
+		if (x == boundsX && y == boundsY && width == boundsWidth && height == boundsHeight) return true;
+
+		boundsX = x;
+		boundsY = y;
+		boundsWidth = width;
+		boundsHeight = height;
+
+		double absw = Math.abs(width);
+		double absh = Math.abs(height);
+		double left = x - absw / 2;
+		double top = y + absh / 2;
+
+		colLeft = colBottom = Double.POSITIVE_INFINITY;
+		colRight = colTop = Double.NEGATIVE_INFINITY;
+
+		// Box coordinates go from 0 at the left/top edge to 1 at the right/bottom edge
+		for (int b = 0; b < colBoxes * 4; b += 4) {
+			worldBoxes[b] = left + boxes[b] * absw;
+			worldBoxes[b + 1] = left + boxes[b + 1] * absw;
+			worldBoxes[b + 2] = top - boxes[b + 3] * absh;
+			worldBoxes[b + 3] = top - boxes[b + 2] * absh;
+
+			colLeft = Math.min(colLeft, worldBoxes[b]);
+			colRight = Math.max(colRight, worldBoxes[b + 1]);
+			colBottom = Math.min(colBottom, worldBoxes[b + 2]);
+			colTop = Math.max(colTop, worldBoxes[b + 3]);
+		}
+
+		double halfW = (colRight - colLeft) / 2;
+		double halfH = (colTop - colBottom) / 2;
+		colRadius = Math.sqrt(halfW * halfW + halfH * halfH);
+
+		return true;
+	}
+
+	/**
+	 * Returns this object's collision boxes in the room as of the last
+	 * updateCollisionBounds(), four numbers for each: left, right, bottom and top.
+	 */
+	double[] getWorldBoxes() {
+		return worldBoxes;
+	}
+
+	/**
+	 * Returns the left edge of this object's collision bounds as of the last
+	 * updateCollisionBounds().
+	 */
+	public double getCollisionLeft() {
+		return colLeft;
+	}
+
+	public double getCollisionRight() {
+		return colRight;
+	}
+
+	public double getCollisionBottom() {
+		return colBottom;
+	}
+
+	public double getCollisionTop() {
+		return colTop;
+	}
+
+	/**
+	 * Returns the radius of the circle around the center of this object's
+	 * collision bounds that holds all its collision boxes, as of the last
+	 * updateCollisionBounds().
+	 */
+	public double getCollisionRadius() {
+		return colRadius;
+	}
+
+	/**
+	 * Set the kinds of object this is, for collision filtering. Each bit is a
+	 * different kind; for example, 1 for the player, 2 for enemies, 4 for bullets
+	 * and 8 for pickups. Two objects can only collide if each one's category shares
+	 * a bit with the other's mask. Room.getCollisions(), Room.getCollidingPairs()
+	 * and the room's contact list skip pairs that can't collide before checking
+	 * any boxes. Room.checkCollision() doesn't look at categories or masks. <br/><br/>
+	 *
+	 * The category is 1 by default.
+	 *
+	 * @param category The category bits
+	 */
+	public void setCollisionCategory(int category) {
+		colCategory = category;
+	}
+
+	public int getCollisionCategory() {
+		return colCategory;
+	}
+
+	/**
+	 * Set the kinds of object this object can collide with. See
+	 * setCollisionCategory(). All bits are set by default, so objects collide
+	 * with everything. For example, bullets that shouldn't hit each other could
+	 * have a mask of ~4.
+	 *
+	 * @param mask The category bits this object can collide with
+	 */
+	public void setCollisionMask(int mask) {
+		colMask = mask;
+	}
+
+	public int getCollisionMask() {
+		return colMask;
+	}
+
+	/**
+	 * Mark this object as fast. A fast object can move further than its own size in
+	 * one update and pass right through thin objects without ever overlapping them.
+	 * Room.getCollisions(), Room.getCollidingPairs() and the contact list also check
+	 * the whole way a fast object moved during the last update, using
+	 * Room.sweep(). Off by default.
+	 *
+	 * @param fast True if this object is fast
+	 */
+	public void setFast(boolean fast) {
+		this.fast = fast;
+	}
+
+	public boolean isFast() {
+		return fast;
+	}
+
+	/**
+	 * Mark this object as parallel safe. When its room uses a parallel update (see
+	 * Room.useParallelUpdate()), parallel safe objects are updated on several
+	 * threads at once, before the rest of the objects are updated one at a time.
+	 * <br/><br/>
+	 *
+	 * Only mark an object parallel safe if its step() changes nothing but the object
+	 * itself and doesn't look at other objects that might be moving at the same
+	 * time. Objects that collide with, create or remove other objects should stay
+	 * off. Off by default.
+	 *
+	 * @param safe True if this object can be updated at the same time as others
+	 */
+	public void setParallelSafe(boolean safe) {
+		parallelSafe = safe;
+	}
+
+	public boolean isParallelSafe() {
+		return parallelSafe;
+	}
+
+	/**
+	 * Only give this object touch screen newpress and released events for pointers
+	 * that are touching it, as found by Touch.objectTouched(). When the room has a
+	 * quad tree (see Room.setQuadTree()) the objects touched are found with the
+	 * tree instead of checking each one, so a room full of buttons costs no more
+	 * per touch than a room with a few. The tree is brought up to date after each
+	 * update, so objects added since then don't get touch events until the next
+	 * one. Off by default.
+	 *
+	 * @param touchArea True to only get touch events for touches on this object
+	 */
+	public void useTouchArea(boolean touchArea) {
+		if (this.touchArea != touchArea) {
+			this.touchArea = touchArea;
+			if (myRoom != null) myRoom.moveTouchListener(this);
+		}
+	}
+
+	public boolean usesTouchArea() {
+		return touchArea;
+	}
+
+	/**
+	 * Returns the x coordinate of this object's midpoint.
+	 */
+	public double getX() {
+		return transforms.x[slot];
+	}
+
+	public void setX(double x) {
+		transforms.x[slot] = x;
+	}
+
+	/**
+	 * Returns the y coordinate of this object's midpoint.
+	 */
+	public double getY() {
+		return transforms.y[slot];
+	}
+
+	public void setY(double y) {
+		transforms.y[slot] = y;
+	}
+
+	/**
+	 * Move this object's midpoint to (x, y).
+	 */
+	public void setPosition(double x, double y) {
+		transforms.x[slot] = x;
+		transforms.y[slot] = y;
+	}
+
+	/**
+	 * Returns this object's rotation angle, in degrees.
+	 */
+	public double getAngle() {
+		return transforms.angle[slot];
+	}
+
+	public void setAngle(double angle) {
+		transforms.angle[slot] = angle;
+	}
+
+	/**
+	 * Returns the width of this object in px.
+	 */
+	public double getWidth() {
+		return transforms.width[slot];
+	}
+
+	public void setWidth(double width) {
+		transforms.width[slot] = width;
+	}
+
+	/**
+	 * Returns the height of this object in px.
+	 */
+	public double getHeight() {
+		return transforms.height[slot];
+	}
+
+	public void setHeight(double height) {
+		transforms.height[slot] = height;
+	}
+
+	/**
+	 * Returns this object's slot in its room's TransformStore, which is also its
+	 * place in the room's list of objects, or -1 if it isn't in a room's list. See
+	 * Room.getTransformStore().
+	 */
+	public int getTransformSlot() {
+		return transforms == detached ? -1 : slot;
+	}
+
+	/**
+	 * Returns the x position of this object before the last update. The same as x
+	 * if it hasn't been updated since it was made or came out of an ObjectPool, or
+	 * skipInterpolation() was called.
+	 */
+	public double getPreviousX() {
+		return hasPrevious ? prevX : transforms.x[slot];
+	}
+
+	public double getPreviousY() {
+		return hasPrevious ? prevY : transforms.y[slot];
+	}
+
+	/**
+	 * Returns true if the categories and masks of this object and another allow
+	 * them to collide.
+	 */
+	public boolean canCollideWith(GameObject other) {
+		return (colCategory & other.colMask) != 0 && (other.colCategory & colMask) != 0;
+	}
+
 	/**
 	 * Returns this object's graphic's ID number
 	 */
@@ -178,6 +614,54 @@ public class GameObject {
 		return myGraphic;
 	}
 
+	/**
+	 * Set the color intensity of this object. The color is multiplied with the
+	 * color of this object's layer set by Room.setLayerColor(). <br/><br/>
+	 *
+	 * NOTE: only the ShaderRenderer draws each object with its own color. The
+	 * BobRenderer ignores this and only uses the layer color. To use the
+	 * ShaderRenderer, override useShaders() in your BobView.
+	 *
+	 * @param r Intensity of red, from 0-1
+	 * @param g Green intensity
+	 * @param b Blue intensity
+	 * @param a Alpha intensity
+	 */
+	public void setColor(float r, float g, float b, float a) {
+		red = r;
+		green = g;
+		blue = b;
+		alpha = a;
+	}
+
+	/**
+	 * Returns this object's red intensity.
+	 */
+	public float getRed() {
+		return red;
+	}
+
+	/**
+	 * Returns this object's green intensity.
+	 */
+	public float getGreen() {
+		return green;
+	}
+
+	/**
+	 * Returns this object's blue intensity.
+	 */
+	public float getBlue() {
+		return blue;
+	}
+
+	/**
+	 * Returns this object's alpha intensity.
+	 */
+	public float getAlpha() {
+		return alpha;
+	}
+
 	/**
 	 * Set the graphic for this object with 1 frame. For better performance
 	 * when using many graphics, put multiple graphics onto a single graphic sheet and use
@@ -372,6 +856,8 @@ public class GameObject {
 		}
 
 		quads[i] = q;
+		quadsChanged = true;
+		findOnlyQuad();
 
 		return i;
 	}
@@ -397,6 +883,8 @@ public class GameObject {
 	 */
 	public void setQuad(int i, Quad q) {
 		quads[i] = q;
+		quadsChanged = true;
+		findOnlyQuad();
 		if (q != null) q.me = i;
 	}
 
@@ -418,6 +906,26 @@ public class GameObject {
 			}
 
 			maxQuads = max;
+			quadsChanged = true;
+			findOnlyQuad();
+		}
+	}
+
+	/**
+	 * Work out onlyQuad after the list of quads changed.
+	 */
+	private void findOnlyQuad() {
+		onlyQuad = null;
+
+		for (int i = 0; i < quads.length; i++) {
+			if (quads[i] != null) {
+				if (onlyQuad != null) {
+					onlyQuad = null;
+					return;
+				}
+
+				onlyQuad = quads[i];
+			}
 		}
 	}
 
@@ -518,6 +1026,249 @@ public class GameObject {
 		return 6 * quadsOnScreen;
 	}
 
+	/**
+	 * Puts the vertex and graphic coordinate data for drawing this object straight
+	 * into vertexBuffer and textureBuffer at their current positions. This is what
+	 * the Room uses to draw, so unlike getVertices() and getGraphicVerts() it does
+	 * not create any new arrays. <br/><br/>
+	 *
+	 * If getVertices(), getGraphicVerts(), or getIndices() have been overridden,
+	 * this method uses those overrides instead.
+	 *
+	 * @param vertexBuffer The buffer to put the vertices in
+	 * @param textureBuffer The buffer to put the graphic coordinates in
+	 * @return The number of indices needed to draw the data that was put in the buffers.
+	 */
+	public int putQuads(FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+		if (usesArrays) {
+			return 6 * putArrays(getVertices(), getGraphicVerts(), getIndices(), vertexBuffer, textureBuffer);
+		}
+
+		int numQuads = 0;
+
+		if (visible) {
+			for (int i = 0; i < quads.length; i++) {
+				if (quads[i] != null && quads[i].visible) {
+					quads[i].putVertices(vertexBuffer);
+					quads[i].putGraphicVerts(textureBuffer);
+					numQuads++;
+				}
+			}
+		}
+
+		return 6 * numQuads;
+	}
+
+	/**
+	 * Puts the data for drawing this object into an interleaved vertex buffer used
+	 * by the ShaderRenderer. Each vertex is stride floats long and holds x, y, graphic
+	 * x, graphic y, and a packed color. data and colors must be views of the same
+	 * memory. Buffer positions are not changed. <br/><br/>
+	 *
+	 * If getVertices(), getGraphicVerts(), or getIndices() have been overridden,
+	 * this method uses those overrides instead.
+	 *
+	 * @param data Float view of the vertex buffer
+	 * @param colors Int view of the same vertex buffer, for the packed colors
+	 * @param vertex The index of the first vertex to put
+	 * @param stride The number of floats in each vertex
+	 * @param color The packed color for every vertex of this object. See ShaderRenderer.packColor().
+	 * @return The number of quads that were put in the buffer.
+	 */
+	public int putQuads(FloatBuffer data, IntBuffer colors, int vertex, int stride, int color) {
+		int offset = vertex * stride;
+		int numQuads = 0;
+
+		if (usesArrays) {
+			return putArrays(getVertices(), getGraphicVerts(), getIndices(), data, colors, vertex, stride, color);
+		}
+
+		if (visible) {
+			for (int i = 0; i < quads.length; i++) {
+				if (quads[i] != null && quads[i].visible) {
+					quads[i].putVertices(data, offset, stride);
+					quads[i].putGraphicVerts(data, offset + 2, stride);
+
+					for (int v = 0; v < QuadIndices.VERTICES_PER_QUAD; v++) {
+						colors.put(offset + 4 + v * stride, color);
+					}
+
+					offset += stride * QuadIndices.VERTICES_PER_QUAD;
+					numQuads++;
+				}
+			}
+		}
+
+		return numQuads;
+	}
+
+	/**
+	 * Returns the most quads putQuads() might put in a buffer for this object, if it
+	 * doesn't use the array methods. See usesArrays().
+	 */
+	int getQuadBound() {
+		return quads.length;
+	}
+
+	/**
+	 * Returns true if this object's class overrides getVertices(), getGraphicVerts(),
+	 * or getIndices(), so its quads come from those arrays.
+	 */
+	boolean usesArrays() {
+		return usesArrays;
+	}
+
+	/**
+	 * Returns the number of whole quads in arrays from getVertices(),
+	 * getGraphicVerts() and getIndices(). Quads that are missing from any of them
+	 * are left out.
+	 */
+	static int arrayQuads(float verts[], float graphicVerts[], int indices) {
+		return Math.max(0, Math.min(indices / 6, Math.min(verts.length / Quad.VERT_SIZE, graphicVerts.length / Quad.GFX_VERT_SIZE)));
+	}
+
+	/**
+	 * Put the quads from arrays returned by getVertices(), getGraphicVerts() and
+	 * getIndices() in vertexBuffer and textureBuffer at their current positions.
+	 *
+	 * @return The number of quads that were put. See arrayQuads().
+	 */
+	static int putArrays(float verts[], float graphicVerts[], int indices, FloatBuffer vertexBuffer, FloatBuffer textureBuffer) {
+		int numQuads = arrayQuads(verts, graphicVerts, indices);
+
+		vertexBuffer.put(verts, 0, numQuads * Quad.VERT_SIZE);
+		textureBuffer.put(graphicVerts, 0, numQuads * Quad.GFX_VERT_SIZE);
+
+		return numQuads;
+	}
+
+	/**
+	 * Put the quads from arrays returned by getVertices(), getGraphicVerts() and
+	 * getIndices() in an interleaved vertex buffer. See putQuads(FloatBuffer,
+	 * IntBuffer, int, int, int).
+	 *
+	 * @return The number of quads that were put. See arrayQuads().
+	 */
+	static int putArrays(float verts[], float graphicVerts[], int indices, FloatBuffer data, IntBuffer colors, int vertex, int stride, int color) {
+		int numQuads = arrayQuads(verts, graphicVerts, indices);
+		int offset = vertex * stride;
+
+		for (int v = 0; v < numQuads * QuadIndices.VERTICES_PER_QUAD; v++) {
+			data.put(offset, verts[v * 2]);
+			data.put(offset + 1, verts[v * 2 + 1]);
+			data.put(offset + 2, graphicVerts[v * 2]);
+			data.put(offset + 3, graphicVerts[v * 2 + 1]);
+			colors.put(offset + 4, color);
+			offset += stride;
+		}
+
+		return numQuads;
+	}
+
+	/**
+	 * Determine if anything that affects how this object is drawn has changed since
+	 * the last time this method was called. Used by Rooms to decide when a static
+	 * layer has to be rebuilt and which parts of a frame have to be uploaded to
+	 * VertexBufferObjects. Looks at visibility, graphic and its place on an atlas
+	 * page, color, followCamera, and the position, size, angle, frame, and graphic
+	 * coordinates of each quad.
+	 * Objects that override getVertices(), getGraphicVerts(), or getIndices() are
+	 * always considered changed.
+	 *
+	 * @return True if this object needs to be drawn differently than last time.
+	 */
+	boolean hasChanged() {
+		boolean changed = usesArrays || quadsChanged;
+
+		if (visible != lastVisible || followCamera != lastFollowCamera || myGraphic != lastGraphic
+				|| myGraphic.getPlacement() != lastPlacement
+				|| red != lastRed || green != lastGreen || blue != lastBlue || alpha != lastAlpha) {
+			lastVisible = visible;
+			lastFollowCamera = followCamera;
+			lastGraphic = myGraphic;
+			lastPlacement = myGraphic.getPlacement();
+			lastRed = red;
+			lastGreen = green;
+			lastBlue = blue;
+			lastAlpha = alpha;
+			changed = true;
+		}
+
+		for (int i = 0; i < quads.length; i++) {
+			if (quads[i] != null && quads[i].hasChanged()) changed = true;   // Check every quad so each one takes a new snapshot
+		}
+
+		quadsChanged = false;
+		return changed;
+	}
+
+	/**
+	 * Determine if a GameObject class overrides any of the methods that build its
+	 * drawing data as arrays.
+	 *
+	 * @param type The class to check
+	 * @return True if type overrides getVertices(), getGraphicVerts(), or getIndices().
+	 */
+	private static boolean overridesArrayMethods(Class<?> type) {
+		synchronized (arrayOverrides) {
+			Boolean overrides = arrayOverrides.get(type);
+
+			if (overrides == null) {
+				overrides = overrides(type, "getVertices") || overrides(type, "getGraphicVerts") || overrides(type, "getIndices");
+				arrayOverrides.put(type, overrides);
+			}
+
+			return overrides;
+		}
+	}
+
+	/**
+	 * Determine which input events a GameObject class handles. Rooms only pass
+	 * events on to objects whose class overrides the methods for them.
+	 *
+	 * @param type The class to check
+	 * @return Room.TOUCH_EVENTS if type overrides newpress(int) or released(int),
+	 *         plus Room.BUTTON_EVENTS if it overrides newpress(int, int) or
+	 *         released(int, int).
+	 */
+	private static int inputEventsHandled(Class<?> type) {
+		synchronized (inputOverrides) {
+			Integer events = inputOverrides.get(type);
+
+			if (events == null) {
+				events = 0;
+
+				if (overrides(type, "newpress", int.class) || overrides(type, "released", int.class)) {
+					events |= Room.TOUCH_EVENTS;
+				}
+
+				if (overrides(type, "newpress", int.class, int.class) || overrides(type, "released", int.class, int.class)) {
+					events |= Room.BUTTON_EVENTS;
+				}
+
+				inputOverrides.put(type, events);
+			}
+
+			return events;
+		}
+	}
+
+	/**
+	 * Determine if a GameObject class overrides a method declared in GameObject.
+	 *
+	 * @param type The class to check
+	 * @param name The name of the method
+	 * @param parameters The parameter types of the method
+	 * @return True if the method is declared somewhere below GameObject in type's hierarchy.
+	 */
+	static boolean overrides(Class<?> type, String name, Class<?>... parameters) {
+		try {
+			return type.getMethod(name, parameters).getDeclaringClass() != GameObject.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Returns this game object's containing room.
 	 */
@@ -577,19 +1328,56 @@ public class GameObject {
 	 * @param deltaTime lag correction factor
 	 */
 	public void update(double deltaTime) {
+		// Remember where each quad was so frames can be drawn between updates
+		for (int i = 0; i < getMaxQuads(); i++) {
+			if (quads[i] != null) quads[i].storePosition();
+		}
+
+		prevX = transforms.x[slot];
+		prevY = transforms.y[slot];
+		hasPrevious = true;
+
 		step(deltaTime);
-		main.x = x;
-		main.y = y;
-		main.height = height;
-		main.width = width;
-		main.angle = angle;
-		main.frame = frame;
+		main.frame = frame;                        // The main quad is drawn with this object's transform, so only the frame is copied
 
 		for (int i = 0; i < getMaxQuads(); i++) {
 			if (quads[i] != null) quads[i].update(deltaTime);
 		}
 
 		frame = main.frame;
+
+		if (skipInterpolation) {
+			for (int i = 0; i < getMaxQuads(); i++) {
+				if (quads[i] != null) quads[i].storePosition();
+			}
+
+			prevX = transforms.x[slot];            // Teleported, so it didn't pass through anything
+			prevY = transforms.y[slot];
+
+			skipInterpolation = false;
+		}
+	}
+
+	/**
+	 * Draw this object at its new position right away after the next update instead
+	 * of moving it there between frames. Call this after teleporting an object when
+	 * the BobRenderer uses a fixed timestep, or when it is fast (see setFast()).
+	 */
+	public void skipInterpolation() {
+		skipInterpolation = true;
+	}
+
+	/**
+	 * Forget where this object and its quads were before the last update, so it
+	 * isn't swept or drawn from there. Used when an object comes out of an
+	 * ObjectPool, since it was last updated somewhere else entirely.
+	 */
+	void clearPrevious() {
+		hasPrevious = false;
+
+		for (int i = 0; i < getMaxQuads(); i++) {
+			if (quads[i] != null) quads[i].clearPrevious();
+		}
 	}
 	
 	/**
@@ -664,8 +1452,20 @@ public class GameObject {
 		return false;
 	}
 
+	/**
+	 * Returns true if onScreen() only depends on this object's transform in slot s
+	 * of store, so TransformStore.cull() can find it: the object is in that slot,
+	 * is only drawn with its main quad and doesn't follow the camera.
+	 */
+	boolean culledBySlot(TransformStore store, int s) {
+		return transforms == store && slot == s && onlyQuad == main && !followCamera;
+	}
+
 	/**
 	 * A textured quad with basic attributes such as x, y, height, width, etc...
+	 * The GameObject's main quad is always drawn with the GameObject's own x, y,
+	 * width, height and angle, read from its TransformStore, so the main quad's own
+	 * x, y, height, width and angle fields aren't used.
 	 */
 	public class Quad {
 		// Constants
@@ -709,6 +1509,31 @@ public class GameObject {
 		// States
 		private boolean isOnScreen;
 
+		// Snapshot of the attributes that affect drawing, taken by hasChanged()
+		private double lastX;
+		private double lastY;
+		private double lastHeight;
+		private double lastWidth;
+		private double lastAngle;
+		private boolean lastVisible;
+		private int lastFrame;
+		private float lastTX;
+		private float lastTY;
+		private float lastAnimHeight;
+		private float lastAnimWidth;
+		private int lastFrameRow;
+
+		// Sine and cosine of the angle, worked out when the angle changes
+		private double trigAngle = Double.NaN;  // The angle sin and cos are for. NaN never matches, so the first draw works them out.
+		private boolean trigTable;              // Whether sin and cos came from the TrigTable
+		private float sin;
+		private float cos;
+
+		// Position before the last update, for drawing between updates
+		private double prevX;
+		private double prevY;
+		private boolean hasPrevious;    // False until the first update
+
 		public Quad() {
 			x = y = height = width = 100;
 			angle = 0;
@@ -737,11 +1562,11 @@ public class GameObject {
 			isOnScreen = false;
 
 			// Match x and y, width, height, and angle
-			if (matchX) this.x = GameObject.this.x;
-			if (matchY) this.y = GameObject.this.y;
-			if (matchWidth) this.width = GameObject.this.width;
-			if (matchHeight) this.height = GameObject.this.height;
-			if (matchAngle) this.angle = GameObject.this.angle;
+			if (matchX) this.x = transforms.x[slot];
+			if (matchY) this.y = transforms.y[slot];
+			if (matchWidth) this.width = transforms.width[slot];
+			if (matchHeight) this.height = transforms.height[slot];
+			if (matchAngle) this.angle = transforms.angle[slot];
 
 			// Animate
 			animFinished = false;
@@ -791,6 +1616,76 @@ public class GameObject {
 			return me;
 		}
 
+		/**
+		 * Remember this quad's position so it can be drawn between it and the
+		 * position after the next update.
+		 */
+		void storePosition() {
+			if (this == main) {
+				prevX = transforms.x[slot];
+				prevY = transforms.y[slot];
+			} else {
+				prevX = x;
+				prevY = y;
+			}
+
+			hasPrevious = true;
+		}
+
+		/**
+		 * Forget the position remembered by storePosition().
+		 */
+		void clearPrevious() {
+			hasPrevious = false;
+		}
+
+		/**
+		 * Determine if anything that affects how this quad is drawn has changed since
+		 * the last time this method was called.
+		 *
+		 * @return True if this quad needs to be drawn differently than last time.
+		 */
+		boolean hasChanged() {
+			double x = this.x;
+			double y = this.y;
+			double height = this.height;
+			double width = this.width;
+			double angle = this.angle;
+
+			if (this == main) {
+				TransformStore t = transforms;
+				int s = slot;
+
+				x = t.x[s];
+				y = t.y[s];
+				height = t.height[s];
+				width = t.width[s];
+				angle = t.angle[s];
+			}
+
+			if (x == lastX && y == lastY && height == lastHeight && width == lastWidth && angle == lastAngle
+					&& visible == lastVisible && frame == lastFrame && tX == lastTX && tY == lastTY
+					&& animHeight == lastAnimHeight && animWidth == lastAnimWidth && frameRow == lastFrameRow
+					&& (!hasPrevious || (prevX == x && prevY == y))) {     // Still moving between frames when interpolated
+				return false;
+			}
+
+			lastX = x;
+			lastY = y;
+			lastHeight = height;
+			lastWidth = width;
+			lastAngle = angle;
+			lastVisible = visible;
+			lastFrame = frame;
+			lastTX = tX;
+			lastTY = tY;
+			lastAnimHeight = animHeight;
+			lastAnimWidth = animWidth;
+			lastFrameRow = frameRow;
+
+			return true;
+		}
+
 		/**
 		 * Returns this quad's graphic's ID number
 		 */
@@ -1031,28 +1926,64 @@ public class GameObject {
 		 */
 		public int getVertices(int cursor, float[] allVertices) {
 			// Data
-			double sin;
-			double cos;
 			double x = this.x;
 			double y = this.y;
+			double width = this.width;
+			double height = this.height;
+			double angle = this.angle;
+			Room room = getRoom();
+
+			if (this == main) {                        // Straight from the object's slot in the store
+				TransformStore t = transforms;
+				int s = slot;
+
+				x = t.x[s];
+				y = t.y[s];
+				width = t.width[s];
+				height = t.height[s];
+				angle = t.angle[s];
+			}
+
+			if (hasPrevious && room != null) {
+				float t = room.getInterpolation();
+
+				if (t < 1) {                           // Draw between the last two updates
+					x = prevX + (x - prevX) * t;
+					y = prevY + (y - prevY) * t;
+				}
+			}
 
 			if (followCamera) {
-				x = this.x + getRoom().getCameraLeftEdge();
-				y = this.y + getRoom().getCameraBottomEdge();
+				x += room.getDrawLeftEdge();
+				y += room.getDrawBottomEdge();
 			}
 
 			if (angle != 0) {                          // Don't do unnecessary calculations
-				cos = Math.cos(Math.toRadians(angle + 180));
-				sin = Math.sin(Math.toRadians(angle + 180));
-
-				allVertices[cursor] = (float) ((x - (x - width / 2)) * cos - (y - (y - height / 2)) * sin + x);       // Bottom Left X
-				allVertices[cursor + 1] = (float) ((x - (x - width / 2)) * sin + (y - (y - height / 2)) * cos + y);   // Bottom Left Y
-				allVertices[cursor + 2] = (float) ((x - (x - width / 2)) * cos - (y - (y + height / 2)) * sin + x);   // Top Left X
-				allVertices[cursor + 3] = (float) ((x - (x - width / 2)) * sin + (y - (y + height / 2)) * cos + y);   // Top Left Y
-				allVertices[cursor + 4] = (float) ((x - (x + width / 2)) * cos - (y - (y - height / 2)) * sin + x);   // Bottom Right X
-				allVertices[cursor + 5] = (float) ((x - (x + width / 2)) * sin + (y - (y - height / 2)) * cos + y);   // Bottom Right Y
-				allVertices[cursor + 6] = (float) ((x - (x + width / 2)) * cos - (y - (y + height / 2)) * sin + x);   // Top Right X
-				allVertices[cursor + 7] = (float) ((x - (x + width / 2)) * sin + (y - (y + height / 2)) * cos + y);   // Top Right Y
+				float cx = (float) x;                  // Center
+				float cy = (float) y;
+				float halfW = (float) (width / 2);
+				float halfH = (float) (height / 2);
+
+				boolean table = TrigTable.isEnabled();
+
+				if (angle != trigAngle || trigTable != table) {
+					updateTrig(angle, table);
+				}
+
+				// The corners are (+/-halfW, +/-halfH) rotated by angle around the center.
+				float wCos = halfW * cos;
+				float wSin = halfW * sin;
+				float hCos = halfH * cos;
+				float hSin = halfH * sin;
+
+				allVertices[cursor] = cx - wCos + hSin;        // Bottom Left X
+				allVertices[cursor + 1] = cy - wSin - hCos;    // Bottom Left Y
+				allVertices[cursor + 2] = cx - wCos - hSin;    // Top Left X
+				allVertices[cursor + 3] = cy - wSin + hCos;    // Top Left Y
+				allVertices[cursor + 4] = cx + wCos + hSin;    // Bottom Right X
+				allVertices[cursor + 5] = cy + wSin - hCos;    // Bottom Right Y
+				allVertices[cursor + 6] = cx + wCos - hSin;    // Top Right X
+				allVertices[cursor + 7] = cy + wSin + hCos;    // Top Right Y
 			} else {
 				allVertices[cursor] = (float) (x - width / 2);         // Bottom Left X
 				allVertices[cursor + 1] = (float) (y - height / 2);    // Bottom Left Y
@@ -1068,6 +1999,55 @@ public class GameObject {
 			return cursor;
 		}
 
+		/**
+		 * Work out the sine and cosine of this quad's angle.
+		 *
+		 * @param angle The angle, in degrees
+		 * @param table True to look them up in the TrigTable
+		 */
+		private void updateTrig(double angle, boolean table) {
+			trigAngle = angle;
+			trigTable = table;
+
+			if (table) {
+				sin = TrigTable.sin(angle);
+				cos = TrigTable.cos(angle);
+			} else {
+				double radians = Math.toRadians(angle);  // Only convert once for both
+				sin = (float) Math.sin(radians);
+				cos = (float) Math.cos(radians);
+			}
+		}
+
+		/**
+		 * Puts the vertices for this Quad into buffer at its current position.
+		 *
+		 * @param buffer The buffer to put the vertices in
+		 */
+		public void putVertices(FloatBuffer buffer) {
+			getVertices(0, scratch);
+			buffer.put(scratch, 0, VERT_SIZE);
+		}
+
+		/**
+		 * Puts the vertices for this Quad into an interleaved buffer without changing
+		 * its position. Each vertex's x and y go at offset and offset + 1, then the
+		 * next vertex starts stride floats later.
+		 *
+		 * @param buffer The buffer to put the vertices in
+		 * @param offset Index in buffer of the first vertex's x
+		 * @param stride The number of floats from one vertex to the next
+		 */
+		public void putVertices(FloatBuffer buffer, int offset, int stride) {
+			getVertices(0, scratch);
+
+			for (int v = 0; v < VERT_SIZE; v += 2) {
+				buffer.put(offset, scratch[v]);
+				buffer.put(offset + 1, scratch[v + 1]);
+				offset += stride;
+			}
+		}
+
 		/**
 		 * Places the graphics vertices for this Quad into allGraphicVerts at position
 		 * cursor. Returns the index of the next element in allGraphicsVerts after the last
@@ -1094,6 +2074,12 @@ public class GameObject {
 			topY += 1f / (animHeight * myGraphic.height * 100f);
 			bottomY -= 1f / (animHeight * myGraphic.height * 100f);
 
+			// Move onto the graphic's atlas page, if it has been packed into one
+			leftX = myGraphic.toTextureX(leftX);
+			rightX = myGraphic.toTextureX(rightX);
+			topY = myGraphic.toTextureY(topY);
+			bottomY = myGraphic.toTextureY(bottomY);
+
 			allGraphicVerts[cursor] = leftX;
 			allGraphicVerts[cursor + 1] = bottomY;
 			allGraphicVerts[cursor + 2] = leftX;
@@ -1107,6 +2093,34 @@ public class GameObject {
 			return cursor;
 		}
 
+		/**
+		 * Puts the graphic vertices for this Quad into buffer at its current position.
+		 *
+		 * @param buffer The buffer to put the graphic vertices in
+		 */
+		public void putGraphicVerts(FloatBuffer buffer) {
+			getGraphicVerts(0, scratch);
+			buffer.put(scratch, 0, GFX_VERT_SIZE);
+		}
+
+		/**
+		 * Puts the graphic vertices for this Quad into an interleaved buffer without
+		 * changing its position. Works like putVertices(FloatBuffer, int, int).
+		 *
+		 * @param buffer The buffer to put the graphic vertices in
+		 * @param offset Index in buffer of the first vertex's graphic x
+		 * @param stride The number of floats from one vertex to the next
+		 */
+		public void putGraphicVerts(FloatBuffer buffer, int offset, int stride) {
+			getGraphicVerts(0, scratch);
+
+			for (int v = 0; v < GFX_VERT_SIZE; v += 2) {
+				buffer.put(offset, scratch[v]);
+				buffer.put(offset + 1, scratch[v + 1]);
+				offset += stride;
+			}
+		}
+
 		/**
 		 * Determines if this quad is on the screen or beyond the edge of the
 		 * screen.
@@ -1116,9 +2130,17 @@ public class GameObject {
 		 */
 		public boolean onScreen() {
 			if (!isOnScreen) {
-				boolean flip = false;
-				if (width < 0) flip = true;
-				width = Math.abs(width);
+				double x = this.x;
+				double y = this.y;
+				double width = Math.abs(this.width);
+				double height = this.height;
+
+				if (this == main) {
+					x = transforms.x[slot];
+					y = transforms.y[slot];
+					width = Math.abs(transforms.width[slot]);
+					height = transforms.height[slot];
+				}
 
 				double screenLeft = getRoom().getCameraLeftEdge();
 				double screenRight = getRoom().getCameraRightEdge();
@@ -1134,13 +2156,11 @@ public class GameObject {
 
 				if (x > -width / 2 + screenLeft && x < width / 2 + screenRight) {
 					if (y > -height / 2 + screenBottom && y < height / 2 + screenTop) {
-						if (flip) width = -width;
 						isOnScreen = true;
 						return true;
 					}
 				}
 
-				if (flip) width = -width;
 				return false;
 			} else {
 				return true;
@@ -44,6 +44,15 @@ public class Graphic {
 	private boolean shouldBeLoaded;  // Flag that indicates this Graphic should be loaded.
 	private boolean shouldRemove;    // Flag that indicates this Graphic should be removed from the GraphicsHelper.
 
+	private TextureAtlas.Page atlasPage;  // The atlas page this graphic is packed into, null if it has its own texture
+	private int atlasX;                   // Left edge of this graphic on its atlas page, in pixels
+	private int atlasY;                   // Top edge of this graphic on its atlas page, in pixels
+	private float atlasLeft;              // Left edge of this graphic on its atlas page, from 0 to 1
+	private float atlasTop;               // Top edge of this graphic on its atlas page, from 0 to 1
+	private float atlasWidth;             // Width of this graphic on its atlas page, from 0 to 1
+	private float atlasHeight;            // Height of this graphic on its atlas page, from 0 to 1
+	private int placement;                // Changes each time this graphic is put on or taken off of an atlas page
+
 	
 	/**
 	 * Set up a default texture.
@@ -104,6 +113,106 @@ public class Graphic {
 		this.height = height;
 	}
 
+	/**
+	 * Returns the OpenGL ID number of the texture this graphic is drawn from. This is
+	 * the ID of its atlas page if it has been packed into a TextureAtlas, otherwise it
+	 * is the same as id.
+	 */
+	public int getTextureID() {
+		if (atlasPage != null) return atlasPage.id;
+		else return id;
+	}
+
+	/**
+	 * Returns the atlas page this graphic has been packed into, or null if this
+	 * graphic has its own texture.
+	 */
+	public TextureAtlas.Page getAtlasPage() {
+		return atlasPage;
+	}
+
+	/**
+	 * Convert an x coordinate on this graphic, from 0 to 1, to an x coordinate on
+	 * the texture it is drawn from.
+	 */
+	public float toTextureX(float x) {
+		if (atlasPage != null) return atlasLeft + x * atlasWidth;
+		else return x;
+	}
+
+	/**
+	 * Convert a y coordinate on this graphic, from 0 to 1, to a y coordinate on
+	 * the texture it is drawn from.
+	 */
+	public float toTextureY(float y) {
+		if (atlasPage != null) return atlasTop + y * atlasHeight;
+		else return y;
+	}
+
+	/**
+	 * Place this graphic on an atlas page.
+	 *
+	 * @param page The page this graphic is on
+	 * @param x Left edge of this graphic on the page, in pixels
+	 * @param y Top edge of this graphic on the page, in pixels
+	 */
+	void setAtlasPage(TextureAtlas.Page page, int x, int y) {
+		atlasPage = page;
+		atlasX = x;
+		atlasY = y;
+		atlasLeft = (float) x / (float) page.width;
+		atlasTop = (float) y / (float) page.height;
+		atlasWidth = (float) width / (float) page.width;
+		atlasHeight = (float) height / (float) page.height;
+		placement++;
+	}
+
+	/**
+	 * Take this graphic off of its atlas page. It gets its own texture unless it is
+	 * packed again.
+	 */
+	void clearAtlasPage() {
+		atlasPage = null;
+		placement++;
+	}
+
+	/**
+	 * Returns a number that changes each time this graphic is put on or taken off
+	 * of an atlas page, which moves its graphic coordinates.
+	 */
+	int getPlacement() {
+		return placement;
+	}
+
+	/**
+	 * Returns the left edge of this graphic on its atlas page, in pixels.
+	 */
+	int getAtlasX() {
+		return atlasX;
+	}
+
+	/**
+	 * Returns the top edge of this graphic on its atlas page, in pixels.
+	 */
+	int getAtlasY() {
+		return atlasY;
+	}
+
+	/**
+	 * Returns the width of the space this graphic was given on its atlas page, in pixels.
+	 * This doesn't change if setDimensions() is called after the graphic is packed.
+	 */
+	int getAtlasWidth() {
+		return Math.round(atlasWidth * atlasPage.width);
+	}
+
+	/**
+	 * Returns the height of the space this graphic was given on its atlas page, in pixels.
+	 */
+	int getAtlasHeight() {
+		return Math.round(atlasHeight * atlasPage.height);
+	}
+
 	/**
 	 * Tell the engine to load this graphic. The graphic is not loaded immediately.
 	 * When the graphic has been loaded, isLoaded() will return true.
@@ -28,6 +28,9 @@ import javax.microedition.khronos.opengles.GL11;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
 
@@ -43,6 +46,8 @@ public class GraphicsHelper {
 	// Constants
 	private final static int START_NUM_TEX = 50;     // Starting maximum number of textures (graphics)
 	public final static int DEF_CLEANUPS = 2;        // Default number of cleanups until a graphic is removed.
+	public final static int DEF_ATLAS_PAGE = 1024;   // Default width and height of atlas pages
+	public final static int DEF_ATLAS_MAX = 256;     // Default largest graphic that is packed into an atlas page
 
 	// Variables
 	private int numGFX;                              // Number of added graphics
@@ -52,9 +57,12 @@ public class GraphicsHelper {
 	private int magFilter;                           // Upscale filter to use
 	private int minFilter;                           // Downscale filter to use
 	private int	cleanupsTilRemoval;                  // Number of cleanups until a graphic is removed.
+	private boolean useGLES2;                        // Flag indicates graphics are loaded in an OpenGL ES 2.0 context
+	private boolean useAtlas;                        // Flag indicates small graphics should be packed into atlas pages
 
 	// Object
 	private Context context;
+	private TextureAtlas atlas;                      // Packs small graphics into shared textures, null until useAtlas() is called
 
 	public GraphicsHelper(Context context) {
 		this.context = context;
@@ -91,6 +99,16 @@ public class GraphicsHelper {
 		this.magFilter = magFilter;
 	}
 
+	/**
+	 * Set whether graphics are loaded with OpenGL ES 2.0 calls instead of OpenGL ES 1.x
+	 * calls. This is set by the BobRenderer when its surface is created.
+	 *
+	 * @param use True if the current OpenGL context is an OpenGL ES 2.0 context.
+	 */
+	public void useGLES2(boolean use) {
+		useGLES2 = use;
+	}
+
 	/**
 	 * Create a usable graphic from a drawable image.
 	 * 
@@ -102,36 +120,14 @@ public class GraphicsHelper {
 	 *         graphic. Store this somewhere where it can be accessed by
 	 *         GameObjects (Like as a static property in a BobView).
 	 */
-	public Graphic addGraphic(int drawable, boolean shouldLoad) {
+	public synchronized Graphic addGraphic(int drawable, boolean shouldLoad) {
 		// Data
-		int graphic = 1;
+		int graphic;
 
 		Graphic alreadyAdded = findGraphic(drawable, useMipMaps, minFilter, magFilter);
 		if (alreadyAdded != null) return alreadyAdded;
 
-		numGFX++;
-
-		if (numGFX >= graphics.length) {                           // Hit max graphics
-			cleanUp();                                             // Try to get rid of some that haven't been used recently
-
-			if (numGFX >= graphics.length) {                       // Still too many, increase size of graphics
-				Graphic[] temp = graphics;
-				graphics = new Graphic[graphics.length + START_NUM_TEX];
-
-				for (int i = 0; i < temp.length; i++) {
-					graphics[i] = temp[i];
-				}
-			}
-		}
-
-		for (int i = 1; i < graphics.length; i++) {
-			if (graphics[i] == null) {
-				graphic = i;
-				break;
-			}
-		}
-
-		if (graphic > maxGFX) maxGFX = graphic;
+		graphic = nextID();
 
 		try {
 			// Load the bitmap just to get the height and width
@@ -151,6 +147,8 @@ public class GraphicsHelper {
 			
 			graphics[graphic] = new Graphic(drawable, bmp.getHeight(), bmp.getWidth(), minFilter, magFilter, useMipMaps, graphic);
 			bmp.recycle();
+
+			if (useAtlas && atlas.fits(graphics[graphic])) pack(graphics[graphic]);
 		} catch (OutOfMemoryError e) {
 			graphics[graphic] = new Graphic(drawable, 100, 100, minFilter, magFilter, useMipMaps, graphic);
 			Log.e("BobEngine", "Image too large. Unable to get height and width.");
@@ -178,18 +176,40 @@ public class GraphicsHelper {
 	 * Add a graphic object. graphic may be assigned a new ID.
 	 * @param graphic
 	 */
-	public void addGraphic(Graphic graphic) {
+	public synchronized void addGraphic(Graphic graphic) {
 		// Data
-		int g = 1;
+		int g;
 
 		Graphic alreadyAdded = findGraphic(graphic.drawable, graphic.useMipMaps, graphic.minFilter, graphic.magFilter);
 		if (alreadyAdded != null) {
+			// A different instance for the same image replaces the old one, so the old one
+			// shouldn't keep its space on an atlas page
+			if (alreadyAdded != graphic && atlas != null) atlas.remove(alreadyAdded);
+
 			graphic.id = alreadyAdded.id;
 			graphic.indicateUsed(cleanupsTilRemoval);
 			graphics[graphic.id] = graphic;
-			return;
+		} else {
+			g = nextID();
+
+			graphic.id = g;
+			graphic.indicateUsed(cleanupsTilRemoval);
+			graphics[g] = graphic;
 		}
 
+		// A graphic that was cleaned up lost its place on its atlas page
+		if (useAtlas && graphic.getAtlasPage() == null && atlas.fits(graphic)) pack(graphic);
+	}
+
+	/**
+	 * Find an unused graphic ID. The list of graphics grows if it is full.
+	 *
+	 * @return The new ID.
+	 */
+	private int nextID() {
+		// Data
+		int id = 1;
+
 		numGFX++;
 
 		if (numGFX >= graphics.length) {                           // Hit max graphics
@@ -207,23 +227,68 @@ public class GraphicsHelper {
 
 		for (int i = 1; i < graphics.length; i++) {
 			if (graphics[i] == null) {
-				g = i;
+				id = i;
 				break;
 			}
 		}
 
-		if (g > maxGFX) maxGFX = g;
+		if (id > maxGFX) maxGFX = id;
 
-		graphic.id = g;
-		graphic.indicateUsed(cleanupsTilRemoval);
-		graphics[g] = graphic;
+		return id;
+	}
+
+	/**
+	 * Pack small graphics added after this method is called into shared textures
+	 * (atlas pages), using the default page size. See useAtlas(boolean, int, int).
+	 *
+	 * @param use True to pack graphics into atlas pages, false to give each new graphic its own texture.
+	 */
+	public void useAtlas(boolean use) {
+		useAtlas(use, DEF_ATLAS_PAGE, DEF_ATLAS_MAX);
+	}
+
+	/**
+	 * Pack small graphics added after this method is called into shared textures
+	 * (atlas pages). GameObjects whose graphics share a page are drawn together
+	 * with one texture bind and one draw call, even though they use different
+	 * graphics. Off by default. <br/>
+	 * <br/>
+	 *
+	 * Graphics keep their own width, height, and graphic coordinates, so setGraphic()
+	 * and setPreciseGraphic() work the same way for packed graphics. Only graphics
+	 * with the same texture parameters (see setParameters()) share a page. Packed
+	 * graphics that use mipmaps may pick up a little color from their neighbours
+	 * when drawn much smaller than their real size.
+	 *
+	 * @param use True to pack graphics into atlas pages, false to give each new graphic its own texture.
+	 * @param pageSize The width and height of each page, in pixels. Should be a power of two.
+	 * @param maxSize Graphics wider or taller than this, in pixels, get their own texture.
+	 */
+	public void useAtlas(boolean use, int pageSize, int maxSize) {
+		useAtlas = use;                                            // Graphics already packed keep their pages
+
+		if (use && (atlas == null || atlas.getPageSize() != pageSize)) {
+			atlas = new TextureAtlas(pageSize, maxSize);
+		}
+	}
+
+	/**
+	 * Put a graphic on an atlas page, adding a new page if the existing ones are full.
+	 */
+	private void pack(Graphic graphic) {
+		if (atlas.pack(graphic) == null) {
+			TextureAtlas.Page page = atlas.newPage(graphic);
+
+			page.id = nextID();
+			graphics[page.id] = page;
+		}
 	}
 
 	/**
 	 * Signify that a graphic should be removed from the list.
 	 * @param graphic
 	 */
-	public void removeGraphic(Graphic graphic) {
+	public synchronized void removeGraphic(Graphic graphic) {
 		if (graphics[graphic.id] == graphic) graphics[graphic.id].remove();
 	}
 
@@ -235,7 +300,7 @@ public class GraphicsHelper {
 	 */
 	public Graphic findGraphic(int drawable) {
 		for (int i = 0; i < graphics.length; i++) {
-			if (graphics[i] != null && graphics[i].drawable == drawable) return graphics[i];
+			if (graphics[i] != null && graphics[i].drawable == drawable && !(graphics[i] instanceof TextureAtlas.Page)) return graphics[i];
 		}
 
 		return null;
@@ -247,9 +312,10 @@ public class GraphicsHelper {
 	 * @param drawable The drawable to find
 	 * @return A graphic object created from the drawable or null if the drawable has not been added.
 	 */
-	public Graphic findGraphic(int drawable, boolean useMipMaps, int minFilter, int magFilter) {
+	public synchronized Graphic findGraphic(int drawable, boolean useMipMaps, int minFilter, int magFilter) {
 		for (int i = 0; i < graphics.length; i++) {
 			if (graphics[i] != null
+					&& !(graphics[i] instanceof TextureAtlas.Page)
 					&& graphics[i].drawable == drawable
 					&& graphics[i].useMipMaps == useMipMaps
 					&& graphics[i].minFilter == minFilter
@@ -282,7 +348,7 @@ public class GraphicsHelper {
 	/**
 	 * Will find all graphics that have not been recently used and mark them for removal.
 	 */
-	public void cleanUp() {
+	public synchronized void cleanUp() {
 		for (int i = 1; i < graphics.length; i++) {
 			if (graphics[i] != null) {
 				graphics[i].cleanup();
@@ -291,11 +357,13 @@ public class GraphicsHelper {
 	}
 
 	/**
-	 * Perform outstanding graphic commands (load, unload, remove).
+	 * Perform outstanding graphic commands (load, unload, remove). Graphics may be
+	 * added from the BobRenderer's update thread while this runs on the GL thread,
+	 * so the methods that change the list of graphics are synchronized.
 	 * 
 	 * @param gl
 	 */
-	public void handleGraphics(GL11 gl) {
+	public synchronized void handleGraphics(GL11 gl) {
 		int sampleSize = 1;
 		boolean success = false;
 		boolean changed = false;
@@ -305,13 +373,16 @@ public class GraphicsHelper {
 				for (int t = 0; t < graphics.length; t++) {
 					if (graphics[t] != null) {
 						if (graphics[t].shouldLoad()) {                             // Should we load it?
-							loadGraphic(gl, t, sampleSize);
+							if (graphics[t] instanceof TextureAtlas.Page) loadPage(gl, t, sampleSize);
+							else if (graphics[t].getAtlasPage() != null) loadPacked(gl, t, sampleSize);
+							else loadGraphic(gl, t, sampleSize);
 							changed = true;
 						} else if (graphics[t].shouldUnload()) {                    // Should we unload it?
 							unloadGraphic(gl, t);
 							changed = true;
 						} else if (graphics[t].shouldRemove()) {
 							unloadGraphic(gl, t);
+							if (atlas != null) atlas.remove(graphics[t]);      // Frees the page once its last graphic is gone
 							graphics[t].removed();
 							graphics[t] = null;
 							numGFX--;
@@ -328,7 +399,10 @@ public class GraphicsHelper {
 			}
 		} while (!success);  // Try again
 
-		if (changed) gl.glFinish();
+		if (changed) {
+			if (useGLES2) GLES20.glFinish();
+			else gl.glFinish();
+		}
 	}
 
 	/**
@@ -339,11 +413,100 @@ public class GraphicsHelper {
 	 * @param sampleSize The sample size to load the graphic.
 	 */
 	private void loadGraphic(GL11 gl, int t, int sampleSize) {
+		uploadGraphic(gl, t, decode(graphics[t].drawable, sampleSize));
+	}
+
+	/**
+	 * Load a graphic that is packed into an atlas page. The page's texture is made
+	 * if it hasn't been yet or if graphics were added to it since it was made.
+	 *
+	 * @param gl The OpenGL object to handle gl functions
+	 * @param t The id number of the packed graphic
+	 * @param sampleSize The sample size to load the page.
+	 */
+	private void loadPacked(GL11 gl, int t, int sampleSize) {
+		TextureAtlas.Page page = graphics[t].getAtlasPage();
+
+		if (!page.isLoaded() || page.isDirty()) {
+			page.load();
+			loadPage(gl, page.id, sampleSize);
+		}
+
+		graphics[t].loaded();
+	}
+
+	/**
+	 * Make the texture for an atlas page by drawing each of its graphics onto one
+	 * bitmap. The edge pixels of each graphic are repeated into the padding around
+	 * it so filtering at the edges doesn't pick up the neighbouring graphics.
+	 *
+	 * @param gl The OpenGL object to handle gl functions
+	 * @param t The id number of the page
+	 * @param sampleSize The sample size to load the page.
+	 */
+	private void loadPage(GL11 gl, int t, int sampleSize) {
+		TextureAtlas.Page page = (TextureAtlas.Page) graphics[t];
+		Bitmap bmp = Bitmap.createBitmap(page.width / sampleSize, page.height / sampleSize, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bmp);
+		Rect src = new Rect();
+		Rect dst = new Rect();
+
+		for (int m = 0; m < page.getMembers().size(); m++) {
+			Graphic g = page.getMembers().get(m);
+			Bitmap member = decode(g.drawable, sampleSize);
+
+			int left = g.getAtlasX() / sampleSize;
+			int top = g.getAtlasY() / sampleSize;
+			int right = left + Math.max(1, g.getAtlasWidth() / sampleSize);
+			int bottom = top + Math.max(1, g.getAtlasHeight() / sampleSize);
+			int w = member.getWidth();
+			int h = member.getHeight();
+
+			src.set(0, 0, w, h);
+			dst.set(left, top, right, bottom);
+			canvas.drawBitmap(member, src, dst, null);
+
+			if (sampleSize == 1) {                                         // Down sampled pages don't have room for the padding
+				// Left edge
+				src.set(0, 0, 1, h);
+				dst.set(left - 1, top, left, bottom);
+				canvas.drawBitmap(member, src, dst, null);
+
+				// Right edge
+				src.set(w - 1, 0, w, h);
+				dst.set(right, top, right + 1, bottom);
+				canvas.drawBitmap(member, src, dst, null);
+
+				// Top edge
+				src.set(0, 0, w, 1);
+				dst.set(left, top - 1, right, top);
+				canvas.drawBitmap(member, src, dst, null);
+
+				// Bottom edge
+				src.set(0, h - 1, w, h);
+				dst.set(left, bottom, right, bottom + 1);
+				canvas.drawBitmap(member, src, dst, null);
+			}
+
+			member.recycle();
+		}
+
+		page.clean();
+		uploadGraphic(gl, t, bmp);
+	}
+
+	/**
+	 * Decode a drawable into a bitmap.
+	 *
+	 * @param drawable The drawable to decode
+	 * @param sampleSize The sample size to decode the drawable.
+	 */
+	private Bitmap decode(int drawable, int sampleSize) {
 		Bitmap bmp;
 		BitmapFactory.Options op = new BitmapFactory.Options();
 		op.inSampleSize = sampleSize;
 
-		InputStream is = context.getResources().openRawResource(graphics[t].drawable);
+		InputStream is = context.getResources().openRawResource(drawable);
 
 		try {
 			bmp = BitmapFactory.decodeStream(is, null, op);
@@ -358,6 +521,22 @@ public class GraphicsHelper {
 
 		//bmp = BitmapFactory.decodeResource(context.getResources(), graphics[t]); // Old way... does some filtering so no 'retro' style graphics.
 
+		return bmp;
+	}
+
+	/**
+	 * Give a decoded graphic to OpenGL.
+	 *
+	 * @param gl The OpenGL object to handle gl functions
+	 * @param t The id number of the graphic
+	 * @param bmp The decoded graphic. It is recycled.
+	 */
+	private void uploadGraphic(GL11 gl, int t, Bitmap bmp) {
+		if (useGLES2) {
+			loadGraphicGLES2(t, bmp);
+			return;
+		}
+
 		// Tell openGL which texture we are working with
 		gl.glBindTexture(GL11.GL_TEXTURE_2D, t);
 
@@ -383,12 +562,62 @@ public class GraphicsHelper {
 		gl.glFinish();
 	}
 
+	/**
+	 * Load a particular graphic in an OpenGL ES 2.0 context. OpenGL ES 2.0 has no
+	 * GL_GENERATE_MIPMAP so mipmaps are made with glGenerateMipmap(). Mipmaps can
+	 * only be made for graphics with power of two sizes, so other graphics fall back
+	 * to a downscale filter that doesn't need them.
+	 *
+	 * @param t The id number of the graphic to load
+	 * @param bmp The decoded graphic
+	 */
+	private void loadGraphicGLES2(int t, Bitmap bmp) {
+		boolean mipmaps = graphics[t].useMipMaps && isPowerOfTwo(bmp.getWidth()) && isPowerOfTwo(bmp.getHeight());
+		int min = graphics[t].minFilter;
+
+		if (!mipmaps) {
+			if (min == GLES20.GL_NEAREST_MIPMAP_NEAREST || min == GLES20.GL_NEAREST_MIPMAP_LINEAR) min = GLES20.GL_NEAREST;
+			else if (min == GLES20.GL_LINEAR_MIPMAP_NEAREST || min == GLES20.GL_LINEAR_MIPMAP_LINEAR) min = GLES20.GL_LINEAR;
+		}
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, t);
+
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, min);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, graphics[t].magFilter);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bmp, 0);
+		if (mipmaps) GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+
+		bmp.recycle();
+
+		graphics[t].loaded();
+
+		GLES20.glFinish();
+	}
+
+	/**
+	 * Returns true if n is a power of two.
+	 */
+	private static boolean isPowerOfTwo(int n) {
+		return n > 0 && (n & (n - 1)) == 0;
+	}
+
 	/**
 	 * Unload a particular graphic.
 	 */
 	private void unloadGraphic(GL11 gl, int t) {
 		int[] tex = { t };
-		gl.glDeleteTextures(1, tex, 0);
+
+		if (graphics[t].getAtlasPage() != null) {                  // Packed graphics don't have their own texture
+			graphics[t].deleted();
+			return;
+		}
+
+		if (useGLES2) GLES20.glDeleteTextures(1, tex, 0);
+		else gl.glDeleteTextures(1, tex, 0);
+
 		graphics[t].deleted();
 	}
 
@@ -0,0 +1,159 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+
+/**
+ * Holds the built geometry of a static layer so it can be drawn again without
+ * culling, sorting, or building vertices. <br/><br/>
+ *
+ * The Room marks the cache invalid when an object on the layer changes how it is
+ * drawn, when an object joins or leaves the layer, or when the layer color changes.
+ * The cache also becomes invalid when the camera moves, since which objects are on
+ * screen depends on it. The next Room.buildFrame() then rebuilds it. <br/><br/>
+ *
+ * Objects are culled with the camera as the last update left it, so frames drawn
+ * between two updates with a fixed timestep can keep using the cache while the
+ * interpolated camera moves. Objects that follow the camera are placed with the
+ * interpolated camera though, so a layer that has any is rebuilt whenever that
+ * changes. <br/><br/>
+ *
+ * The geometry is kept in a RenderFrame of its own and copied into the room's
+ * frame with RenderFrame.append().
+ */
+public class LayerCache {
+	// Variables
+	private boolean valid;                            // False if the cache has to be rebuilt before drawing
+	private boolean shaders;                          // True if built for the ShaderRenderer
+	private int maxGraphicID;                         // The max graphic ID when the cache was built
+	private float camLeft;                            // Camera edges when the cache was built
+	private float camRight;
+	private float camTop;
+	private float camBottom;
+	private boolean followers;                        // True if an object on the layer follows the camera
+	private float drawLeft;                           // Interpolated camera edges when the cache was built
+	private float drawBottom;
+
+	// Objects
+	private DrawQueue queue;                          // Sorts the layer's objects by texture while building
+	private RenderFrame frame;                        // The built geometry
+
+	public LayerCache() {
+		valid = false;
+
+		queue = new DrawQueue();
+		frame = new RenderFrame();
+	}
+
+	/**
+	 * Mark this cache as needing to be rebuilt.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Determine if the cache can be drawn as it is.
+	 *
+	 * @param room The room the layer is in
+	 * @param shaders True if the ShaderRenderer is drawing
+	 * @param maxGraphicID The current max graphic ID
+	 * @return True if nothing has changed since the cache was built.
+	 */
+	public boolean isValid(Room room, boolean shaders, int maxGraphicID) {
+		if (!valid || this.shaders != shaders || this.maxGraphicID != maxGraphicID) return false;
+
+		if (camLeft != room.getCameraLeftEdge() || camRight != room.getCameraRightEdge()
+				|| camTop != room.getCameraTopEdge() || camBottom != room.getCameraBottomEdge()) {
+			return false;
+		}
+
+		return !followers || (drawLeft == room.getDrawLeftEdge() && drawBottom == room.getDrawBottomEdge());
+	}
+
+	/**
+	 * Build the geometry for the objects on a layer.
+	 *
+	 * @param room The room the layer is in
+	 * @param obs The room's objects
+	 * @param layer The layer to build
+	 * @param shaders True to build for the ShaderRenderer
+	 * @param maxGraphicID The current max graphic ID
+	 * @param r The red intensity of each layer, only used for the ShaderRenderer
+	 * @param g The green intensity of each layer
+	 * @param b The blue intensity of each layer
+	 * @param a The alpha intensity of each layer
+	 */
+	public void build(Room room, ArrayList<GameObject> obs, int layer, boolean shaders, int maxGraphicID, float r[], float g[], float b[], float a[]) {
+		// Sort the visible objects by texture
+		queue.begin(1, maxGraphicID);
+		followers = false;
+
+		for (int o = 0; o < obs.size(); o++) {
+			GameObject ob = obs.get(o);
+
+			if (ob != null && ob.layer == layer && ob.getGraphic().getTextureID() <= maxGraphicID && ob.onScreen()) {
+				queue.add(ob, 0, ob.getGraphic().getTextureID());
+				if (ob.followCamera) followers = true;
+			}
+		}
+
+		queue.finish();
+
+		// Build each batch
+		frame.begin(room, shaders, r, g, b, a);
+
+		for (int q = 0; q < queue.getNumBatches(); q++) {
+			for (int o = queue.getStart(q); o < queue.getEnd(q); o++) {
+				frame.add(queue.getObject(o), layer, queue.getGraphicID(q));
+			}
+		}
+
+		queue.begin(1, 0);                            // Let go of the objects
+
+		this.shaders = shaders;
+		this.maxGraphicID = maxGraphicID;
+		camLeft = room.getCameraLeftEdge();
+		camRight = room.getCameraRightEdge();
+		camTop = room.getCameraTopEdge();
+		camBottom = room.getCameraBottomEdge();
+		drawLeft = room.getDrawLeftEdge();
+		drawBottom = room.getDrawBottomEdge();
+		valid = true;
+	}
+
+	/**
+	 * Make the cache's buffers fit the layer when it is next built, and rebuild it
+	 * on the next draw so that happens right away.
+	 */
+	public void shrink() {
+		frame.shrink();
+		valid = false;
+	}
+
+	/**
+	 * Returns the built geometry. Its batches are all on the cached layer.
+	 */
+	public RenderFrame getFrame() {
+		return frame;
+	}
+}
@@ -49,7 +49,9 @@ public class NumberDisplay extends GameObject {
 
 		setGraphic(getView().getGraphicsHelper().addGraphic(R.drawable.numbers), 10);
 
-		x = y = width = height = 100;
+		setPosition(100, 100);
+		setWidth(100);
+		setHeight(100);
 		position = 0;
 		digits = 1;
 		number = 0;
@@ -60,7 +62,9 @@ public class NumberDisplay extends GameObject {
 
 		setGraphic(getView().getGraphicsHelper().addGraphic(R.drawable.numbers), 10);
 
-		x = y = width = height = 100;
+		setPosition(100, 100);
+		setWidth(100);
+		setHeight(100);
 		position = 0;
 		digits = 1;
 		number = 0;
@@ -84,13 +88,13 @@ public class NumberDisplay extends GameObject {
 		number = 0;
 		frame = 0;
 
-		realWidth = width = getRoom().getWidth() * sizeRatio;
-		height = width;
+		realWidth = getRoom().getWidth() * sizeRatio;
+		setWidth(realWidth);
+		setHeight(realWidth);
 		digits = 1;
         position = 0;
 
-		this.x = x;
-		this.y = y;
+		setPosition(x, y);
 	}
 	
 	/**
@@ -191,12 +195,17 @@ public class NumberDisplay extends GameObject {
 	 * 
 	 * @return
 	 */
-	public double getWidth() {
+	public double getRealWidth() {
 		return realWidth;
 	}
 
 	// Step
 	public void update(double deltaTime) {
+		double x = getX();
+		double y = getY();
+		double width = getWidth();
+		double height = getHeight();
+
 		if (realWidth < width) {
 			realWidth = width;
 		}
@@ -207,10 +216,8 @@ public class NumberDisplay extends GameObject {
 		setMaxQuads(digits);
 
 		int tempNum;
-		double oX;
 
 		tempNum = number;
-		oX = x;
 		realWidth = width * (digits - 1);
 
 		for (int d = 0; d < digits; d++) {
@@ -378,8 +385,6 @@ public class NumberDisplay extends GameObject {
 			}
 		}
 
-		x = oX;
-
 		super.update(deltaTime);
 	}
 }
@@ -0,0 +1,147 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.Arrays;
+
+/**
+ * Keeps GameObjects of one type that are no longer needed so they can be used
+ * again instead of making new ones. Making a GameObject makes its quads, graphic
+ * and collision boxes too, so games that keep making and removing objects, like
+ * bullets, get pauses while the garbage collector cleans up after them. <br/><br/>
+ *
+ * acquire() takes an object out of the pool and adds it to the room. release()
+ * removes it from the room and puts it back in the pool. New objects are only
+ * made when the pool is empty. Make a pool with Room.createPool().
+ *
+ * @param <T> The type of object in the pool
+ */
+public class ObjectPool<T extends GameObject> {
+
+	/**
+	 * Makes new objects for a pool and gets used ones ready to be used again.
+	 */
+	public interface Factory<T extends GameObject> {
+
+		/**
+		 * Make a new object. It may add itself to the room or not.
+		 *
+		 * @param room The room the pool is for
+		 */
+		public T create(Room room);
+
+		/**
+		 * Get an object ready to be used, both when it is new and when it comes out
+		 * of the pool again. Called before the object is added to the room.
+		 */
+		public void reset(T ob);
+	}
+
+	// Variables
+	private int numFree;                              // Number of objects in the pool
+
+	// Objects
+	private Room room;                                // The room objects are added to
+	private Factory<T> factory;                       // Makes and resets the objects
+	private GameObject free[];                        // The objects in the pool
+
+	public ObjectPool(Room room, Factory<T> factory) {
+		this.room = room;
+		this.factory = factory;
+		free = new GameObject[16];
+	}
+
+	/**
+	 * Take an object out of the pool, or make a new one if the pool is empty, reset
+	 * it and add it to the room.
+	 *
+	 * @return The object
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		T ob;
+
+		if (numFree > 0) {
+			ob = (T) free[--numFree];
+			free[numFree] = null;
+		} else {
+			ob = factory.create(room);
+		}
+
+		ob.pooled = false;
+		ob.clearPrevious();                          // Don't sweep or draw it from where it was last used
+
+		factory.reset(ob);
+
+		if (!ob.inRoom) room.addObject(ob);          // New objects may have added themselves
+
+		return ob;
+	}
+
+	/**
+	 * Remove an object from the room and put it in the pool. Don't use the object
+	 * after releasing it. Releasing an object that is already in the pool does
+	 * nothing, so it can't be handed out twice.
+	 *
+	 * @param ob An object from acquire()
+	 */
+	public void release(T ob) {
+		if (ob.pooled) return;
+
+		ob.pooled = true;
+
+		if (ob.inRoom) room.deleteObject(ob);
+
+		if (numFree == free.length) {
+			free = Arrays.copyOf(free, numFree * 2);
+		}
+
+		free[numFree++] = ob;
+	}
+
+	/**
+	 * Make objects until the pool holds a number of them, so they don't have to be
+	 * made in the middle of the game.
+	 *
+	 * @param count Number of objects the pool should hold
+	 */
+	public void fill(int count) {
+		while (numFree < count) {
+			T ob = factory.create(room);
+
+			if (ob.inRoom) room.deleteObject(ob);
+
+			if (numFree == free.length) {
+				free = Arrays.copyOf(free, numFree * 2);
+			}
+
+			ob.pooled = true;
+			free[numFree++] = ob;
+		}
+	}
+
+	/**
+	 * Returns the number of objects in the pool.
+	 */
+	public int getNumFree() {
+		return numFree;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Updates GameObjects on all of the device's cores at once. Used by Room when
+ * Room.useParallelUpdate() is on. <br/><br/>
+ *
+ * One worker thread is kept for each core but one; the thread calling update()
+ * does its share too. The objects are split into small chunks and each thread
+ * takes the next chunk as soon as it finishes its last one, so a thread that got
+ * slow objects doesn't hold the others up. Only one update() runs at a time, so
+ * all rooms share the same workers.
+ */
+public class ParallelUpdate {
+	// Constants
+	private static final int CHUNK = 16;              // Number of objects a thread takes at a time
+
+	// Variables
+	private static ParallelUpdate shared;             // The workers shared by all rooms
+	private int numWorkers;                           // Number of worker threads
+	private int numWork;                              // Number of objects in work
+	private double deltaTime;                         // Delta time to update the objects with
+	private int job;                                  // Increases with each update(), so the workers know there's work
+	private int busy;                                 // Number of workers still working on the current job
+	private double snapshot[];                        // Positions of the objects before the update, for checking
+	private double results[];                         // Positions of the objects after the parallel update, for checking
+
+	// Objects
+	private final Object lock = new Object();         // Guards job and busy
+	private final AtomicInteger next = new AtomicInteger();   // Index of the next object to update
+	private GameObject work[];                        // The objects being updated
+	private volatile RuntimeException error;          // Exception thrown by a worker during the current job
+
+	/**
+	 * Returns the workers shared by all rooms, starting them the first time.
+	 */
+	public static synchronized ParallelUpdate getShared() {
+		if (shared == null) {
+			shared = new ParallelUpdate(Runtime.getRuntime().availableProcessors() - 1);
+		}
+
+		return shared;
+	}
+
+	/**
+	 * Start a set of worker threads.
+	 *
+	 * @param workers Number of worker threads, not counting the thread calling update().
+	 */
+	public ParallelUpdate(int workers) {
+		numWorkers = Math.max(0, workers);
+		work = new GameObject[64];
+
+		for (int w = 0; w < numWorkers; w++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					workerLoop();
+				}
+			}, "BobEngine update " + w);
+
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns the number of threads that objects are updated on, including the
+	 * thread calling update().
+	 */
+	public int getNumThreads() {
+		return numWorkers + 1;
+	}
+
+	/**
+	 * Update every parallel safe object in a list (see GameObject.setParallelSafe())
+	 * at the same time and wait until they are all done. Other objects are left
+	 * alone.
+	 *
+	 * @param objects The objects to update. Null entries are skipped.
+	 * @param deltaTime Delta time to update the objects with
+	 */
+	public synchronized void update(ArrayList<GameObject> objects, double deltaTime) {
+		collect(objects);
+		runJob(deltaTime);
+		Arrays.fill(work, 0, numWork, null);          // Let go of the objects
+	}
+
+	/**
+	 * Update every parallel safe object twice from the same start, once at the same
+	 * time and once one after the other, and log each object that ended up
+	 * somewhere different. Finds objects that aren't really parallel safe because
+	 * their step() looks at or changes other objects. <br/><br/>
+	 *
+	 * Only x, y, angle, width, height and frame are put back between the two
+	 * updates and compared, so anything else an object's step() changes, like a
+	 * timer, is changed twice. Only for testing.
+	 *
+	 * @param objects The objects to update. Null entries are skipped.
+	 * @param deltaTime Delta time to update the objects with
+	 * @return The number of objects that ended up somewhere different.
+	 */
+	public synchronized int updateAndCheck(ArrayList<GameObject> objects, double deltaTime) {
+		collect(objects);
+
+		if (snapshot == null || snapshot.length < numWork * 6) {
+			snapshot = new double[work.length * 6];
+			results = new double[work.length * 6];
+		}
+
+		for (int o = 0; o < numWork; o++) {
+			save(work[o], snapshot, o * 6);
+		}
+
+		runJob(deltaTime);
+
+		for (int o = 0; o < numWork; o++) {
+			save(work[o], results, o * 6);
+			restore(work[o], snapshot, o * 6);
+		}
+
+		for (int o = 0; o < numWork; o++) {
+			work[o].update(deltaTime);
+		}
+
+		int different = 0;
+
+		for (int o = 0; o < numWork; o++) {
+			GameObject ob = work[o];
+			int s = o * 6;
+
+			if (ob.getX() != results[s] || ob.getY() != results[s + 1] || ob.getAngle() != results[s + 2]
+					|| ob.getWidth() != results[s + 3] || ob.getHeight() != results[s + 4] || ob.frame != (int) results[s + 5]) {
+				Log.e("BobEngine", "Parallel update of object " + ob.id + " (" + ob.getClass().getSimpleName() + ") doesn't match the sequential update.");
+				different++;
+			}
+		}
+
+		Arrays.fill(work, 0, numWork, null);
+		return different;
+	}
+
+	/**
+	 * Put the parallel safe objects in work.
+	 */
+	private void collect(ArrayList<GameObject> objects) {
+		numWork = 0;
+
+		for (int o = 0; o < objects.size(); o++) {
+			GameObject ob = objects.get(o);
+
+			if (ob != null && ob.isParallelSafe()) {
+				if (numWork == work.length) {
+					work = Arrays.copyOf(work, numWork * 2);
+				}
+
+				work[numWork++] = ob;
+			}
+		}
+	}
+
+	/**
+	 * Update the objects in work on every thread and wait for all of them to finish.
+	 */
+	private void runJob(double deltaTime) {
+		if (numWork == 0) return;
+
+		this.deltaTime = deltaTime;
+		next.set(0);
+		error = null;
+
+		boolean share = numWorkers > 0 && numWork > CHUNK;   // Only wake the workers if there's enough to share
+
+		if (share) {
+			synchronized (lock) {
+				busy = numWorkers;
+				job++;
+				lock.notifyAll();
+			}
+		}
+
+		try {
+			updateChunks();
+		} catch (RuntimeException e) {
+			error = e;
+			next.set(numWork);                        // Stop the workers taking more
+		}
+
+		if (share) {
+			boolean interrupted = false;
+
+			synchronized (lock) {
+				while (busy > 0) {                    // The workers are using the objects, so they have to be waited for
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+
+		if (error != null) throw error;
+	}
+
+	/**
+	 * Update chunks of objects until there are none left.
+	 */
+	private void updateChunks() {
+		for (int start = next.getAndAdd(CHUNK); start < numWork; start = next.getAndAdd(CHUNK)) {
+			int end = Math.min(numWork, start + CHUNK);
+
+			for (int o = start; o < end; o++) {
+				work[o].update(deltaTime);
+			}
+		}
+	}
+
+	/**
+	 * What each worker thread does: wait for a job, help with it, repeat.
+	 */
+	private void workerLoop() {
+		int lastJob = 0;
+
+		while (true) {
+			synchronized (lock) {
+				while (job == lastJob) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+
+				lastJob = job;
+			}
+
+			try {
+				updateChunks();
+			} catch (RuntimeException e) {
+				error = e;
+				next.set(numWork);
+			}
+
+			synchronized (lock) {
+				busy--;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private static void save(GameObject ob, double to[], int s) {
+		to[s] = ob.getX();
+		to[s + 1] = ob.getY();
+		to[s + 2] = ob.getAngle();
+		to[s + 3] = ob.getWidth();
+		to[s + 4] = ob.getHeight();
+		to[s + 5] = ob.frame;
+	}
+
+	private static void restore(GameObject ob, double from[], int s) {
+		ob.setX(from[s]);
+		ob.setY(from[s + 1]);
+		ob.setAngle(from[s + 2]);
+		ob.setWidth(from[s + 3]);
+		ob.setHeight(from[s + 4]);
+		ob.frame = (int) from[s + 5];
+	}
+}
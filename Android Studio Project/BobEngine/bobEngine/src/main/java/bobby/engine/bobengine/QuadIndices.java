@@ -0,0 +1,102 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * The index buffer used to draw quads. Every quad is drawn as two triangles
+ * using the same pattern of indices, so one buffer is shared by every Room and
+ * every layer. It starts out small and is rebuilt twice as big whenever more
+ * quads need to be drawn at once, up to the most that can be drawn at once. <br/><br/>
+ *
+ * A buffer is never changed after it is built. Don't write to it or move its
+ * position; it must stay at 0 for glDrawElements().
+ */
+public final class QuadIndices {
+	// Constants
+	public static final int INDICES_PER_QUAD = 6;                 // Two triangles per quad
+	public static final int VERTICES_PER_QUAD = 4;                // Corners of a quad
+	public static final int MAX_QUADS = 65536 / VERTICES_PER_QUAD; // The most quads an unsigned short index can reach in one draw call
+	private static final int MIN_QUADS = 256;                     // Number of quads the first buffer holds
+
+	// Variables
+	private static int capacity = 0;                              // Number of quads the shared buffer holds
+
+	// Objects
+	private static ShortBuffer indices;                           // The shared index buffer
+
+	private QuadIndices() {
+
+	}
+
+	/**
+	 * Get a shared index buffer that holds the indices for MAX_QUADS quads.
+	 *
+	 * @return The shared index buffer, positioned at 0.
+	 */
+	public static ShortBuffer get() {
+		return get(MAX_QUADS);
+	}
+
+	/**
+	 * Get the shared index buffer, making it bigger first if it can't draw the given
+	 * number of quads. The indices are in the order: bottom left, top left, bottom
+	 * right, top left, bottom right, top right.
+	 *
+	 * @param quads The number of quads that will be drawn, at most MAX_QUADS
+	 * @return The shared index buffer, positioned at 0.
+	 */
+	public static synchronized ShortBuffer get(int quads) {
+		if (quads > capacity) {
+			int newCapacity = Math.max(MIN_QUADS, capacity);
+			while (newCapacity < quads) {
+				newCapacity *= 2;
+			}
+
+			newCapacity = Math.min(newCapacity, MAX_QUADS);
+
+			ByteBuffer bytes = ByteBuffer.allocateDirect(newCapacity * INDICES_PER_QUAD * 2);   // 2 bytes per short
+			bytes.order(ByteOrder.nativeOrder());
+
+			ShortBuffer buffer = bytes.asShortBuffer();
+
+			for (int q = 0; q < newCapacity; q++) {
+				int first = q * VERTICES_PER_QUAD;
+
+				buffer.put((short) (first + 0));
+				buffer.put((short) (first + 1));
+				buffer.put((short) (first + 2));
+				buffer.put((short) (first + 1));
+				buffer.put((short) (first + 2));
+				buffer.put((short) (first + 3));
+			}
+
+			buffer.position(0);
+			indices = buffer;
+			capacity = newCapacity;
+		}
+
+		return indices;
+	}
+}
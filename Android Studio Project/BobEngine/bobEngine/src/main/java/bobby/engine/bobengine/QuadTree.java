@@ -0,0 +1,388 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Finds the GameObjects at a point or in an area without looking at every object.
+ * Used by Room.objectAtPosition(), Room.objectsInArea() and Room.getTouchedObject()
+ * once a room has one (see Room.setQuadTree()). <br/><br/>
+ *
+ * The tree covers a square region of the room that is split into four smaller
+ * squares, each of which is split again, down to the tree's depth. Each object is
+ * kept in the smallest square that is at least as big as the object and holds the
+ * object's center. Squares are treated as twice their size when searching, so
+ * objects never have to be split between squares and an object that moves only
+ * has to change squares when its center crosses into another one. Objects outside
+ * the region or bigger than it are kept in a list of their own and always
+ * checked. <br/><br/>
+ *
+ * The bounds of each object cover both its drawn rectangle (x, y, width and
+ * height) and its collision boxes.
+ */
+public class QuadTree {
+	// Constants
+	public static final int DEF_DEPTH = 6;            // Default number of times the region is split
+	public static final int MAX_DEPTH = 8;            // Deepest a tree can go
+	private static final int OUTSIDE = -1;            // Node of objects that aren't in the tree
+
+	// Variables
+	private double left;                              // Left edge of the region
+	private double bottom;                            // Bottom edge of the region
+	private double size;                              // Width and height of the region
+	private int depth;                                // Number of times the region is split
+	private int levelStart[];                         // Index of the first node on each level
+	private int nodeHead[];                           // First slot in each node, -1 for none
+	private int nodeCount[];                          // Number of objects in each node and the nodes below it
+	private int outsideHead;                          // First slot outside the tree, -1 for none
+	private int numSlots;                             // Number of slots used, including free ones
+	private int numFree;                              // Number of free slots
+	private int free[];                               // Slots that can be reused
+	private double objLeft[];                         // Bounds of each slot's object
+	private double objRight[];
+	private double objBottom[];
+	private double objTop[];
+	private int level[];                              // Level of the node each slot is in
+	private int cellX[];                              // Column of the node each slot is in
+	private int cellY[];                              // Row of the node each slot is in
+	private int node[];                               // Node each slot is in, OUTSIDE if not in the tree
+	private int next[];                               // Next slot in the same node, -1 for none
+	private int prev[];                               // Previous slot in the same node, -1 for none
+	private int order[];                              // Place of each slot's object in the room's list of objects
+	private int seen[];                               // Update number each slot's object was last seen in
+	private int updateNumber;                         // Increases with each update
+
+	// Objects
+	private GameObject objects[];                     // The object in each slot, null if the slot is free
+	private IdentityHashMap<GameObject, Integer> slots;   // The slot of each object
+
+	/**
+	 * Create a quad tree that is split DEF_DEPTH times.
+	 *
+	 * @param left Left edge of the region the tree covers
+	 * @param bottom Bottom edge of the region
+	 * @param right Right edge of the region
+	 * @param top Top edge of the region
+	 */
+	public QuadTree(double left, double bottom, double right, double top) {
+		this(left, bottom, right, top, DEF_DEPTH);
+	}
+
+	/**
+	 * Create a quad tree.
+	 *
+	 * @param left Left edge of the region the tree covers
+	 * @param bottom Bottom edge of the region
+	 * @param right Right edge of the region
+	 * @param top Top edge of the region
+	 * @param depth Number of times the region is split, from 0 to MAX_DEPTH. The
+	 *              smallest squares should be about the size of the room's smallest
+	 *              objects.
+	 */
+	public QuadTree(double left, double bottom, double right, double top, int depth) {
+		this.left = left;
+		this.bottom = bottom;
+		this.size = Math.max(right - left, top - bottom);
+		this.depth = Math.max(0, Math.min(MAX_DEPTH, depth));
+
+		levelStart = new int[this.depth + 2];
+		for (int l = 1; l < levelStart.length; l++) {
+			levelStart[l] = levelStart[l - 1] + (1 << (2 * (l - 1)));
+		}
+
+		nodeHead = new int[levelStart[this.depth + 1]];
+		nodeCount = new int[nodeHead.length];
+		Arrays.fill(nodeHead, -1);
+		outsideHead = -1;
+
+		objects = new GameObject[16];
+		objLeft = new double[16];
+		objRight = new double[16];
+		objBottom = new double[16];
+		objTop = new double[16];
+		level = new int[16];
+		cellX = new int[16];
+		cellY = new int[16];
+		node = new int[16];
+		next = new int[16];
+		prev = new int[16];
+		order = new int[16];
+		seen = new int[16];
+		free = new int[16];
+
+		slots = new IdentityHashMap<GameObject, Integer>();
+	}
+
+	/**
+	 * Bring the tree up to date with where the objects are now. Objects that
+	 * haven't left their square since the last update stay where they are. Objects
+	 * that aren't in the list anymore are taken out of the tree.
+	 *
+	 * @param obs The room's objects. Null entries are skipped. The collision bounds
+	 *            of objects with collision boxes must already be up to date.
+	 */
+	public void update(ArrayList<GameObject> obs) {
+		updateNumber++;
+
+		for (int o = 0; o < obs.size(); o++) {
+			GameObject ob = obs.get(o);
+
+			if (ob == null) continue;
+
+			Integer slot = slots.get(ob);
+			int s = slot == null ? add(ob) : slot;
+
+			seen[s] = updateNumber;
+			order[s] = o;
+			place(s);
+		}
+
+		for (int s = 0; s < numSlots; s++) {
+			if (objects[s] != null && seen[s] != updateNumber) {
+				remove(s);
+			}
+		}
+	}
+
+	/**
+	 * Find every object whose bounds overlap a rectangle. The objects are found as
+	 * of the last update. Each object is only found once.
+	 *
+	 * @param qLeft Left edge of the rectangle
+	 * @param qBottom Bottom edge
+	 * @param qRight Right edge
+	 * @param qTop Top edge
+	 * @param results The objects are added to the end of this list.
+	 */
+	public void query(double qLeft, double qBottom, double qRight, double qTop, ArrayList<GameObject> results) {
+		if (nodeCount[0] > 0) {
+			query(0, 0, 0, qLeft, qBottom, qRight, qTop, results);
+		}
+
+		collect(outsideHead, qLeft, qBottom, qRight, qTop, results);
+	}
+
+	/**
+	 * Returns the place of an object in the room's list of objects as of the last
+	 * update, or -1 if the object isn't in the tree.
+	 */
+	int getOrder(GameObject ob) {
+		Integer slot = slots.get(ob);
+		return slot == null ? -1 : order[slot];
+	}
+
+	/**
+	 * Look in a node and the nodes below it.
+	 */
+	private void query(int l, int x, int y, double qLeft, double qBottom, double qRight, double qTop, ArrayList<GameObject> results) {
+		double cell = size / (1 << l);
+
+		// Objects in a node can stick out of it by half its size on every side
+		double nodeLeft = left + (x - 0.5) * cell;
+		double nodeBottom = bottom + (y - 0.5) * cell;
+
+		if (nodeLeft > qRight || nodeLeft + 2 * cell < qLeft || nodeBottom > qTop || nodeBottom + 2 * cell < qBottom) return;
+
+		collect(nodeHead[levelStart[l] + y * (1 << l) + x], qLeft, qBottom, qRight, qTop, results);
+
+		if (l == depth) return;
+
+		for (int c = 0; c < 4; c++) {
+			int cx = x * 2 + (c & 1);
+			int cy = y * 2 + (c >> 1);
+
+			if (nodeCount[levelStart[l + 1] + cy * (1 << (l + 1)) + cx] > 0) {
+				query(l + 1, cx, cy, qLeft, qBottom, qRight, qTop, results);
+			}
+		}
+	}
+
+	/**
+	 * Add the objects in a list of slots that overlap a rectangle to results.
+	 */
+	private void collect(int head, double qLeft, double qBottom, double qRight, double qTop, ArrayList<GameObject> results) {
+		for (int s = head; s != -1; s = next[s]) {
+			if (objLeft[s] <= qRight && qLeft <= objRight[s] && objBottom[s] <= qTop && qBottom <= objTop[s]) {
+				results.add(objects[s]);
+			}
+		}
+	}
+
+	/**
+	 * Work out a slot's bounds and move it to the node it belongs in, if it isn't
+	 * there already.
+	 */
+	private void place(int s) {
+		GameObject ob = objects[s];
+
+		double x = ob.getX();
+		double y = ob.getY();
+		double halfW = Math.abs(ob.getWidth()) / 2;
+		double halfH = Math.abs(ob.getHeight()) / 2;
+		double l = x - halfW;
+		double r = x + halfW;
+		double b = y - halfH;
+		double t = y + halfH;
+
+		if (ob.getNumColBoxes() > 0) {
+			l = Math.min(l, ob.getCollisionLeft());
+			r = Math.max(r, ob.getCollisionRight());
+			b = Math.min(b, ob.getCollisionBottom());
+			t = Math.max(t, ob.getCollisionTop());
+		}
+
+		objLeft[s] = l;
+		objRight[s] = r;
+		objBottom[s] = b;
+		objTop[s] = t;
+
+		// Find the smallest square that is at least as big as the object
+		double extent = Math.max(r - l, t - b);
+		double centerX = (l + r) / 2 - left;
+		double centerY = (b + t) / 2 - bottom;
+
+		if (!(extent <= size && centerX >= 0 && centerX <= size && centerY >= 0 && centerY <= size)) {   // Also catches NaN
+			if (node[s] != OUTSIDE) {
+				unlink(s);
+				link(s, OUTSIDE, 0, 0, 0);
+			}
+
+			return;
+		}
+
+		int toLevel = 0;
+		double cell = size;
+
+		while (toLevel < depth && extent <= cell / 2) {
+			cell /= 2;
+			toLevel++;
+		}
+
+		int last = (1 << toLevel) - 1;
+		int toX = Math.min(last, (int) (centerX / cell));
+		int toY = Math.min(last, (int) (centerY / cell));
+		int toNode = levelStart[toLevel] + toY * (1 << toLevel) + toX;
+
+		if (toNode != node[s]) {
+			unlink(s);
+			link(s, toNode, toLevel, toX, toY);
+		}
+	}
+
+	/**
+	 * Put a slot at the front of a node's list and count it in the nodes above.
+	 */
+	private void link(int s, int n, int l, int x, int y) {
+		node[s] = n;
+		level[s] = l;
+		cellX[s] = x;
+		cellY[s] = y;
+		prev[s] = -1;
+
+		if (n == OUTSIDE) {
+			next[s] = outsideHead;
+			if (outsideHead != -1) prev[outsideHead] = s;
+			outsideHead = s;
+			return;
+		}
+
+		next[s] = nodeHead[n];
+		if (nodeHead[n] != -1) prev[nodeHead[n]] = s;
+		nodeHead[n] = s;
+
+		for (int up = l; up >= 0; up--) {
+			nodeCount[levelStart[up] + (y >> (l - up)) * (1 << up) + (x >> (l - up))]++;
+		}
+	}
+
+	/**
+	 * Take a slot out of its node's list and stop counting it in the nodes above.
+	 */
+	private void unlink(int s) {
+		int n = node[s];
+
+		if (prev[s] != -1) next[prev[s]] = next[s];
+		else if (n == OUTSIDE) outsideHead = next[s];
+		else nodeHead[n] = next[s];
+
+		if (next[s] != -1) prev[next[s]] = prev[s];
+
+		if (n != OUTSIDE) {
+			int l = level[s];
+
+			for (int up = l; up >= 0; up--) {
+				nodeCount[levelStart[up] + (cellY[s] >> (l - up)) * (1 << up) + (cellX[s] >> (l - up))]--;
+			}
+		}
+	}
+
+	/**
+	 * Give an object a slot, outside the tree until it is placed.
+	 *
+	 * @return The object's slot.
+	 */
+	private int add(GameObject ob) {
+		int s;
+
+		if (numFree > 0) {
+			s = free[--numFree];
+		} else {
+			if (numSlots == objects.length) {
+				int size = numSlots * 2;
+				objects = Arrays.copyOf(objects, size);
+				objLeft = Arrays.copyOf(objLeft, size);
+				objRight = Arrays.copyOf(objRight, size);
+				objBottom = Arrays.copyOf(objBottom, size);
+				objTop = Arrays.copyOf(objTop, size);
+				level = Arrays.copyOf(level, size);
+				cellX = Arrays.copyOf(cellX, size);
+				cellY = Arrays.copyOf(cellY, size);
+				node = Arrays.copyOf(node, size);
+				next = Arrays.copyOf(next, size);
+				prev = Arrays.copyOf(prev, size);
+				order = Arrays.copyOf(order, size);
+				seen = Arrays.copyOf(seen, size);
+				free = Arrays.copyOf(free, size);
+			}
+
+			s = numSlots++;
+		}
+
+		objects[s] = ob;
+		slots.put(ob, s);
+		link(s, OUTSIDE, 0, 0, 0);
+
+		return s;
+	}
+
+	/**
+	 * Take an object out of the tree and free its slot.
+	 */
+	private void remove(int s) {
+		unlink(s);
+		slots.remove(objects[s]);
+		objects[s] = null;
+		free[numFree++] = s;
+	}
+}
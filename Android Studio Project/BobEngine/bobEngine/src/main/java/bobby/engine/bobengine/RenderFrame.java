@@ -0,0 +1,609 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything needed to draw one frame of a Room: the camera, the layer colors,
+ * the built quads, and the list of batches to draw them in. <br/><br/>
+ *
+ * A Room builds a frame with Room.buildFrame() and draws it with Room.render().
+ * Building doesn't make any OpenGL calls and drawing doesn't look at any
+ * GameObjects, so the two can happen on different threads. Once a frame has
+ * been built nothing in it changes until it is built again. <br/><br/>
+ *
+ * The quads are kept in the format of the renderer the frame is built for:
+ * separate vertex and graphic coordinate buffers for the BobRenderer, and
+ * interleaved vertices with colors for the ShaderRenderer. Batches next to each
+ * other that can be drawn together are joined as they are added. <br/><br/>
+ *
+ * The buffers start small and are replaced with ones twice as big whenever
+ * they are too small, keeping the quads already added. They only get smaller
+ * when shrink() is called. <br/><br/>
+ *
+ * A frame built by a Room for the BobRenderer also keeps the ranges of quads that
+ * differ from the frame the room built before it, so VertexBufferObjects only has
+ * to upload those. See trackChanges().
+ */
+public class RenderFrame {
+	// Constants
+	private static final int DEF_QUADS = 64;          // Starting number of quads a frame can hold
+	private static final int MERGE_GAP = 4;           // Changed ranges fewer than this many quads apart are joined
+
+	private static final AtomicInteger builds = new AtomicInteger();   // Gives each build a number
+
+	// Variables
+	private boolean shaders;                          // True if built for the ShaderRenderer
+	private float camLeft;                            // Camera edges
+	private float camRight;
+	private float camTop;
+	private float camBottom;
+	private float red[];                              // Layer colors
+	private float green[];
+	private float blue[];
+	private float alpha[];
+	private int capacity;                             // Number of quads the buffers can hold
+	private volatile boolean shrink;                  // Flag indicates the buffers should be made to fit on the next begin()
+	private int numQuads;                             // Number of quads in the frame
+	private int numBatches;                           // Number of batches in the frame
+	private int batchTexture[];                       // Texture ID of each batch
+	private int batchLayer[];                         // Layer of each batch
+	private int batchStart[];                         // Index of the first quad of each batch
+	private int batchQuads[];                         // Number of quads in each batch
+	private int build;                                // Number of this build of the frame, never 0
+	private boolean tracking;                         // Flag indicates changed ranges are kept
+	private int previousBuild;                        // Build the changed ranges are from, 0 for none
+	private int numChanged;                           // Number of changed ranges
+	private int changedStart[];                       // First quad of each changed range
+	private int changedEnd[];                         // Quad after the last one in each changed range
+	private int appendedInto;                         // Build of the frame this frame was last appended to
+	private int appendedStart;                        // Quad this frame was put at in that frame
+	private int appendedBuild;                        // Build of this frame when it was appended
+
+	// Objects
+	private Room room;                                // The room this frame was built from
+	private FloatBuffer vertexBuffer;                 // Vertices, for the BobRenderer
+	private FloatBuffer textureBuffer;                // Graphic coordinates, for the BobRenderer
+	private ByteBuffer interleaved;                   // Interleaved vertices, for the ShaderRenderer
+	private FloatBuffer interleavedData;              // Float view of interleaved
+	private IntBuffer interleavedColors;              // Int view of interleaved
+
+	public RenderFrame() {
+		capacity = 0;
+
+		red = green = blue = alpha = new float[0];
+
+		batchTexture = new int[8];
+		batchLayer = new int[8];
+		batchStart = new int[8];
+		batchQuads = new int[8];
+		changedStart = new int[8];
+		changedEnd = new int[8];
+	}
+
+	/**
+	 * Empty this frame and get it ready to be built.
+	 *
+	 * @param room The room building the frame
+	 * @param shaders True to build for the ShaderRenderer
+	 * @param r Red intensity of each layer
+	 * @param g Green intensity of each layer
+	 * @param b Blue intensity of each layer
+	 * @param a Alpha intensity of each layer
+	 */
+	public void begin(Room room, boolean shaders, float r[], float g[], float b[], float a[]) {
+		this.room = room;
+
+		if (shaders != this.shaders) {                // Buffers are in the wrong format
+			capacity = 0;
+			vertexBuffer = textureBuffer = null;
+			interleaved = null;
+			interleavedData = null;
+			interleavedColors = null;
+		}
+
+		this.shaders = shaders;
+
+		if (shrink) {
+			int fit = DEF_QUADS;
+			while (fit < numQuads) {
+				fit *= 2;
+			}
+
+			if (fit < capacity) {                     // Start over with buffers the size the last frame needed
+				capacity = 0;
+				vertexBuffer = textureBuffer = null;
+				interleaved = null;
+				interleavedData = null;
+				interleavedColors = null;
+			}
+
+			shrink = false;
+		}
+
+		if (red.length != r.length) {
+			red = new float[r.length];
+			green = new float[g.length];
+			blue = new float[b.length];
+			alpha = new float[a.length];
+		}
+
+		System.arraycopy(r, 0, red, 0, r.length);
+		System.arraycopy(g, 0, green, 0, g.length);
+		System.arraycopy(b, 0, blue, 0, b.length);
+		System.arraycopy(a, 0, alpha, 0, a.length);
+
+		camLeft = room.getDrawLeftEdge();
+		camRight = room.getDrawRightEdge();
+		camTop = room.getDrawTopEdge();
+		camBottom = room.getDrawBottomEdge();
+
+		numQuads = 0;
+		numBatches = 0;
+
+		build = builds.incrementAndGet();
+		if (build == 0) build = builds.incrementAndGet();   // 0 means no build
+		tracking = false;
+		previousBuild = 0;
+		numChanged = 0;
+	}
+
+	/**
+	 * Keep the ranges of quads that changed since another build while this frame
+	 * is built. Only works for frames built for the BobRenderer. Call it right
+	 * after begin(), and only on frames that will be drawn, not layer caches.
+	 * Objects that were put in the earlier build at the same place and haven't
+	 * changed since (see GameObject.hasChanged()) aren't counted as changed.
+	 *
+	 * @param previous The build of the frame the room built before this one, or 0
+	 */
+	public void trackChanges(int previous) {
+		tracking = !shaders;
+		previousBuild = previous;
+	}
+
+	/**
+	 * Add an object's quads to the end of the frame.
+	 *
+	 * @param o The object to add
+	 * @param layer The layer o is being drawn on
+	 * @param texture The texture ID to draw o with
+	 */
+	public void add(GameObject o, int layer, int texture) {
+		if (tracking) addTracked(o, layer, texture);
+		else addUntracked(o, layer, texture);
+	}
+
+	/**
+	 * Add an object's quads without looking at whether they changed.
+	 */
+	private void addUntracked(GameObject o, int layer, int texture) {
+		if (o.usesArrays()) {
+			// Call the overrides once and make room for what they actually returned
+			float verts[] = o.getVertices();
+			float graphicVerts[] = o.getGraphicVerts();
+			int indices = o.getIndices();
+
+			ensureCapacity(numQuads + GameObject.arrayQuads(verts, graphicVerts, indices));
+			addBatch(texture, layer, putArrays(o, verts, graphicVerts, indices, layer));
+		} else {
+			ensureCapacity(numQuads + o.getQuadBound());
+			addBatch(texture, layer, put(o, layer));
+		}
+	}
+
+	/**
+	 * Add an object's quads, keeping track of whether they changed. See trackChanges().
+	 */
+	private void addTracked(GameObject o, int layer, int texture) {
+		int start = numQuads;
+		boolean changed = o.hasChanged();                                  // Always called so it takes a new snapshot
+
+		addUntracked(o, layer, texture);
+
+		// Objects that follow the camera are put in the frame moved with it
+		if (changed || o.followCamera || previousBuild == 0 || o.frameBuild != previousBuild || o.frameStart != start) {
+			addChanged(start, numQuads);
+		}
+
+		o.frameBuild = build;
+		o.frameStart = start;
+	}
+
+	/**
+	 * Record a range of quads that changed, joining it to the last range if they
+	 * are close together.
+	 */
+	private void addChanged(int start, int end) {
+		if (start == end) return;
+
+		int last = numChanged - 1;
+
+		if (last >= 0 && start - changedEnd[last] < MERGE_GAP) {
+			changedEnd[last] = end;
+			return;
+		}
+
+		if (numChanged == changedStart.length) {
+			changedStart = Arrays.copyOf(changedStart, numChanged * 2);
+			changedEnd = Arrays.copyOf(changedEnd, numChanged * 2);
+		}
+
+		changedStart[numChanged] = start;
+		changedEnd[numChanged] = end;
+		numChanged++;
+	}
+
+	/**
+	 * Put an object's quads after the quads already in the buffers.
+	 *
+	 * @return The number of quads that were put.
+	 */
+	private int put(GameObject o, int layer) {
+		if (shaders) {
+			return o.putQuads(interleavedData, interleavedColors, numQuads * QuadIndices.VERTICES_PER_QUAD, ShaderRenderer.VERTEX_STRIDE, color(o, layer));
+		}
+
+		try {
+			vertexBuffer.position(numQuads * GameObject.Quad.VERT_SIZE);
+			textureBuffer.position(numQuads * GameObject.Quad.GFX_VERT_SIZE);
+			return o.putQuads(vertexBuffer, textureBuffer) / QuadIndices.INDICES_PER_QUAD;
+		} finally {
+			vertexBuffer.position(0);
+			textureBuffer.position(0);
+		}
+	}
+
+	/**
+	 * Put the quads from an object's getVertices(), getGraphicVerts() and
+	 * getIndices() after the quads already in the buffers.
+	 *
+	 * @return The number of quads that were put.
+	 */
+	private int putArrays(GameObject o, float verts[], float graphicVerts[], int indices, int layer) {
+		if (shaders) {
+			return GameObject.putArrays(verts, graphicVerts, indices, interleavedData, interleavedColors, numQuads * QuadIndices.VERTICES_PER_QUAD, ShaderRenderer.VERTEX_STRIDE, color(o, layer));
+		}
+
+		try {
+			vertexBuffer.position(numQuads * GameObject.Quad.VERT_SIZE);
+			textureBuffer.position(numQuads * GameObject.Quad.GFX_VERT_SIZE);
+			return GameObject.putArrays(verts, graphicVerts, indices, vertexBuffer, textureBuffer);
+		} finally {
+			vertexBuffer.position(0);
+			textureBuffer.position(0);
+		}
+	}
+
+	/**
+	 * Returns the packed color of an object on a layer, for the ShaderRenderer.
+	 */
+	private int color(GameObject o, int layer) {
+		return ShaderRenderer.packColor(o.getRed() * red[layer], o.getGreen() * green[layer], o.getBlue() * blue[layer], o.getAlpha() * alpha[layer]);
+	}
+
+	/**
+	 * Add all of another frame's quads and batches to the end of this frame. Both
+	 * frames must have been built for the same renderer.
+	 *
+	 * @param other The frame to copy from
+	 */
+	public void append(RenderFrame other) {
+		int start = numQuads;
+
+		if (tracking) {
+			if (previousBuild == 0 || other.appendedInto != previousBuild || other.appendedStart != start || other.appendedBuild != other.build) {
+				addChanged(start, start + other.numQuads);
+			}
+
+			other.appendedInto = build;
+			other.appendedStart = start;
+			other.appendedBuild = other.build;
+		}
+
+		ensureCapacity(numQuads + other.numQuads);
+
+		if (shaders) {
+			int quadBytes = QuadIndices.VERTICES_PER_QUAD * ShaderRenderer.VERTEX_BYTES;
+			ByteBuffer from = other.interleaved.duplicate();
+			from.limit(other.numQuads * quadBytes);
+			from.position(0);
+
+			interleaved.position(numQuads * quadBytes);
+			interleaved.put(from);
+			interleaved.position(0);
+		} else {
+			FloatBuffer from = other.vertexBuffer.duplicate();
+			from.limit(other.numQuads * GameObject.Quad.VERT_SIZE);
+			from.position(0);
+			vertexBuffer.position(numQuads * GameObject.Quad.VERT_SIZE);
+			vertexBuffer.put(from);
+			vertexBuffer.position(0);
+
+			from = other.textureBuffer.duplicate();
+			from.limit(other.numQuads * GameObject.Quad.GFX_VERT_SIZE);
+			from.position(0);
+			textureBuffer.position(numQuads * GameObject.Quad.GFX_VERT_SIZE);
+			textureBuffer.put(from);
+			textureBuffer.position(0);
+		}
+
+		for (int b = 0; b < other.numBatches; b++) {
+			addBatch(other.batchTexture[b], other.batchLayer[b], other.batchQuads[b]);
+		}
+	}
+
+	/**
+	 * Make the buffers fit this frame's quads the next time the frame is built. Safe
+	 * to call from any thread.
+	 */
+	public void shrink() {
+		shrink = true;
+	}
+
+	/**
+	 * Returns the number of quads the buffers can hold without growing.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Record quads just added to the end of the frame. They join the last batch if
+	 * they can be drawn with it.
+	 */
+	private void addBatch(int texture, int layer, int quads) {
+		if (quads == 0) return;
+
+		int last = numBatches - 1;
+
+		// The ShaderRenderer keeps layer colors in the vertices, so only the texture has to match.
+		if (last >= 0 && batchTexture[last] == texture && (shaders || batchLayer[last] == layer)) {
+			batchQuads[last] += quads;
+		} else {
+			if (numBatches == batchTexture.length) {
+				batchTexture = Arrays.copyOf(batchTexture, numBatches * 2);
+				batchLayer = Arrays.copyOf(batchLayer, numBatches * 2);
+				batchStart = Arrays.copyOf(batchStart, numBatches * 2);
+				batchQuads = Arrays.copyOf(batchQuads, numBatches * 2);
+			}
+
+			batchTexture[numBatches] = texture;
+			batchLayer[numBatches] = layer;
+			batchStart[numBatches] = numQuads;
+			batchQuads[numBatches] = quads;
+			numBatches++;
+		}
+
+		numQuads += quads;
+	}
+
+	/**
+	 * Make sure the buffers can hold at least the given number of quads. Quads that
+	 * were already added are kept.
+	 */
+	private void ensureCapacity(int quads) {
+		if (quads <= capacity && (shaders ? interleaved != null : vertexBuffer != null)) return;
+
+		int newCapacity = Math.max(DEF_QUADS, capacity);
+		while (newCapacity < quads) {
+			newCapacity *= 2;
+		}
+
+		if (shaders) {
+			ByteBuffer bytes = ByteBuffer.allocateDirect(newCapacity * QuadIndices.VERTICES_PER_QUAD * ShaderRenderer.VERTEX_BYTES);
+			bytes.order(ByteOrder.nativeOrder());
+
+			if (interleaved != null) {
+				ByteBuffer from = interleaved.duplicate();
+				from.limit(numQuads * QuadIndices.VERTICES_PER_QUAD * ShaderRenderer.VERTEX_BYTES);
+				from.position(0);
+				bytes.put(from);
+				bytes.position(0);
+			}
+
+			interleaved = bytes;
+			interleavedData = bytes.asFloatBuffer();
+			interleavedColors = bytes.asIntBuffer();
+		} else {
+			vertexBuffer = grow(vertexBuffer, newCapacity * GameObject.Quad.VERT_SIZE, numQuads * GameObject.Quad.VERT_SIZE);
+			textureBuffer = grow(textureBuffer, newCapacity * GameObject.Quad.GFX_VERT_SIZE, numQuads * GameObject.Quad.GFX_VERT_SIZE);
+		}
+
+		capacity = newCapacity;
+	}
+
+	/**
+	 * Make a new direct buffer holding floats floats and copy the first used floats of old into it.
+	 */
+	private static FloatBuffer grow(FloatBuffer old, int floats, int used) {
+		ByteBuffer bytes = ByteBuffer.allocateDirect(floats * 4);
+		bytes.order(ByteOrder.nativeOrder());
+		FloatBuffer buffer = bytes.asFloatBuffer();
+
+		if (old != null) {
+			FloatBuffer from = old.duplicate();
+			from.limit(used);
+			from.position(0);
+			buffer.put(from);
+			buffer.position(0);
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Returns the number of this build of the frame. Each build of any frame gets
+	 * a different number.
+	 */
+	public int getBuild() {
+		return build;
+	}
+
+	/**
+	 * Returns true if this frame kept the ranges of quads that changed. See
+	 * trackChanges().
+	 */
+	public boolean tracksChanges() {
+		return tracking;
+	}
+
+	/**
+	 * Returns the build the changed ranges are from. Only the quads in the changed
+	 * ranges differ from that build.
+	 */
+	public int getPreviousBuild() {
+		return previousBuild;
+	}
+
+	/**
+	 * Returns the number of ranges of quads that changed.
+	 */
+	public int getNumChanged() {
+		return numChanged;
+	}
+
+	/**
+	 * Returns the first quad in changed range r.
+	 */
+	public int getChangedStart(int r) {
+		return changedStart[r];
+	}
+
+	/**
+	 * Returns the quad after the last one in changed range r.
+	 */
+	public int getChangedEnd(int r) {
+		return changedEnd[r];
+	}
+
+	/**
+	 * Returns the room this frame was built from.
+	 */
+	public Room getRoom() {
+		return room;
+	}
+
+	/**
+	 * Returns true if this frame was built for the ShaderRenderer.
+	 */
+	public boolean usesShaders() {
+		return shaders;
+	}
+
+	public float getCameraLeftEdge() {
+		return camLeft;
+	}
+
+	public float getCameraRightEdge() {
+		return camRight;
+	}
+
+	public float getCameraTopEdge() {
+		return camTop;
+	}
+
+	public float getCameraBottomEdge() {
+		return camBottom;
+	}
+
+	/**
+	 * Returns the color intensities of a layer when the frame was built.
+	 */
+	public float getRed(int layer) {
+		return red[layer];
+	}
+
+	public float getGreen(int layer) {
+		return green[layer];
+	}
+
+	public float getBlue(int layer) {
+		return blue[layer];
+	}
+
+	public float getAlpha(int layer) {
+		return alpha[layer];
+	}
+
+	/**
+	 * Returns the number of quads in this frame.
+	 */
+	public int getNumQuads() {
+		return numQuads;
+	}
+
+	/**
+	 * Returns the number of batches in this frame. Batches are in drawing order.
+	 */
+	public int getNumBatches() {
+		return numBatches;
+	}
+
+	public int getTexture(int b) {
+		return batchTexture[b];
+	}
+
+	public int getLayer(int b) {
+		return batchLayer[b];
+	}
+
+	/**
+	 * Returns the index of the first quad in batch b.
+	 */
+	public int getStart(int b) {
+		return batchStart[b];
+	}
+
+	/**
+	 * Returns the number of quads in batch b.
+	 */
+	public int getQuads(int b) {
+		return batchQuads[b];
+	}
+
+	/**
+	 * Returns the vertex buffer of a frame built for the BobRenderer, positioned at 0.
+	 */
+	public FloatBuffer getVertexBuffer() {
+		return vertexBuffer;
+	}
+
+	/**
+	 * Returns the graphic coordinate buffer of a frame built for the BobRenderer, positioned at 0.
+	 */
+	public FloatBuffer getTextureBuffer() {
+		return textureBuffer;
+	}
+
+	/**
+	 * Returns the interleaved vertex buffer of a frame built for the ShaderRenderer, positioned at 0.
+	 */
+	public ByteBuffer getInterleavedBuffer() {
+		return interleaved;
+	}
+}
@@ -23,11 +23,9 @@ package bobby.engine.bobengine;
 import android.app.Activity;
 import android.opengl.GLES10;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
@@ -41,29 +39,33 @@ import javax.microedition.khronos.opengles.GL11;
  */
 public class Room {
 	// Constants
-	public final int OBJECTS = 8000;                        // Maximum number of objects. This is kind of sloppy. I should find a better way to do this.
 	public final int DEF_LAYERS = 10;                       // Default number of layers.
-	private final int VERTEX_BYTES = 4 * 3 * 4 * OBJECTS;   // 4 bytes per float * 3 coords per vertex * 4 vertices * max objects
-	private final int TEX_BYTES = 4 * 2 * 4 * OBJECTS;      // 4 bytes per float * 2 coords per vertex * 4 vertices
-	private final int INDEX_BYTES = 4 * 4 * OBJECTS;        // 4 bytes per short * 4 indices per quad * max num of objects
+	private static final int ADD = 0;                       // Waiting change that adds an object
+	private static final int DELETE = 1;                    // Waiting change that removes an object
+	private static final int CLEAR = 2;                     // Waiting change that removes every object
+	static final int TOUCH_EVENTS = 1;                      // Objects that handle touch screen events
+	static final int BUTTON_EVENTS = 2;                     // Objects that handle gamepad events
 
 	// Variables
 	private int instances = 0;                              // The number of objects in this room
-	private short indices[] = new short[6];                 // The order in which to draw the vertices
-	private int lastIndex[];                                // The number of indices last frame for each layer
+	private int updating;                                   // Number of updates in progress. Changes to the object list wait until it is 0.
+	private int changes[] = new int[16];                    // Waiting changes to the object list, in order
+	private int numChanges;                                 // Number of waiting changes
 
 	private int layers;           // Number of layers
 	private float red[];          // Red values for each layer
 	private float green[];        // Green values for each layer
 	private float blue[];         // Blue values for each layer
 	private float alpha[];        // alpha values for each layer
+	private LayerCache caches[];  // Built geometry for each static layer, null for layers that aren't static
+	private boolean useVBOs;      // Flag that indicates vertex data should be kept in vertex buffer objects
+	private boolean useContacts;  // Flag that indicates the contact list should be built after each update
+	private boolean parallel;     // Flag that indicates parallel safe objects should be updated on several threads
+	private boolean checkParallel;   // Flag that indicates parallel updates should be checked against sequential ones
 
 	// Input variables
-	private boolean newpress[] = new boolean[Touch.MAX_FINGERS];         // Flags to indicate if a newpress event needs to be handled
-	private boolean released[] = new boolean[Touch.MAX_FINGERS];         // Flags to indicate if a released event needs to be handled
-
-	private int buttonNewpress[] = new int[Controller.MAX_CONTROLLERS];  // Flags to indicate if a controller newpress event needs to be handled
-	private int buttonReleased[] = new int[Controller.MAX_CONTROLLERS];  // Flags to indicate if a controller released event needs to be handled
+	private boolean newpress[] = new boolean[Touch.MAX_FINGERS];         // Flags to indicate if a newpress event needs to be handled, only set by the deprecated signifyNewpress(int)
+	private boolean released[] = new boolean[Touch.MAX_FINGERS];         // Flags to indicate if a released event needs to be handled, only set by the deprecated signifyReleased(int)
 
 	// Camera variables
 	private double camX;       // The X position of the camera.
@@ -75,16 +77,33 @@ public class Room {
 	private float camRight;    // The right edge of the camera
 	private float camTop;      // The top edge of the camera
 	private float camBottom;   // The bottom edge of the camera
+	private float prevCamLeft;     // Camera edges before the last update
+	private float prevCamRight;
+	private float prevCamTop;
+	private float prevCamBottom;
+	private boolean updated;       // Flag indicates the camera edges have been set by an update
+	private float interpolation;   // How far between the last two updates frames are drawn, from 0-1
 
 	// Objects
 	private ArrayList<GameObject> obs;    // List containing all the objects in this room.
+	private DrawQueue drawQueue;          // Sorts the objects into batches by layer and graphic for drawing
+	private Broadphase broadphase;        // Finds objects that might be colliding, null to check every object
+	private QuadTree quadTree;            // Finds objects at a point or in an area, null to check every object
+	private TransformStore transforms;    // Each object in obs and its x, y, angle, width and height, in the same order
+	private boolean slotOnScreen[];       // Whether each object in transforms is on the screen, set by TransformStore.cull()
+	private ArrayList<GameObject> candidates;   // Objects found by the broadphase or quad tree, waiting for the exact check
+	private int lastBuild;                // Build number of the last frame built by buildFrame(), 0 for none
+	private ArrayList<GameObject> changed;      // Object of each waiting change, null for CLEAR
+	private ArrayList<GameObject> touchListeners;   // Objects that get every touch screen event
+	private ArrayList<GameObject> areaListeners;    // Objects that only get touch screen events for touches on them
+	private ArrayList<GameObject> buttonListeners;  // Objects that get gamepad events
+	private ArrayList<GameObject> touched;          // Area listeners under the pointer of the touch event being handled
+	private ArrayList<GameObject> contacts;     // Pairs of objects colliding after the last update, two entries each
+	private int sweepPass;                      // Increases with each getCollidingPairs(), so fast pairs are only swept once
+	private double impactNormalX;               // Normal of the side hit, set by timeOfImpact()
+	private double impactNormalY;
 	private BobView view;                 // This room's containing BobView.
 
-	// openGL buffers
-	public FloatBuffer vertexBuffer;      // Buffer that holds the room's vertices
-	public ShortBuffer indexBuffer[];     // Buffer that holds the room's indices
-	public FloatBuffer textureBuffer;     // Buffer that holds the room's texture coordinates
-
 	public Room(BobView view) {
 		init(view, DEF_LAYERS);
 	}
@@ -96,33 +115,25 @@ public class Room {
 	private void init(BobView view, int layers) {
 		this.view = view;
 
-		obs = new ArrayList<GameObject>(OBJECTS);
+		obs = new ArrayList<GameObject>();
+		transforms = new TransformStore(64);
+		slotOnScreen = new boolean[64];
+		drawQueue = new DrawQueue();
+		candidates = new ArrayList<GameObject>();
+		changed = new ArrayList<GameObject>();
+		touchListeners = new ArrayList<GameObject>();
+		areaListeners = new ArrayList<GameObject>();
+		buttonListeners = new ArrayList<GameObject>();
+		touched = new ArrayList<GameObject>();
+		contacts = new ArrayList<GameObject>();
+		useVBOs = false;
+		useContacts = false;
+		parallel = false;
+		checkParallel = false;
 
 		instances = 0;
 
-		// Set up vertex buffer
-		ByteBuffer vertexByteBuffer = ByteBuffer.allocateDirect(VERTEX_BYTES);            // a float has 4 bytes so we allocate for each coordinate 4 bytes
-		vertexByteBuffer.order(ByteOrder.nativeOrder());
-		vertexBuffer = vertexByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();   // allocates the memory from the bytebuffer
-		vertexBuffer.position(0);                                                         // puts the curser position at the beginning of the buffer
-
-		// Set up texture buffer
-		vertexByteBuffer = ByteBuffer.allocateDirect(TEX_BYTES);
-		vertexByteBuffer.order(ByteOrder.nativeOrder());
-		textureBuffer = vertexByteBuffer.asFloatBuffer();
-		textureBuffer.position(0);
-
-		// Set up index buffer
-		vertexByteBuffer = ByteBuffer.allocateDirect(INDEX_BYTES);
-		vertexByteBuffer.order(ByteOrder.nativeOrder());
-		indexBuffer = new ShortBuffer[layers];
-		for (int i = 0; i < layers; i++) {
-			indexBuffer[i] = vertexByteBuffer.asShortBuffer();
-			indexBuffer[i].position(0);
-		}
-
 		this.layers = layers;
-		lastIndex = new int[layers];
 
 		red = new float[layers];
 		green = new float[layers];
@@ -133,13 +144,10 @@ public class Room {
 			red[i] = green[i] = blue[i] = alpha[i] = 1f;
 		}
 
-		for (int i = 0; i < buttonNewpress.length; i++) {
-			buttonNewpress[i] = -1;
-		}
+		caches = new LayerCache[layers];
 
-		for (int i = 0; i < buttonReleased.length; i++) {
-			buttonReleased[i] = -1;
-		}
+		interpolation = 1;
+		updated = false;
 
 		// Camera initialization
 		camX = 0;
@@ -191,32 +199,225 @@ public class Room {
 
 	/**
 	 * Add a new GameObject to this room. Must be done for each GameObject to be
-	 * draw in this room.
+	 * draw in this room. <br/><br/>
+	 *
+	 * During an update (in step(), newpress(), released() and so on) the object is
+	 * only added once every object has been updated, so it is first updated on the
+	 * next update. Adding an object that is already in the room does nothing.
 	 *
 	 * @param o
 	 *            - GameObject to add.
 	 */
 	public void addObject(GameObject o) {
+		o.inRoom = true;
+
+		if (updating > 0) {
+			addChange(ADD, o);
+		} else {
+			addNow(o);
+		}
+	}
+
+	private void addNow(GameObject o) {
+		int index = o.roomIndex;
+
+		if (index >= 0 && index < obs.size() && obs.get(index) == o) return;   // Already here
+
 		//objects[o.layer][o.id] = o;
+		o.roomIndex = obs.size();
 		obs.add(o);
+		transforms.add(o);                         // Same slot as its place in obs
+
+		if ((o.inputEvents & TOUCH_EVENTS) != 0) {
+			o.touchIndex = addListener(o.usesTouchArea() ? areaListeners : touchListeners, o);
+		}
+
+		if ((o.inputEvents & BUTTON_EVENTS) != 0) o.buttonIndex = addListener(buttonListeners, o);
+		invalidateLayer(o.layer);
 	}
 
 	/**
-	 * Removes a GameObject from this room. If possible, consider moving the
-	 * object off screen instead.
+	 * Removes a GameObject from this room. The last object in the room takes its
+	 * place in the list, and the same is done in the lists of objects that get
+	 * input events, so this takes the same time no matter how many objects there
+	 * are, but objects drawn on the same layer with the same graphic can change
+	 * which one is drawn on top and which one gets an input event first. <br/><br/>
+	 *
+	 * During an update the object is only removed once every object has been
+	 * updated, so it still gets updated and can still be found until then.
 	 *
 	 * @param o
 	 *            - GameObject to remove.
 	 */
 	public void deleteObject(GameObject o) {
-		obs.remove(obs.indexOf(o));
+		o.inRoom = false;
+
+		if (updating > 0) {
+			addChange(DELETE, o);
+		} else {
+			deleteNow(o);
+		}
+	}
+
+	private void deleteNow(GameObject o) {
+		int index = o.roomIndex;
+
+		if (index < 0 || index >= obs.size() || obs.get(index) != o) {   // Added to another room since
+			index = obs.indexOf(o);
+			if (index == -1) return;
+		}
+
+		GameObject last = obs.remove(obs.size() - 1);
+
+		if (index < obs.size()) {
+			obs.set(index, last);
+			last.roomIndex = index;
+		}
+
+		transforms.remove(index);                  // Moves the last slot the same way
+
+		o.roomIndex = -1;
+		invalidateLayer(o.layer);
+		invalidateLayer(o.checkedLayer);
+
+		if ((o.inputEvents & TOUCH_EVENTS) != 0) {
+			removeListener(o.usesTouchArea() ? areaListeners : touchListeners, o, false);
+		}
+
+		if ((o.inputEvents & BUTTON_EVENTS) != 0) removeListener(buttonListeners, o, true);
+	}
+
+	/**
+	 * Put an object at the end of a listener list.
+	 *
+	 * @return The object's place in the list
+	 */
+	private int addListener(ArrayList<GameObject> list, GameObject o) {
+		list.add(o);
+		return list.size() - 1;
+	}
+
+	/**
+	 * Take an object out of a listener list. The last object in the list takes its
+	 * place.
+	 *
+	 * @param button True for buttonListeners, false for the touch lists
+	 * @return False if the object wasn't in the list
+	 */
+	private boolean removeListener(ArrayList<GameObject> list, GameObject o, boolean button) {
+		int index = button ? o.buttonIndex : o.touchIndex;
+
+		if (index < 0 || index >= list.size() || list.get(index) != o) {   // Added to another room since
+			index = list.indexOf(o);
+			if (index == -1) return false;
+		}
+
+		GameObject last = list.remove(list.size() - 1);
+
+		if (index < list.size()) {
+			list.set(index, last);
+
+			if (button) last.buttonIndex = index;
+			else last.touchIndex = index;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Move an object between the touch listener lists after it switched
+	 * GameObject.useTouchArea().
+	 */
+	void moveTouchListener(GameObject o) {
+		int index = o.roomIndex;
+
+		if (index < 0 || index >= obs.size() || obs.get(index) != o || (o.inputEvents & TOUCH_EVENTS) == 0) return;   // Not in the list yet, or not listening
+
+		if (o.usesTouchArea()) {
+			if (removeListener(touchListeners, o, false)) o.touchIndex = addListener(areaListeners, o);
+		} else {
+			if (removeListener(areaListeners, o, false)) o.touchIndex = addListener(touchListeners, o);
+		}
+	}
+
+	/**
+	 * Make a pool that reuses objects of one type instead of making new ones.
+	 * See ObjectPool.
+	 *
+	 * @param factory Makes new objects for the pool and resets used ones
+	 * @return The new pool
+	 */
+	public <T extends GameObject> ObjectPool<T> createPool(ObjectPool.Factory<T> factory) {
+		return new ObjectPool<T>(this, factory);
 	}
 
 	/**
-	 * Removes all GameObjects from this room.
+	 * Removes all GameObjects from this room. During an update they are only
+	 * removed once every object has been updated.
 	 */
 	public void clearObjects() {
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			objects[o].inRoom = false;
+		}
+
+		for (int c = 0; c < numChanges; c++) {       // Objects waiting to be added won't be either
+			if (changed.get(c) != null) changed.get(c).inRoom = false;
+		}
+
+		if (updating > 0) {
+			addChange(CLEAR, null);
+		} else {
+			clearNow();
+		}
+	}
+
+	/**
+	 * Remember a change to the object list to make once the update is done.
+	 */
+	private void addChange(int change, GameObject o) {
+		if (numChanges == changes.length) {
+			changes = Arrays.copyOf(changes, numChanges * 2);
+		}
+
+		changes[numChanges++] = change;
+		changed.add(o);
+	}
+
+	/**
+	 * Make the changes to the object list that were waiting for the update to be
+	 * done, in the order they were asked for.
+	 */
+	private void applyChanges() {
+		for (int c = 0; c < numChanges; c++) {
+			if (changes[c] == ADD) addNow(changed.get(c));
+			else if (changes[c] == DELETE) deleteNow(changed.get(c));
+			else clearNow();
+		}
+
+		numChanges = 0;
+		changed.clear();
+	}
+
+	private void clearNow() {
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			objects[o].roomIndex = -1;
+		}
+
 		obs.clear();
+		transforms.clear();
+		touchListeners.clear();
+		areaListeners.clear();
+		buttonListeners.clear();
+
+		for (int l = 0; l < layers; l++) {
+			invalidateLayer(l);
+		}
 	}
 
 	/**
@@ -225,8 +426,12 @@ public class Room {
 	 * is the current Room.
 	 */
 	public void indicateGraphicsUsed() {
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) obs.get(o).getGraphic().indicateUsed(getView().getGraphicsHelper().getCleanupsTilRemoval());
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+		int cleanups = getView().getGraphicsHelper().getCleanupsTilRemoval();
+
+		for (int o = 0; o < count; o++) {
+			objects[o].getGraphic().indicateUsed(cleanups);
 		}
 	}
 
@@ -236,8 +441,11 @@ public class Room {
 	 * have been through a cleanup.
 	 */
 	public void clearAllGraphics() {
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) obs.get(o).getGraphic().forceCleanup();
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			objects[o].getGraphic().forceCleanup();
 		}
 	}
 
@@ -349,6 +557,44 @@ public class Room {
 		return camTop;
 	}
 
+	/**
+	 * Set how far between the last two updates the next frame is drawn. 1 draws
+	 * everything where the last update left it, 0 draws everything where it was
+	 * before the last update. Set by the BobRenderer when it uses a fixed timestep.
+	 *
+	 * @param alpha From 0-1
+	 */
+	public void setInterpolation(float alpha) {
+		interpolation = alpha;
+	}
+
+	/**
+	 * Returns how far between the last two updates frames are drawn. See setInterpolation().
+	 */
+	public float getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * Camera edges that the next frame is drawn with. The same as the camera edges
+	 * unless frames are being interpolated.
+	 */
+	float getDrawLeftEdge() {
+		return prevCamLeft + (camLeft - prevCamLeft) * interpolation;
+	}
+
+	float getDrawRightEdge() {
+		return prevCamRight + (camRight - prevCamRight) * interpolation;
+	}
+
+	float getDrawTopEdge() {
+		return prevCamTop + (camTop - prevCamTop) * interpolation;
+	}
+
+	float getDrawBottomEdge() {
+		return prevCamBottom + (camBottom - prevCamBottom) * interpolation;
+	}
+
 	/**
 	 * Set the zoom factor of the camera.
 	 */
@@ -364,7 +610,8 @@ public class Room {
 	}
 
 	/**
-	 * Set the color intensity of the game objects on a layer.
+	 * Set the color intensity of the game objects on a layer. When drawing with
+	 * a ShaderRenderer, this is multiplied with each object's own color.
 	 *
 	 * @param layer The layer to change the color intensity.
 	 * @param r Intensity of red, from 0-1
@@ -373,136 +620,314 @@ public class Room {
 	 * @param a Alpha intensity
 	 */
 	public void setLayerColor(int layer, float r, float g, float b, float a) {
+		if (red[layer] != r || green[layer] != g || blue[layer] != b || alpha[layer] != a) {
+			invalidateLayer(layer);    // The ShaderRenderer keeps the layer color in the cached vertices
+		}
+
 		red[layer] = r;
 		green[layer] = g;
 		blue[layer] = b;
 		alpha[layer] = a;
 	}
 
+	/**
+	 * Mark a layer as static. The geometry for a static layer is built once and
+	 * then drawn again each frame without culling, sorting, or building vertices.
+	 * It is only rebuilt when an object on the layer changes its position, size,
+	 * angle, frame, visibility, graphic, or color, when an object joins or leaves
+	 * the layer, or when the camera moves. <br/><br/>
+	 *
+	 * Good for backgrounds, tile maps, and HUD frames that don't change after the
+	 * room is set up. Objects on a static layer are still updated as usual. Objects
+	 * that override getVertices(), getGraphicVerts(), or getIndices() can't be checked
+	 * for changes, so a static layer with one of them is rebuilt every frame.
+	 *
+	 * @param layer The layer to change
+	 * @param isStatic True to cache the layer's geometry, false to build it every frame.
+	 */
+	public void setLayerStatic(int layer, boolean isStatic) {
+		if (isStatic && caches[layer] == null) caches[layer] = new LayerCache();
+		else if (!isStatic) caches[layer] = null;
+	}
+
+	/**
+	 * Returns true if layer has been marked as static with setLayerStatic().
+	 */
+	public boolean isLayerStatic(int layer) {
+		return caches[layer] != null;
+	}
+
+	/**
+	 * Make a static layer rebuild its geometry the next time it is drawn. Does
+	 * nothing if the layer isn't static or doesn't exist.
+	 *
+	 * @param layer The layer to rebuild
+	 */
+	public void invalidateLayer(int layer) {
+		if (layer >= 0 && layer < layers && caches[layer] != null) caches[layer].invalidate();
+	}
+
+	/**
+	 * Draw this room using vertex buffer objects. Vertex data is kept in GPU memory
+	 * between frames and only the parts that changed since the last frame are
+	 * uploaded. This helps most in rooms where most objects don't move, like tile
+	 * backgrounds and menus. Off by default. Requires OpenGL ES 1.1.
+	 *
+	 * @param use True to use vertex buffer objects, false to send the vertices every frame.
+	 */
+	public void useVBOs(boolean use) {
+		useVBOs = use;
+	}
+
+	/**
+	 * Let go of vertex storage this room's static layers don't need anymore. The
+	 * buffers grow as more quads are drawn but never shrink on their own, so call
+	 * this after a busy scene is over. They are made to fit on the next draw. The
+	 * storage for the rest of the room belongs to the BobRenderer; see
+	 * BobRenderer.trimFrames().
+	 */
+	public void trimToSize() {
+		for (int l = 0; l < layers; l++) {
+			if (caches[l] != null) caches[l].shrink();
+		}
+	}
+
 	/**
 	 * Gathers the vertex, texture, and index data for each GameObject in this
 	 * room and passes that information to openGL. Can be called from another
 	 * room's draw method to draw both rooms at once. If overridden, call
-	 * super.draw(gl).
+	 * super.draw(gl). <br/><br/>
+	 *
+	 * This is the same as buildFrame() followed by render(). It is not called when
+	 * the BobRenderer is using a separate update thread, so rooms that draw things
+	 * of their own here can't be used with useUpdateThread().
 	 *
 	 * @param gl OpenGL ES 1.0 object to do pass drawing information to.
 	 */
 	public void draw(GL10 gl) {
-		// Update camera
-		gl.glMatrixMode(GLES10.GL_PROJECTION);
-		gl.glLoadIdentity();
-		gl.glOrthof(getCameraLeftEdge(), getCameraRightEdge(), getCameraBottomEdge(), getCameraTopEdge(), -1, 1);
+		RenderFrame frame = getView().getRenderer().getFrame();   // Shared by every room, since only one draws at a time
 
-		// Draw graphics
-		gl.glMatrixMode(GLES10.GL_MODELVIEW);
-		gl.glLoadIdentity();
+		buildFrame(frame);
+		render(gl, frame);
+	}
 
+	/**
+	 * Build everything needed to draw this room into a frame. No OpenGL calls are
+	 * made, so this can be done on a different thread than render(). The frame
+	 * doesn't change after this returns, so the room can go on updating while the
+	 * frame is drawn.
+	 *
+	 * @param frame The frame to build into
+	 */
+	public void buildFrame(RenderFrame frame) {
 		int numG = getView().getGraphicsHelper().getMaxGraphicID();
+		boolean shaders = getView().getRenderer().usesShaders();
 
-		for (int l = 0; l < layers; l++) {
-			for (int t = 0; t <= numG; t++) {
-				int numObs = 0;
+		// Cull the objects that are only drawn with their main quad straight from the transform arrays
+		if (slotOnScreen.length < obs.size()) slotOnScreen = new boolean[transforms.getX().length];
+		transforms.cull(camLeft, camRight, camBottom, camTop, slotOnScreen);
 
-				for (int o = 0; o < obs.size(); o++) {
-					GameObject g = obs.get(o);
+		// Sort the visible objects into batches by layer and texture in one pass.
+		drawQueue.begin(layers, numG);
 
-					if (g != null && g.getGraphicID() == t && g.layer == l && g.onScreen()) {
-						numObs++;
-					}
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			GameObject g = objects[o];
+
+			if (g.checkedLayer != g.layer) {                          // Moved to another layer
+				invalidateLayer(g.checkedLayer);
+				invalidateLayer(g.layer);
+				g.checkedLayer = g.layer;
+			}
+
+			if (g.layer >= 0 && g.layer < layers && caches[g.layer] != null) {   // Static layers are built from their cache
+				if (g.hasChanged()) caches[g.layer].invalidate();
+			} else if (g.layer >= 0 && g.layer < layers && g.getGraphic().getTextureID() <= numG
+					&& (g.myRoom == this && g.culledBySlot(transforms, o) ? slotOnScreen[o] : g.onScreen())) {
+				drawQueue.add(g, g.layer, g.getGraphic().getTextureID());   // Graphics packed into the same atlas page share a batch
+			}
+		}
+
+		drawQueue.finish();
+
+		// Put each layer's quads in the frame. Static layers are copied from their cache.
+		frame.begin(this, shaders, red, green, blue, alpha);
+		if (useVBOs) frame.trackChanges(lastBuild); // Lets VertexBufferObjects upload only what changed
+		lastBuild = frame.getBuild();
+
+		int b = 0;
+
+		for (int l = 0; l < layers; l++) {
+			if (caches[l] != null) {
+				if (!caches[l].isValid(this, shaders, numG)) {
+					caches[l].build(this, obs, l, shaders, numG, red, green, blue, alpha);
 				}
 
-				if (numObs > 0) {
-					int numIndices = 0;    // The number of indices for all objects
+				frame.append(caches[l].getFrame());
+				continue;
+			}
 
-					vertexBuffer.clear();
-					textureBuffer.clear();
+			for (; b < drawQueue.getNumBatches() && drawQueue.getLayer(b) == l; b++) {
+				int t = drawQueue.getGraphicID(b);
 
-					vertexBuffer.position(0);
-					textureBuffer.position(0);
-					indexBuffer[l].position(0);
+				for (int o = drawQueue.getStart(b); o < drawQueue.getEnd(b); o++) {
+					frame.add(drawQueue.getObject(o), l, t);
+				}
+			}
+		}
 
+		drawQueue.begin(layers, 0);                   // Let go of the objects
 
-					for (int o = 0; o < obs.size(); o++) {
-						GameObject g = obs.get(o);
+		// Load any recently used graphics that are not loaded.
+		for (int o = 0; o < count; o++) {
+			GameObject g = objects[o];
 
-						if (g != null && g.getGraphicID() == t && g.layer == l && g.onScreen()) {
-							vertexBuffer.put(g.getVertices());
-							textureBuffer.put(g.getGraphicVerts());
-							numIndices += g.getIndices();
-						}
-					}
+			if (g.getGraphic().shouldLoad()) {
+				getView().getGraphicsHelper().addGraphic(g.getGraphic());
+			}
+		}
+	}
 
-					if (numIndices != lastIndex[l]) {
-						if (numIndices > indices.length) {
-							indices = new short[numIndices + 1];
-						}
-
-						for (int i = 0; i < numIndices; i += 6) {
-							indices[i + 0] = (short) (((i / 6) * 4) + 0);
-							indices[i + 1] = (short) (((i / 6) * 4) + 1);
-							indices[i + 2] = (short) (((i / 6) * 4) + 2);
-							indices[i + 3] = (short) (((i / 6) * 4) + 1);
-							indices[i + 4] = (short) (((i / 6) * 4) + 2);
-							indices[i + 5] = (short) (((i / 6) * 4) + 3);
-						}
-
-						indexBuffer[l].clear();
-						indexBuffer[l].put(indices);
-						lastIndex[l] = numIndices;
-					}
+	/**
+	 * Draw a frame built by buildFrame(). Only looks at the frame, not at this
+	 * room's objects, so the objects can be changed on another thread while this
+	 * runs.
+	 *
+	 * @param gl The OpenGL object to draw with
+	 * @param frame The frame to draw
+	 */
+	public void render(GL10 gl, RenderFrame frame) {
+		if (frame.usesShaders()) {
+			((ShaderRenderer) getView().getRenderer()).draw(frame);
+		} else {
+			renderFixedFunction(gl, frame);
+		}
+	}
 
-					vertexBuffer.position(0);
-					textureBuffer.position(0);
-					indexBuffer[l].position(0);
+	/**
+	 * Draw a frame with the OpenGL ES 1.x fixed function pipeline. Each batch is
+	 * drawn with its layer's color.
+	 */
+	private void renderFixedFunction(GL10 gl, RenderFrame frame) {
+		// Update camera
+		gl.glMatrixMode(GLES10.GL_PROJECTION);
+		gl.glLoadIdentity();
+		gl.glOrthof(frame.getCameraLeftEdge(), frame.getCameraRightEdge(), frame.getCameraBottomEdge(), frame.getCameraTopEdge(), -1, 1);
 
-					// Add color
-					gl.glColor4f(red[l], green[l], blue[l], alpha[l]);
+		// Draw graphics
+		gl.glMatrixMode(GLES10.GL_MODELVIEW);
+		gl.glLoadIdentity();
 
-					gl.glBindTexture(GL11.GL_TEXTURE_2D, t);
+		VertexBufferObjects vbos = getView().getRenderer().getVertexBufferObjects();
+		GL11 gl11 = null;                          // Only set if VBOs are being used
+		int indexVBO = 0;
 
-					// Point to our vertex buffer
-					gl.glVertexPointer(2, GL10.GL_FLOAT, 0, vertexBuffer);
-					gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, textureBuffer);
+		if (gl instanceof GL11) {
+			int context = getView().getRenderer().getContextGeneration();
 
-					// Draw the vertices as triangle strip
-					gl.glDrawElements(GL10.GL_TRIANGLES, numIndices, GL10.GL_UNSIGNED_SHORT, indexBuffer[l]);
-				}
+			if (useVBOs) {
+				gl11 = (GL11) gl;
+				indexVBO = getView().getRenderer().getIndexVBO(gl11, Math.min(frame.getNumQuads(), QuadIndices.MAX_QUADS));
+
+				// Upload what changed since the last frame
+				vbos.upload(gl11, frame, context);
+			} else {
+				vbos.release((GL11) gl, context);  // Free the buffer objects if VBOs were turned off
 			}
 		}
 
-		// Load any recently used graphics that are not loaded.
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) {
-				GameObject g = obs.get(o);
+		FloatBuffer vertices = frame.getVertexBuffer();
+		FloatBuffer textures = frame.getTextureBuffer();
+
+		for (int b = 0; b < frame.getNumBatches(); b++) {
+			int l = frame.getLayer(b);
+
+			// Add color
+			gl.glColor4f(frame.getRed(l), frame.getGreen(l), frame.getBlue(l), frame.getAlpha(l));
 
-				if (g.getGraphic().shouldLoad()) {
-					getView().getGraphicsHelper().addGraphic(g.getGraphic());
+			gl.glBindTexture(GL11.GL_TEXTURE_2D, frame.getTexture(b));
+
+			// The shared indices only reach MAX_QUADS quads, so big batches take more than one draw.
+			for (int q = 0; q < frame.getQuads(b); q += QuadIndices.MAX_QUADS) {
+				int n = Math.min(QuadIndices.MAX_QUADS, frame.getQuads(b) - q);
+				int first = frame.getStart(b) + q;
+
+				if (gl11 != null) {
+					vbos.draw(gl11, first * GameObject.Quad.VERT_SIZE, n * QuadIndices.INDICES_PER_QUAD, indexVBO);
+				} else {
+					// Point to the batch's vertices
+					vertices.position(first * GameObject.Quad.VERT_SIZE);
+					textures.position(first * GameObject.Quad.GFX_VERT_SIZE);
+					gl.glVertexPointer(2, GL10.GL_FLOAT, 0, vertices);
+					gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, textures);
+
+					gl.glDrawElements(GL10.GL_TRIANGLES, n * QuadIndices.INDICES_PER_QUAD, GL10.GL_UNSIGNED_SHORT, QuadIndices.get(n));
 				}
 			}
 		}
+
+		if (vertices != null) {
+			vertices.position(0);
+			textures.position(0);
+		}
 	}
 
 	/**
 	 * Executes the update events for each GameObject in this room. This method
 	 * also handles changes to an object's layer. Can be called from another
-	 * room's step event to update both rooms at once. If overridden, call
+	 * room's step event to update both rooms at once. Queued touch and gamepad
+	 * events (see Touch and Controller) are only handled by the current room of the
+	 * BobView, so a room updated this way doesn't get them. If overridden, call
 	 * super.update(deltaTime).
 	 *
 	 * @param deltaTime Lag correction multiplier.
 	 */
 	public void update(double deltaTime) {
-		// Handle input events
+		updating++;
+
+		try {
+			updateObjects(deltaTime);
+		} finally {
+			updating--;
+		}
+
+		// Add and remove the objects that were added and removed during the update
+		if (updating == 0) applyChanges();
+
+		updateIndexes();
+
+		if (useContacts) {
+			contacts.clear();
+			getCollidingPairs(contacts);
+		}
+	}
+
+	/**
+	 * Handle input events, step this room and update each object.
+	 */
+	private void updateObjects(double deltaTime) {
+		// Handle input events. The queued events belong to the room being shown and are
+		// taken once per update, so rooms updated from its step() don't take them.
+		if (updating == 1 && view.getCurrentRoom() == this) {
+			Touch touch = getTouch();
+			if (touch != null) touch.handleEvents(this);
+
+			Controller controller = getController();
+			if (controller != null) controller.handleEvents(this);
+		}
+
 		for (int i = 0; i < Touch.MAX_FINGERS; i++) {
 			if (newpress[i]) newpress(i); newpress[i] = false;
 			if (released[i]) released(i); released[i] = false;
 		}
 
-		for (int i = 0; i < Controller.MAX_CONTROLLERS; i++) {
-			if (buttonNewpress[i] != -1) newpress(i, buttonNewpress[i]);
-			buttonNewpress[i] = -1;
-			if (buttonReleased[i] != -1) released(i, buttonReleased[i]);
-			buttonReleased[i] = -1;
-		}
+		// Remember where the camera was so frames can be drawn between updates
+		prevCamLeft = camLeft;
+		prevCamRight = camRight;
+		prevCamTop = camTop;
+		prevCamBottom = camBottom;
 
 		// Handle the step event
 		step(deltaTime);
@@ -513,14 +938,172 @@ public class Room {
 		camTop = (float) (camY + cAnchorY + getView().getRenderer().getCameraHeight() * camZoom * ((getView().getRenderer().getCameraHeight() - cAnchorY) / getView().getRenderer().getCameraHeight()));
 		camBottom = (float) (camY + cAnchorY - getView().getRenderer().getCameraHeight() * camZoom * (cAnchorY / getView().getRenderer().getCameraHeight()));
 
-		// Update each object
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) {
-				obs.get(o).update(deltaTime);
+		if (!updated) {                            // Nothing to interpolate from yet
+			prevCamLeft = camLeft;
+			prevCamRight = camRight;
+			prevCamTop = camTop;
+			prevCamBottom = camBottom;
+			updated = true;
+		}
+
+		// Update each object. Parallel safe objects go first, all at once.
+		if (parallel && checkParallel) {
+			ParallelUpdate.getShared().updateAndCheck(obs, deltaTime);
+		} else if (parallel) {
+			ParallelUpdate.getShared().update(obs, deltaTime);
+		}
+
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			if (!(parallel && objects[o].isParallelSafe())) {
+				objects[o].update(deltaTime);
 			}
 		}
 	}
 
+	/**
+	 * Update each object's collision bounds, the broadphase and the quad tree, if
+	 * there are any.
+	 */
+	private void updateIndexes() {
+		if (broadphase == null && quadTree == null) return;
+
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			objects[o].updateCollisionBounds();
+		}
+
+		if (broadphase != null) broadphase.update(obs);
+		if (quadTree != null) quadTree.update(obs);
+	}
+
+	/**
+	 * Use a broadphase to find collisions with getCollisions() and
+	 * getCollidingPairs(). The broadphase is brought up to date after each update,
+	 * so those only have to check objects that are near each other. Without one,
+	 * every object is checked. None by default.
+	 *
+	 * @param broadphase The broadphase to use, such as a SpatialHash or SweepAndPrune, or null for none.
+	 */
+	public void setBroadphase(Broadphase broadphase) {
+		this.broadphase = broadphase;
+		updateIndexes();
+	}
+
+	/**
+	 * Returns this room's broadphase, or null if it doesn't have one.
+	 */
+	public Broadphase getBroadphase() {
+		return broadphase;
+	}
+
+	/**
+	 * Returns the store that holds the x, y, angle, width and height of each object
+	 * in this room, in the same order as the room's list of objects. Code that has
+	 * to look at the transforms of many objects can go straight down its arrays.
+	 */
+	public TransformStore getTransformStore() {
+		return transforms;
+	}
+
+	/**
+	 * Update the objects marked parallel safe (see GameObject.setParallelSafe()) on
+	 * all of the device's cores at once at the start of each object update. The
+	 * other objects are then updated one at a time in their usual order, so they
+	 * can safely look at and change any object. Off by default.
+	 *
+	 * @param use True to update parallel safe objects on several threads.
+	 */
+	public void useParallelUpdate(boolean use) {
+		parallel = use;
+	}
+
+	/**
+	 * Check each parallel update by doing it again one object at a time from the
+	 * same start and logging each object that ends up somewhere different. Finds
+	 * objects marked parallel safe that aren't. Slow and only for testing; see
+	 * ParallelUpdate.updateAndCheck(). Off by default.
+	 *
+	 * @param check True to check parallel updates.
+	 */
+	public void checkParallelUpdate(boolean check) {
+		checkParallel = check;
+	}
+
+	/**
+	 * Find every pair of colliding objects in one pass at the end of each update
+	 * and keep them in the contact list. Looping over the list once is much faster
+	 * than calling checkCollision() for each pair of objects that might collide.
+	 * Pairs whose categories and masks don't allow them to collide are skipped (see
+	 * GameObject.setCollisionCategory()). Works best with a broadphase. Off by
+	 * default.
+	 *
+	 * @param use True to build the contact list after each update.
+	 */
+	public void useContacts(boolean use) {
+		useContacts = use;
+		contacts.clear();
+	}
+
+	/**
+	 * Returns the contact list: every pair of objects that were colliding at the
+	 * end of the last update. Each pair is two entries in a row. Only filled when
+	 * useContacts() is on. Don't change the list.
+	 */
+	public ArrayList<GameObject> getContacts() {
+		return contacts;
+	}
+
+	/**
+	 * Returns the number of pairs in the contact list.
+	 */
+	public int getNumContacts() {
+		return contacts.size() / 2;
+	}
+
+	/**
+	 * Returns the first object of a pair in the contact list.
+	 *
+	 * @param c The pair, from 0 to getNumContacts() - 1
+	 */
+	public GameObject getContactA(int c) {
+		return contacts.get(c * 2);
+	}
+
+	/**
+	 * Returns the second object of a pair in the contact list.
+	 *
+	 * @param c The pair, from 0 to getNumContacts() - 1
+	 */
+	public GameObject getContactB(int c) {
+		return contacts.get(c * 2 + 1);
+	}
+
+	/**
+	 * Use a quad tree to find objects with objectAtPosition(), objectsInArea() and
+	 * getTouchedObject(). The tree is brought up to date after each update, so
+	 * objects that have moved a long way since then might be missed. Without one,
+	 * every object is checked. None by default.
+	 *
+	 * @param quadTree The quad tree to use, or null for none. Should cover the part
+	 *                 of the room where objects usually are.
+	 */
+	public void setQuadTree(QuadTree quadTree) {
+		this.quadTree = quadTree;
+		updateIndexes();
+	}
+
+	/**
+	 * Returns this room's quad tree, or null if it doesn't have one.
+	 */
+	public QuadTree getQuadTree() {
+		return quadTree;
+	}
+
 	/**
 	 * Event that happens every frame. Can be overridden.
 	 *
@@ -536,91 +1119,168 @@ public class Room {
 	/**
 	 * Tell this room to handle a newpress input event on the main thread.
 	 * @param index ID number of the pointer that triggered this event.
+	 *
+	 * @deprecated Touch puts every touch event in its queue and the current room
+	 *             handles them in order at the start of each update, so this isn't
+	 *             needed for real touches. This flag is a second path next to the
+	 *             queue: it only remembers one newpress for each pointer per update
+	 *             and runs it after the queued events, out of order with them.
 	 */
+	@Deprecated
 	public void signifyNewpress(int index) {
 		newpress[index] = true;
 	}
 
 	/**
-	 * Tell this room to handle a newpress button event on the main thread.
+	 * Put a newpress button event in the Controller's queue. Like the controller's
+	 * own events, it is handled by the BobView's current room at the start of its
+	 * next update, in order with the others, so several buttons on one controller
+	 * can be pressed in the same frame.
 	 * @param controller the controller that triggered this event.
 	 * @param button the button that triggered this event
 	 */
 	public void signifyNewpress(int controller, int button) {
-		buttonNewpress[controller] = button;
+		Controller c = getController();
+		if (c != null) c.signify(controller, button, true);
 	}
 
 	/**
 	 * Tell this room to handle a release input event on the main thread.
 	 * @param index ID number of the pointer that triggered this event.
+	 *
+	 * @deprecated See signifyNewpress(int).
 	 */
+	@Deprecated
 	public void signifyReleased(int index) {
 		released[index] = true;
 	}
 
 	/**
-	 * Tell this room to handle a released button event on the main thread.
+	 * Put a released button event in the Controller's queue. See
+	 * signifyNewpress(int, int).
 	 * @param controller the controller that triggered this event.
 	 * @param button the button that triggered this event
 	 */
 	public void signifyReleased(int controller, int button) {
-		buttonReleased[controller] = button;
+		Controller c = getController();
+		if (c != null) c.signify(controller, button, false);
 	}
 
 	/**
 	 * Touch screen newpress event. Executes the newpress event for each
-	 * GameObject in this room. Can be overridden, but be sure to call
-	 * super.newpress() in your override method.
+	 * GameObject in this room that handles it. Can be overridden, but be sure to call
+	 * super.newpress() in your override method. <br/><br/>
+	 *
+	 * Only objects whose class overrides GameObject.newpress(int) or
+	 * GameObject.released(int) get touch screen events. Objects that use
+	 * GameObject.useTouchArea() only get them when the pointer is on them.
 	 */
 	public void newpress(int index) {
-		// Perform step even for each object
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) {
-				obs.get(o).newpress(index);
+		for (int l = 0; l < touchListeners.size(); l++) {
+			touchListeners.get(l).newpress(index);
+		}
+
+		if (findAreaListeners(index)) {
+			for (int c = 0; c < touched.size(); c++) {
+				touched.get(c).newpress(index);
 			}
+
+			touched.clear();
 		}
 	}
 
 	/**
 	 * Gamepad newpress event. Executes the newpress event for each
-	 * GameObject in this room. Can be overridden, but be sure to call
-	 * super.newpress() in your override method.
+	 * GameObject in this room that handles it. Can be overridden, but be sure to call
+	 * super.newpress() in your override method. <br/><br/>
+	 *
+	 * Only objects whose class overrides GameObject.newpress(int, int) or
+	 * GameObject.released(int, int) get gamepad events.
 	 */
 	public void newpress(int controller, int button) {
-		// Perform step even for each object
-		for (int o = 0; o < obs.size(); o++) { // I have no idea why, but these loops originally started at instance and count DOWN to 0... wut.
-			if (obs.get(o) != null) {
-				obs.get(o).newpress(controller, button);
-			}
+		for (int l = 0; l < buttonListeners.size(); l++) {
+			buttonListeners.get(l).newpress(controller, button);
 		}
 	}
 
 	/**
 	 * Touch screen release event. Executes the release event for each
-	 * GameObject in this room. Can be overridden, but be sure to call
-	 * super.release() in your override method.
+	 * GameObject in this room that handles it. Can be overridden, but be sure to call
+	 * super.release() in your override method. See newpress(int).
 	 */
 	public void released(int index) {
-		// Perform released event for each object
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) {
-				obs.get(o).released(index);
+		for (int l = 0; l < touchListeners.size(); l++) {
+			touchListeners.get(l).released(index);
+		}
+
+		if (findAreaListeners(index)) {
+			for (int c = 0; c < touched.size(); c++) {
+				touched.get(c).released(index);
 			}
+
+			touched.clear();
 		}
 	}
 
 	/**
 	 * Gamepad release event. Executes the release event for each
-	 * GameObject in this room. Can be overridden, but be sure to call
-	 * super.release() in your override method.
+	 * GameObject in this room that handles it. Can be overridden, but be sure to call
+	 * super.release() in your override method. See newpress(int, int).
 	 */
 	public void released(int controller, int button) {
-		// Perform released event for each object
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null) {
-				obs.get(o).released(controller, button);
+		for (int l = 0; l < buttonListeners.size(); l++) {
+			buttonListeners.get(l).released(controller, button);
+		}
+	}
+
+	/**
+	 * Put the objects that use GameObject.useTouchArea() and are under a pointer in
+	 * touched, using the quad tree if there is one.
+	 *
+	 * @param index The pointer
+	 * @return False if no object uses a touch area, in which case touched was left
+	 *         alone.
+	 */
+	private boolean findAreaListeners(int index) {
+		if (areaListeners.isEmpty()) return false;
+
+		Touch touch = getTouch();
+		touched.clear();
+
+		if (quadTree == null) {
+			for (int l = 0; l < areaListeners.size(); l++) {
+				if (touch.objectTouched(index, areaListeners.get(l))) touched.add(areaListeners.get(l));
 			}
+
+			return true;
+		}
+
+		// Objects that follow the camera are placed in screen coordinates, the others in room coordinates
+		double x = touch.getX(index);
+		double y = touch.getY(index);
+
+		quadTree.query(x, y, x, y, touched);
+		int screenCandidates = touched.size();
+		quadTree.query(x + getCameraLeftEdge(), y + getCameraBottomEdge(), x + getCameraLeftEdge(), y + getCameraBottomEdge(), touched);
+
+		int kept = 0;
+
+		for (int c = 0; c < touched.size(); c++) {
+			GameObject ob = touched.get(c);
+			int i = ob.roomIndex;
+
+			// The tree is from the end of the last update, so skip objects that have left since
+			if (ob.followCamera != (c < screenCandidates) || (ob.inputEvents & TOUCH_EVENTS) == 0 || !ob.usesTouchArea()
+					|| i < 0 || i >= obs.size() || obs.get(i) != ob || !touch.objectTouched(index, ob)) continue;
+
+			touched.set(kept++, ob);
+		}
+
+		while (touched.size() > kept) {
+			touched.remove(touched.size() - 1);
 		}
+
+		return true;
 	}
 
 	/**
@@ -641,7 +1301,7 @@ public class Room {
 	 * @return The angle between ob1 and ob2
 	 */
 	public double getAngleBetween(GameObject ob1, GameObject ob2) {
-		return getAngle(ob1.x, ob1.y, ob2.x, ob2.y);
+		return getAngle(ob1.getX(), ob1.getY(), ob2.getX(), ob2.getY());
 	}
 
 	/**
@@ -663,7 +1323,7 @@ public class Room {
 	 * @return Distance between ob1 and ob2, in pixels.
 	 */
 	public double getDistanceBetween(GameObject ob1, GameObject ob2) {
-		return Math.sqrt(Math.pow(ob1.x - ob2.x, 2) + Math.pow(ob1.y - ob2.y, 2));
+		return Math.sqrt(Math.pow(ob1.getX() - ob2.getX(), 2) + Math.pow(ob1.getY() - ob2.getY(), 2));
 	}
 
 	/**
@@ -676,7 +1336,7 @@ public class Room {
 	 * @return Distance between ob1 and ob2, squared, in pixels.
 	 */
 	public double getDistanceBetweenSquared(GameObject ob1, GameObject ob2) {
-		return Math.pow(ob1.x - ob2.x, 2) + Math.pow(ob1.y - ob2.y, 2);
+		return Math.pow(ob1.getX() - ob2.getX(), 2) + Math.pow(ob1.getY() - ob2.getY(), 2);
 	}
 
 	/**
@@ -688,56 +1348,26 @@ public class Room {
 	 *            - GameObject 2
 	 */
 	public boolean checkCollision(GameObject ob1, GameObject ob2) {
+		if (!ob1.updateCollisionBounds() || !ob2.updateCollisionBounds()) return false;
 
-		double absw1 = Math.abs(ob1.width);
-		double absh1 = Math.abs(ob1.height);
-		double absw2 = Math.abs(ob2.width);
-		double absh2 = Math.abs(ob2.height);
-
-		double radius = Math.sqrt(Math.pow((ob1.x - absw1 / 2), 2) + Math.pow((ob1.y + absh1 / 2), 2))
-				+ Math.sqrt(Math.pow((ob2.x - absw2 / 2), 2) + Math.pow((ob2.y + absh2 / 2), 2));
-
-		if (getDistanceBetween(ob1, ob2) <= radius) {
-			for (int b1 = 0; b1 < ob1.getNumColBoxes(); b1++) {
-				// Find the coordinates of the box defined by ob1.box[]
-				double x1 = (ob1.x - absw1 / 2) + (ob1.box[b1][0] * absw1);
-				double x2 = (ob1.x - absw1 / 2) + (ob1.box[b1][1] * absw1);
-				double y1 = (ob1.y + absh1 / 2) - (ob1.box[b1][2] * absh1);
-				double y2 = (ob1.y + absh1 / 2) - (ob1.box[b1][3] * absh1);
-
-				// Compare the ob2's boxs to ob1's boxes
-				for (int b2 = 0; b2 < ob2.getNumColBoxes(); b2++) {
-					double mX1 = (ob2.x - absw2 / 2) + (ob2.box[b2][0] * absw2);
-					double mX2 = (ob2.x - absw2 / 2) + (ob2.box[b2][1] * absw2);
-					double mY1 = (ob2.y + absh2 / 2) - (ob2.box[b2][2] * absh2);
-					double mY2 = (ob2.y + absh2 / 2) - (ob2.box[b2][3] * absh2);
-
-					// Compare corners of other object to boundaries of plane box
-					if (x1 >= mX1 && x1 <= mX2) {              // Left X
-						if (y1 <= mY1 && y1 >= mY2) {          // Top Y
-							return true;
-						} else if (y2 <= mY1 && y2 >= mY2) {   // Bottom Y
-							return true;
-						}
-					} else if (x2 >= mX1 && x2 <= mX2) {       // Right X
-						if (y1 <= mY1 && y1 >= mY2) {          // Top Y
-							return true;
-						} else if (y2 <= mY1 && y2 >= mY2) {   // Bottom Y
-							return true;
-						}
-					} else if (mX1 >= x1 && mX1 <= x2) {       // Compare plane box corners to other object's boundaries
-						if (mY1 <= y1 && mY1 >= y2) {          // Top Y
-							return true;
-						} else if (mY2 <= y1 && mY2 >= y2) {   // Bottom Y
-							return true;
-						}
-					} else if (mX2 >= x1 && mX2 <= x2) {       // Right X
-						if (mY1 <= y1 && mY1 >= y2) {          // Top Y
-							return true;
-						} else if (mY2 <= y1 && mY2 >= y2) {   // Bottom Y
-							return true;
-						}
-					}
+		// Objects whose bounding circles don't touch can't be colliding
+		double dx = (ob1.getCollisionLeft() + ob1.getCollisionRight() - ob2.getCollisionLeft() - ob2.getCollisionRight()) / 2;
+		double dy = (ob1.getCollisionBottom() + ob1.getCollisionTop() - ob2.getCollisionBottom() - ob2.getCollisionTop()) / 2;
+		double radius = ob1.getCollisionRadius() + ob2.getCollisionRadius();
+
+		if (dx * dx + dy * dy > radius * radius) return false;
+
+		double boxes1[] = ob1.getWorldBoxes();
+		double boxes2[] = ob2.getWorldBoxes();
+		int end1 = ob1.getNumColBoxes() * 4;
+		int end2 = ob2.getNumColBoxes() * 4;
+
+		for (int b1 = 0; b1 < end1; b1 += 4) {
+			for (int b2 = 0; b2 < end2; b2 += 4) {
+				// Two boxes overlap when they overlap on both axes. & instead of && so there's only one branch.
+				if ((boxes1[b1] <= boxes2[b2 + 1]) & (boxes2[b2] <= boxes1[b1 + 1])
+						& (boxes1[b1 + 2] <= boxes2[b2 + 3]) & (boxes2[b2 + 2] <= boxes1[b1 + 3])) {
+					return true;
 				}
 			}
 		}
@@ -745,6 +1375,303 @@ public class Room {
 		return false;
 	}
 
+	/**
+	 * Find every object that has collided with ob. With a broadphase, only objects
+	 * that were near ob after the last update are checked, so objects that have
+	 * moved a long way since then might be missed. Objects whose category and mask
+	 * don't allow them to collide with ob are skipped.
+	 *
+	 * @param ob The object to check
+	 * @param results The objects colliding with ob are added to the end of this list.
+	 * @return results
+	 */
+	public ArrayList<GameObject> getCollisions(GameObject ob, ArrayList<GameObject> results) {
+		if (broadphase == null || !ob.updateCollisionBounds()) {
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
+
+			for (int o = 0; o < count; o++) {
+				GameObject other = objects[o];
+
+				if (other != ob && ob.canCollideWith(other) && checkCollision(ob, other)) {
+					results.add(other);
+				}
+			}
+
+			if (ob.isFast()) addSweptCollisions(ob, results);
+
+			return results;
+		}
+
+		candidates.clear();
+		broadphase.query(ob.getCollisionLeft(), ob.getCollisionBottom(), ob.getCollisionRight(), ob.getCollisionTop(), candidates);
+
+		for (int c = 0; c < candidates.size(); c++) {
+			GameObject other = candidates.get(c);
+
+			if (other != ob && ob.canCollideWith(other) && checkCollision(ob, other)) {
+				results.add(other);
+			}
+		}
+
+		candidates.clear();
+
+		if (ob.isFast()) addSweptCollisions(ob, results);
+
+		return results;
+	}
+
+	/**
+	 * Find every pair of objects that have collided with each other. Each pair is
+	 * only found once. With a broadphase this takes about as long as there are
+	 * objects instead of as long as there are pairs of objects. Pairs whose
+	 * categories and masks don't allow them to collide are skipped before their
+	 * boxes are checked.
+	 *
+	 * @param pairs Each pair is added to the end of this list as two entries in a row.
+	 * @return pairs
+	 */
+	public ArrayList<GameObject> getCollidingPairs(ArrayList<GameObject> pairs) {
+		if (broadphase == null) {
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
+
+			for (int a = 0; a < count; a++) {
+				GameObject ob1 = objects[a];
+
+				for (int b = a + 1; b < count; b++) {
+					GameObject ob2 = objects[b];
+
+					if (ob1.canCollideWith(ob2) && checkCollision(ob1, ob2)) {
+						pairs.add(ob1);
+						pairs.add(ob2);
+					}
+				}
+			}
+
+			addSweptPairs(pairs);
+			return pairs;
+		}
+
+		candidates.clear();
+		broadphase.findPairs(candidates);
+
+		for (int c = 0; c < candidates.size(); c += 2) {
+			GameObject ob1 = candidates.get(c);
+			GameObject ob2 = candidates.get(c + 1);
+
+			if (ob1.canCollideWith(ob2) && checkCollision(ob1, ob2)) {
+				pairs.add(candidates.get(c));
+				pairs.add(candidates.get(c + 1));
+			}
+		}
+
+		candidates.clear();
+		addSweptPairs(pairs);
+		return pairs;
+	}
+
+	/**
+	 * Add the objects that fast object ob ran into during the last update but isn't
+	 * touching now to results.
+	 */
+	private void addSweptCollisions(GameObject ob, ArrayList<GameObject> results) {
+		if (!ob.updateCollisionBounds()) return;
+
+		findSweepCandidates(ob);
+
+		for (int c = 0; c < candidates.size(); c++) {
+			GameObject other = candidates.get(c);
+
+			if (other != ob && ob.canCollideWith(other) && !checkCollision(ob, other) && timeOfImpact(ob, other) >= 0) {
+				results.add(other);
+			}
+		}
+
+		candidates.clear();
+	}
+
+	/**
+	 * Add the pairs with a fast object that collided during the last update but
+	 * aren't touching now to pairs.
+	 */
+	private void addSweptPairs(ArrayList<GameObject> pairs) {
+		sweepPass++;
+
+		GameObject objects[] = transforms.objects;
+		int count = transforms.getSize();
+
+		for (int o = 0; o < count; o++) {
+			GameObject ob = objects[o];
+
+			if (!ob.isFast() || !ob.updateCollisionBounds()) continue;
+
+			ob.sweepPass = sweepPass;
+			findSweepCandidates(ob);
+
+			for (int c = 0; c < candidates.size(); c++) {
+				GameObject other = candidates.get(c);
+
+				if (other == ob || (other.isFast() && other.sweepPass == sweepPass)) continue;   // Pairs of fast objects are only swept once
+
+				if (ob.canCollideWith(other) && !checkCollision(ob, other) && timeOfImpact(ob, other) >= 0) {
+					pairs.add(ob);
+					pairs.add(other);
+				}
+			}
+
+			candidates.clear();
+		}
+	}
+
+	/**
+	 * Find the first object that ob ran into on its way from where it was before
+	 * the last update (see GameObject.getPreviousX()) to where it is now. Other
+	 * objects are moved from where they were to where they are at the same time,
+	 * so two moving objects only hit if they were in the same place at the same
+	 * time. Objects whose category and mask don't allow them to collide with ob are
+	 * skipped. Works for any object, not just fast ones. <br/><br/>
+	 *
+	 * Collision boxes are treated as though they only moved in a straight line; the
+	 * object's size and rotation are taken as they are now. With a broadphase, only
+	 * objects that are now near the way ob went are checked.
+	 *
+	 * @param ob The object that moved
+	 * @param hit Set to the first hit, or cleared if ob didn't hit anything.
+	 * @return True if ob hit something.
+	 */
+	public boolean sweep(GameObject ob, SweepHit hit) {
+		hit.clear();
+
+		if (!ob.updateCollisionBounds()) return false;
+
+		findSweepCandidates(ob);
+
+		for (int c = 0; c < candidates.size(); c++) {
+			GameObject other = candidates.get(c);
+
+			if (other == ob || !ob.canCollideWith(other)) continue;
+
+			double time = timeOfImpact(ob, other);
+
+			if (time >= 0 && (hit.getObject() == null || time < hit.getTime())) {
+				double fromX = ob.getPreviousX();
+				double fromY = ob.getPreviousY();
+
+				hit.set(other, time, impactNormalX, impactNormalY, fromX + (ob.getX() - fromX) * time, fromY + (ob.getY() - fromY) * time);
+			}
+		}
+
+		candidates.clear();
+		return hit.getObject() != null;
+	}
+
+	/**
+	 * Put the objects that might be in the way of ob's movement during the last
+	 * update in candidates.
+	 */
+	private void findSweepCandidates(GameObject ob) {
+		candidates.clear();
+
+		if (broadphase == null) {
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
+
+			for (int o = 0; o < count; o++) {
+				candidates.add(objects[o]);
+			}
+
+			return;
+		}
+
+		double dx = ob.getX() - ob.getPreviousX();
+		double dy = ob.getY() - ob.getPreviousY();
+
+		// The area covered by the collision bounds on the way from where they were to where they are
+		broadphase.query(ob.getCollisionLeft() - Math.max(dx, 0), ob.getCollisionBottom() - Math.max(dy, 0),
+				ob.getCollisionRight() - Math.min(dx, 0), ob.getCollisionTop() - Math.min(dy, 0), candidates);
+	}
+
+	/**
+	 * Find when ob first touched other while both moved from where they were
+	 * before the last update to where they are now. Sets impactNormalX and
+	 * impactNormalY to the normal of the side of other that was hit.
+	 *
+	 * @return The time of the hit, from 0 to 1, or -1 if they didn't touch.
+	 */
+	private double timeOfImpact(GameObject ob, GameObject other) {
+		if (!ob.updateCollisionBounds() || !other.updateCollisionBounds()) return -1;
+
+		// Look at it as though other stood still and ob did all the moving
+		double vx = (ob.getX() - ob.getPreviousX()) - (other.getX() - other.getPreviousX());
+		double vy = (ob.getY() - ob.getPreviousY()) - (other.getY() - other.getPreviousY());
+
+		double boxes1[] = ob.getWorldBoxes();
+		double boxes2[] = other.getWorldBoxes();
+		int end1 = ob.getNumColBoxes() * 4;
+		int end2 = other.getNumColBoxes() * 4;
+		double first = Double.POSITIVE_INFINITY;
+
+		for (int b1 = 0; b1 < end1; b1 += 4) {
+			// Where ob's box started
+			double left = boxes1[b1] - vx;
+			double right = boxes1[b1 + 1] - vx;
+			double bottom = boxes1[b1 + 2] - vy;
+			double top = boxes1[b1 + 3] - vy;
+
+			for (int b2 = 0; b2 < end2; b2 += 4) {
+				double enterX, exitX, enterY, exitY;
+
+				// When the boxes start and stop overlapping on each axis
+				if (vx > 0) {
+					enterX = (boxes2[b2] - right) / vx;
+					exitX = (boxes2[b2 + 1] - left) / vx;
+				} else if (vx < 0) {
+					enterX = (boxes2[b2 + 1] - left) / vx;
+					exitX = (boxes2[b2] - right) / vx;
+				} else if (left <= boxes2[b2 + 1] && boxes2[b2] <= right) {
+					enterX = Double.NEGATIVE_INFINITY;
+					exitX = Double.POSITIVE_INFINITY;
+				} else {
+					continue;
+				}
+
+				if (vy > 0) {
+					enterY = (boxes2[b2 + 2] - top) / vy;
+					exitY = (boxes2[b2 + 3] - bottom) / vy;
+				} else if (vy < 0) {
+					enterY = (boxes2[b2 + 3] - bottom) / vy;
+					exitY = (boxes2[b2 + 2] - top) / vy;
+				} else if (bottom <= boxes2[b2 + 3] && boxes2[b2 + 2] <= top) {
+					enterY = Double.NEGATIVE_INFINITY;
+					exitY = Double.POSITIVE_INFINITY;
+				} else {
+					continue;
+				}
+
+				double enter = Math.max(enterX, enterY);
+				double exit = Math.min(exitX, exitY);
+
+				if (enter > exit || enter > 1 || exit < 0 || enter >= first) continue;
+
+				if (enter < 0) {                       // Already touching at the start
+					first = 0;
+					impactNormalX = impactNormalY = 0;
+				} else if (enterX > enterY) {          // The last axis to start overlapping is the side that was hit
+					first = enter;
+					impactNormalX = vx > 0 ? -1 : 1;
+					impactNormalY = 0;
+				} else {
+					first = enter;
+					impactNormalX = 0;
+					impactNormalY = vy > 0 ? -1 : 1;
+				}
+			}
+		}
+
+		return first <= 1 ? first : -1;
+	}
+
 	/**
 	 * Checks if the object is at position (x, y) according to ob's
 	 * collision boxes.
@@ -753,39 +1680,180 @@ public class Room {
 	 *            - GameObject
 	 */
 	public boolean objectAtPosition(GameObject ob, double x, double y) {
+		return objectInArea(ob, x, y, x, y);
+	}
 
-		double absw = Math.abs(ob.width);
-		double absh = Math.abs(ob.height);
-
-		for (int b1 = 0; b1 < ob.getNumColBoxes(); b1++) {
-			// Find the coordinates of the box defined by ob1.box[]
-			double x1 = (ob.x - absw / 2) + (ob.box[b1][0] * absw);
-			double x2 = (ob.x - absw / 2) + (ob.box[b1][1] * absw);
-			double y1 = (ob.y + absh / 2) - (ob.box[b1][2] * absh);
-			double y2 = (ob.y + absh / 2) - (ob.box[b1][3] * absh);
+	/**
+	 * Checks if there is an object at position (x, y) according to ob's
+	 * collision boxes. If yes, returns that object. If no, returns null.
+	 * If more than one object is there, the one earliest in the room's list of
+	 * objects is returned. That is the one added first until an object is removed;
+	 * deleteObject() moves the last object into the removed one's place, so after
+	 * that which one is returned is unspecified.
+	 */
+	public GameObject objectAtPosition(double x, double y) {
+		if (quadTree == null) {
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
 
-			// Compare corners of other object to boundaries of plane box
-			if (x >= x1 && x <= x2) {              // Left X, Right X
-				if (y <= y1 && y >= y2) {          // Top Y, Bottom Y
-					return true;
+			for (int o = 0; o < count; o++) {
+				if (objectAtPosition(objects[o], x, y)) {
+					return objects[o];
 				}
 			}
+
+			return null;
+		}
+
+		candidates.clear();
+		quadTree.query(x, y, x, y, candidates);
+
+		GameObject found = null;
+		int first = Integer.MAX_VALUE;
+
+		for (int c = 0; c < candidates.size(); c++) {
+			GameObject ob = candidates.get(c);
+			int order = quadTree.getOrder(ob);
+
+			if (order < first && objectAtPosition(ob, x, y)) {
+				found = ob;
+				first = order;
+			}
+		}
+
+		candidates.clear();
+		return found;
+	}
+
+	/**
+	 * Checks if any of ob's collision boxes overlap a rectangle.
+	 *
+	 * @param ob The object to check
+	 */
+	public boolean objectInArea(GameObject ob, double left, double bottom, double right, double top) {
+		if (!ob.updateCollisionBounds()) return false;
+
+		double boxes[] = ob.getWorldBoxes();
+		int end = ob.getNumColBoxes() * 4;
+
+		for (int b = 0; b < end; b += 4) {
+			if ((boxes[b] <= right) & (left <= boxes[b + 1]) & (boxes[b + 2] <= top) & (bottom <= boxes[b + 3])) {
+				return true;
+			}
 		}
 
 		return false;
 	}
 
 	/**
-	 * Checks if there is an object at position (x, y) according to ob's
-	 * collision boxes. If yes, returns that object. If no, returns null.
+	 * Find every object with a collision box that overlaps a rectangle.
+	 *
+	 * @param left Left edge of the rectangle
+	 * @param bottom Bottom edge
+	 * @param right Right edge
+	 * @param top Top edge
+	 * @param results The objects are added to the end of this list.
+	 * @return results
 	 */
-	public GameObject objectAtPosition(double x, double y) {
-		for (int o = 0; o < obs.size(); o++) {
-			if (obs.get(o) != null && objectAtPosition(obs.get(o), x, y)) {
-				return obs.get(o);
+	public ArrayList<GameObject> objectsInArea(double left, double bottom, double right, double top, ArrayList<GameObject> results) {
+		if (quadTree == null) {
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
+
+			for (int o = 0; o < count; o++) {
+				if (objectInArea(objects[o], left, bottom, right, top)) {
+					results.add(objects[o]);
+				}
 			}
+
+			return results;
+		}
+
+		candidates.clear();
+		quadTree.query(left, bottom, right, top, candidates);
+
+		for (int c = 0; c < candidates.size(); c++) {
+			if (objectInArea(candidates.get(c), left, bottom, right, top)) {
+				results.add(candidates.get(c));
+			}
+		}
+
+		candidates.clear();
+		return results;
+	}
+
+	/**
+	 * Find the visible object drawn on top of all the others that pointer index is
+	 * touching, as decided by Touch.objectTouched(). Objects on higher layers are
+	 * on top. On the same layer, the object latest in the room's list of objects is
+	 * picked, which is the one added last until an object is removed. After that
+	 * the order on the same layer is unspecified, see deleteObject().
+	 *
+	 * @param index The pointer to check
+	 * @return The touched object on top, or null if the pointer isn't touching any.
+	 */
+	public GameObject getTouchedObject(int index) {
+		Touch touch = getTouch();
+
+		if (!touch.held(index)) return null;
+
+		if (quadTree == null) {
+			GameObject found = null;
+			GameObject objects[] = transforms.objects;
+			int count = transforms.getSize();
+
+			for (int o = 0; o < count; o++) {
+				GameObject ob = objects[o];
+
+				if (ob.visible && (found == null || ob.layer >= found.layer) && touch.objectTouched(index, ob)) {
+					found = ob;
+				}
+			}
+
+			return found;
+		}
+
+		// Objects that follow the camera are placed in screen coordinates, the others in room coordinates
+		double x = touch.getX(index);
+		double y = touch.getY(index);
+
+		candidates.clear();
+		quadTree.query(x, y, x, y, candidates);
+		int screenCandidates = candidates.size();
+		quadTree.query(x + getCameraLeftEdge(), y + getCameraBottomEdge(), x + getCameraLeftEdge(), y + getCameraBottomEdge(), candidates);
+
+		GameObject found = null;
+		int foundOrder = -1;
+
+		for (int c = 0; c < candidates.size(); c++) {
+			GameObject ob = candidates.get(c);
+
+			if (ob.followCamera != (c < screenCandidates) || !ob.visible) continue;
+
+			int order = quadTree.getOrder(ob);
+
+			if ((found == null || ob.layer > found.layer || (ob.layer == found.layer && order > foundOrder)) && touch.objectTouched(index, ob)) {
+				found = ob;
+				foundOrder = order;
+			}
+		}
+
+		candidates.clear();
+		return found;
+	}
+
+	/**
+	 * Find the object on top that each pointer is touching. See getTouchedObject().
+	 *
+	 * @param touched The object touched by each pointer, or null, is put in this
+	 *                array. Should hold Touch.MAX_FINGERS objects.
+	 * @return touched
+	 */
+	public GameObject[] getTouchedObjects(GameObject touched[]) {
+		for (int i = 0; i < touched.length && i < Touch.MAX_FINGERS; i++) {
+			touched[i] = getTouchedObject(i);
 		}
 
-		return null;
+		return touched;
 	}
 }
@@ -0,0 +1,250 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+
+/**
+ * A BobRenderer that draws with OpenGL ES 2.0 shaders. <br/><br/>
+ *
+ * Every vertex carries its own color, so each GameObject can have its own tint and
+ * alpha (see GameObject.setColor()) without needing its own draw call. Vertices are
+ * interleaved in one buffer as x, y, graphic x, graphic y, and a color packed into
+ * four bytes. Rooms build their vertices into a RenderFrame and this renderer draws
+ * the frame with one draw call per batch. Consecutive batches with the same graphic
+ * are joined even if they are on different layers. <br/><br/>
+ *
+ * To use this renderer, override useShaders() in your BobView to return true.
+ */
+public class ShaderRenderer extends BobRenderer {
+	// Constants
+	public static final int VERTEX_STRIDE = 5;                    // Floats per vertex: x, y, graphic x, graphic y, color
+	public static final int VERTEX_BYTES = VERTEX_STRIDE * 4;     // Bytes per vertex
+
+	private static final String VERTEX_SHADER =
+			"uniform mat4 u_projection;\n" +
+			"attribute vec2 a_position;\n" +
+			"attribute vec2 a_texCoord;\n" +
+			"attribute vec4 a_color;\n" +
+			"varying vec2 v_texCoord;\n" +
+			"varying vec4 v_color;\n" +
+			"void main() {\n" +
+			"  v_texCoord = a_texCoord;\n" +
+			"  v_color = a_color;\n" +
+			"  gl_Position = u_projection * vec4(a_position, 0.0, 1.0);\n" +
+			"}\n";
+
+	private static final String FRAGMENT_SHADER =
+			"precision mediump float;\n" +
+			"uniform sampler2D u_texture;\n" +
+			"varying vec2 v_texCoord;\n" +
+			"varying vec4 v_color;\n" +
+			"void main() {\n" +
+			"  gl_FragColor = texture2D(u_texture, v_texCoord) * v_color;\n" +
+			"}\n";
+
+	// Variables
+	private int program;                                          // The linked shader program, 0 if not created
+	private int aPosition;                                        // Location of the position attribute
+	private int aTexCoord;                                        // Location of the graphic coordinate attribute
+	private int aColor;                                           // Location of the color attribute
+	private int uProjection;                                      // Location of the projection matrix uniform
+	private int uTexture;                                         // Location of the texture sampler uniform
+	private float projection[] = new float[16];                   // Orthographic projection for the current room's camera
+	private int status[] = new int[1];                            // For reading shader compile and link status
+
+	/**
+	 * Compile the shaders and set the OpenGL ES 2.0 state BobEngine uses.
+	 */
+	@Override
+	protected void setUpGL(GL10 gl) {
+		program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+
+		aPosition = GLES20.glGetAttribLocation(program, "a_position");
+		aTexCoord = GLES20.glGetAttribLocation(program, "a_texCoord");
+		aColor = GLES20.glGetAttribLocation(program, "a_color");
+		uProjection = GLES20.glGetUniformLocation(program, "u_projection");
+		uTexture = GLES20.glGetUniformLocation(program, "u_texture");
+
+		GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);  // How to interpret transparency
+		GLES20.glEnable(GLES20.GL_BLEND);                                  // Enable transparency
+
+		// Disable all the things we don't need.
+		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		GLES20.glDisable(GLES20.GL_STENCIL_TEST);
+		GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+		GLES20.glDisable(GLES20.GL_DITHER);
+		GLES20.glDisable(GLES20.GL_CULL_FACE);
+	}
+
+	@Override
+	protected void setUpViewport(GL10 gl, int width, int height) {
+		GLES20.glViewport(0, 0, width, height);
+	}
+
+	@Override
+	protected void clear(GL10 gl, float red, float green, float blue, float alpha) {
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		GLES20.glClearColor(red, green, blue, alpha);
+	}
+
+	@Override
+	public boolean usesShaders() {
+		return true;
+	}
+
+	/**
+	 * Draw a frame that was built for this renderer. Sets up the projection for the
+	 * frame's camera and makes one draw call for each batch.
+	 *
+	 * @param frame The frame to draw
+	 */
+	public void draw(RenderFrame frame) {
+		Matrix.orthoM(projection, 0, frame.getCameraLeftEdge(), frame.getCameraRightEdge(), frame.getCameraBottomEdge(), frame.getCameraTopEdge(), -1, 1);
+
+		GLES20.glUseProgram(program);
+		GLES20.glUniformMatrix4fv(uProjection, 1, false, projection, 0);
+		GLES20.glUniform1i(uTexture, 0);
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+		GLES20.glEnableVertexAttribArray(aPosition);
+		GLES20.glEnableVertexAttribArray(aTexCoord);
+		GLES20.glEnableVertexAttribArray(aColor);
+
+		ByteBuffer bytes = frame.getInterleavedBuffer();
+		int quadBytes = QuadIndices.VERTICES_PER_QUAD * VERTEX_BYTES;
+
+		for (int b = 0; b < frame.getNumBatches(); b++) {
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, frame.getTexture(b));
+
+			// The shared indices only reach MAX_QUADS quads, so big batches take more than one draw.
+			for (int q = 0; q < frame.getQuads(b); q += QuadIndices.MAX_QUADS) {
+				int n = Math.min(QuadIndices.MAX_QUADS, frame.getQuads(b) - q);
+				int first = (frame.getStart(b) + q) * quadBytes;
+
+				// The pointers read from the buffer's position when they are set.
+				bytes.position(first);
+				GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_FLOAT, false, VERTEX_BYTES, bytes);
+				bytes.position(first + 8);
+				GLES20.glVertexAttribPointer(aTexCoord, 2, GLES20.GL_FLOAT, false, VERTEX_BYTES, bytes);
+				bytes.position(first + 16);
+				GLES20.glVertexAttribPointer(aColor, 4, GLES20.GL_UNSIGNED_BYTE, true, VERTEX_BYTES, bytes);
+
+				GLES20.glDrawElements(GLES20.GL_TRIANGLES, n * QuadIndices.INDICES_PER_QUAD, GLES20.GL_UNSIGNED_SHORT, QuadIndices.get(n));
+			}
+		}
+
+		if (bytes != null) bytes.position(0);
+
+		GLES20.glDisableVertexAttribArray(aPosition);
+		GLES20.glDisableVertexAttribArray(aTexCoord);
+		GLES20.glDisableVertexAttribArray(aColor);
+	}
+
+	/**
+	 * Pack a color into an int laid out in memory as the four unsigned bytes red,
+	 * green, blue, alpha for the native byte order.
+	 *
+	 * @param r Intensity of red, from 0-1
+	 * @param g Green intensity
+	 * @param b Blue intensity
+	 * @param a Alpha intensity
+	 * @return The packed color.
+	 */
+	public static int packColor(float r, float g, float b, float a) {
+		int red = toByte(r);
+		int green = toByte(g);
+		int blue = toByte(b);
+		int alpha = toByte(a);
+
+		if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+			return red | (green << 8) | (blue << 16) | (alpha << 24);
+		} else {
+			return (red << 24) | (green << 16) | (blue << 8) | alpha;
+		}
+	}
+
+	/**
+	 * Convert an intensity from 0-1 to 0-255.
+	 */
+	private static int toByte(float intensity) {
+		if (intensity <= 0) return 0;
+		if (intensity >= 1) return 255;
+		return (int) (intensity * 255f + 0.5f);
+	}
+
+	/**
+	 * Compile and link a shader program.
+	 *
+	 * @return The program, or 0 if it could not be created.
+	 */
+	private int createProgram(String vertexSource, String fragmentSource) {
+		int vertex = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+		int fragment = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+
+		int program = GLES20.glCreateProgram();
+		GLES20.glAttachShader(program, vertex);
+		GLES20.glAttachShader(program, fragment);
+		GLES20.glLinkProgram(program);
+
+		// The program keeps what it needs from the shaders once it is linked.
+		GLES20.glDeleteShader(vertex);
+		GLES20.glDeleteShader(fragment);
+
+		GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+		if (status[0] == 0) {
+			Log.e("BobEngine", "Could not link shader program: " + GLES20.glGetProgramInfoLog(program));
+			GLES20.glDeleteProgram(program);
+			return 0;
+		}
+
+		return program;
+	}
+
+	/**
+	 * Compile a shader.
+	 *
+	 * @param type GLES20.GL_VERTEX_SHADER or GLES20.GL_FRAGMENT_SHADER
+	 * @param source The shader's source code
+	 * @return The shader, or 0 if it could not be compiled.
+	 */
+	private int loadShader(int type, String source) {
+		int shader = GLES20.glCreateShader(type);
+		GLES20.glShaderSource(shader, source);
+		GLES20.glCompileShader(shader);
+
+		GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == 0) {
+			Log.e("BobEngine", "Could not compile shader: " + GLES20.glGetShaderInfoLog(shader));
+			GLES20.glDeleteShader(shader);
+			return 0;
+		}
+
+		return shader;
+	}
+}
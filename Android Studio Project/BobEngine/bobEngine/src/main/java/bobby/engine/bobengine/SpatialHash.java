@@ -0,0 +1,284 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A Broadphase that divides the room into a grid of square cells and puts each
+ * object in the cells its collision bounds cover. Only objects that share a cell
+ * are compared, so finding pairs takes about as long as there are objects, as long
+ * as the cells are about the size of the objects. <br/><br/>
+ *
+ * The grid doesn't have edges. Cells are found through a hash table that is built
+ * again on every update, so objects can go anywhere in the room. Objects that
+ * cover more than MAX_CELLS cells are kept in a list of their own and compared
+ * with everything.
+ */
+public class SpatialHash implements Broadphase {
+	// Constants
+	public static final int MAX_CELLS = 64;           // Objects covering more cells than this aren't put in the grid
+
+	// Variables
+	private double cellSize;                          // Width and height of each cell
+	private int numObjects;                           // Number of objects in the hash
+	private double left[];                            // Collision bounds of each object
+	private double right[];
+	private double bottom[];
+	private double top[];
+	private int numLarge;                             // Number of objects too big for the grid
+	private int large[];                              // Index of each object too big for the grid
+	private boolean isLarge[];                        // Flag for each object that indicates it is too big for the grid
+	private int numEntries;                           // Number of object-in-cell entries
+	private int entryObject[];                        // Index of the object for each entry
+	private int entryX[];                             // Cell column of each entry
+	private int entryY[];                             // Cell row of each entry
+	private int entryNext[];                          // Next entry in the same bucket, -1 for none
+	private int buckets[];                            // First entry in each bucket of the hash table, -1 for none
+	private int mark[];                               // Query number each object was last found in, so it isn't found twice
+	private int queryNumber;                          // Increases with each query
+
+	// Objects
+	private GameObject objects[];                     // The objects in the hash
+
+	/**
+	 * Create a spatial hash.
+	 *
+	 * @param cellSize Width and height of each cell. About the size of the room's
+	 *                 typical object works best.
+	 */
+	public SpatialHash(double cellSize) {
+		this.cellSize = cellSize;
+
+		objects = new GameObject[16];
+		left = new double[16];
+		right = new double[16];
+		bottom = new double[16];
+		top = new double[16];
+		mark = new int[16];
+		large = new int[16];
+		isLarge = new boolean[16];
+
+		entryObject = new int[64];
+		entryX = new int[64];
+		entryY = new int[64];
+		entryNext = new int[64];
+		buckets = new int[128];
+	}
+
+	/**
+	 * Returns the width and height of each cell.
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	@Override
+	public void update(ArrayList<GameObject> obs) {
+		// Let go of the objects from last update
+		Arrays.fill(objects, 0, numObjects, null);
+		numObjects = 0;
+		numLarge = 0;
+		numEntries = 0;
+
+		for (int o = 0; o < obs.size(); o++) {
+			GameObject ob = obs.get(o);
+
+			if (ob != null && ob.getNumColBoxes() > 0) {
+				add(ob);
+			}
+		}
+
+		// Hash the entries into buckets. Twice as many buckets as entries keeps the chains short.
+		int size = 128;
+		while (size < numEntries * 2) {
+			size *= 2;
+		}
+
+		if (buckets.length != size) {
+			buckets = new int[size];
+		}
+
+		Arrays.fill(buckets, -1);
+
+		for (int e = 0; e < numEntries; e++) {
+			int b = hash(entryX[e], entryY[e]);
+			entryNext[e] = buckets[b];
+			buckets[b] = e;
+		}
+	}
+
+	@Override
+	public void findPairs(ArrayList<GameObject> pairs) {
+		for (int b = 0; b < buckets.length; b++) {
+			for (int e1 = buckets[b]; e1 != -1; e1 = entryNext[e1]) {
+				for (int e2 = entryNext[e1]; e2 != -1; e2 = entryNext[e2]) {
+					if (entryX[e1] != entryX[e2] || entryY[e1] != entryY[e2]) continue;   // Different cells in the same bucket
+
+					int a = entryObject[e1];
+					int c = entryObject[e2];
+
+					if (!overlaps(a, c)) continue;
+
+					// Objects that share more than one cell would be found in each. Only take the
+					// pair from the cell that holds the bottom left corner of where they overlap.
+					if (cell(Math.max(left[a], left[c])) == entryX[e1] && cell(Math.max(bottom[a], bottom[c])) == entryY[e1]) {
+						pairs.add(objects[a]);
+						pairs.add(objects[c]);
+					}
+				}
+			}
+		}
+
+		// Objects too big for the grid are compared with everything
+		for (int l = 0; l < numLarge; l++) {
+			int a = large[l];
+
+			for (int c = 0; c < numObjects; c++) {
+				if (c == a || (isLarge[c] && c < a)) continue;     // Pairs of big objects are only found once
+
+				if (overlaps(a, c)) {
+					pairs.add(objects[a]);
+					pairs.add(objects[c]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void query(double qLeft, double qBottom, double qRight, double qTop, ArrayList<GameObject> results) {
+		queryNumber++;
+
+		int x1 = cell(qLeft);
+		int x2 = cell(qRight);
+		int y1 = cell(qBottom);
+		int y2 = cell(qTop);
+
+		if (((long) x2 - x1 + 1) * ((long) y2 - y1 + 1) > numObjects) {
+			// Looking in every cell would take longer than looking at every object
+			for (int o = 0; o < numObjects; o++) {
+				if (overlaps(o, qLeft, qBottom, qRight, qTop)) {
+					results.add(objects[o]);
+				}
+			}
+
+			return;
+		}
+
+		for (int cx = x1; cx <= x2; cx++) {
+			for (int cy = y1; cy <= y2; cy++) {
+				for (int e = buckets[hash(cx, cy)]; e != -1; e = entryNext[e]) {
+					int o = entryObject[e];
+
+					if (entryX[e] == cx && entryY[e] == cy && mark[o] != queryNumber && overlaps(o, qLeft, qBottom, qRight, qTop)) {
+						mark[o] = queryNumber;
+						results.add(objects[o]);
+					}
+				}
+			}
+		}
+
+		for (int l = 0; l < numLarge; l++) {
+			int o = large[l];
+
+			if (overlaps(o, qLeft, qBottom, qRight, qTop)) {
+				results.add(objects[o]);
+			}
+		}
+	}
+
+	/**
+	 * Add an object and put it in the cells it covers.
+	 */
+	private void add(GameObject ob) {
+		if (numObjects == objects.length) {
+			int size = numObjects * 2;
+			objects = Arrays.copyOf(objects, size);
+			left = Arrays.copyOf(left, size);
+			right = Arrays.copyOf(right, size);
+			bottom = Arrays.copyOf(bottom, size);
+			top = Arrays.copyOf(top, size);
+			mark = Arrays.copyOf(mark, size);
+			isLarge = Arrays.copyOf(isLarge, size);
+		}
+
+		int o = numObjects++;
+		objects[o] = ob;
+		left[o] = ob.getCollisionLeft();
+		right[o] = ob.getCollisionRight();
+		bottom[o] = ob.getCollisionBottom();
+		top[o] = ob.getCollisionTop();
+		mark[o] = 0;
+		isLarge[o] = false;
+
+		int x1 = cell(left[o]);
+		int x2 = cell(right[o]);
+		int y1 = cell(bottom[o]);
+		int y2 = cell(top[o]);
+
+		if (((long) x2 - x1 + 1) * ((long) y2 - y1 + 1) > MAX_CELLS) {
+			if (numLarge == large.length) {
+				large = Arrays.copyOf(large, numLarge * 2);
+			}
+
+			large[numLarge++] = o;
+			isLarge[o] = true;
+			return;
+		}
+
+		for (int cx = x1; cx <= x2; cx++) {
+			for (int cy = y1; cy <= y2; cy++) {
+				if (numEntries == entryObject.length) {
+					int size = numEntries * 2;
+					entryObject = Arrays.copyOf(entryObject, size);
+					entryX = Arrays.copyOf(entryX, size);
+					entryY = Arrays.copyOf(entryY, size);
+					entryNext = Arrays.copyOf(entryNext, size);
+				}
+
+				entryObject[numEntries] = o;
+				entryX[numEntries] = cx;
+				entryY[numEntries] = cy;
+				numEntries++;
+			}
+		}
+	}
+
+	private boolean overlaps(int a, int b) {
+		return left[a] <= right[b] && left[b] <= right[a] && bottom[a] <= top[b] && bottom[b] <= top[a];
+	}
+
+	private boolean overlaps(int o, double qLeft, double qBottom, double qRight, double qTop) {
+		return left[o] <= qRight && qLeft <= right[o] && bottom[o] <= qTop && qBottom <= top[o];
+	}
+
+	/**
+	 * Returns the cell column or row that a coordinate is in.
+	 */
+	private int cell(double coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private int hash(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & (buckets.length - 1);
+	}
+}
@@ -0,0 +1,257 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * A Broadphase that keeps the left and right edges of every object's collision
+ * bounds in one list sorted along the x axis. Walking the list from left to
+ * right, each object only has to be compared with the objects whose x range it
+ * starts inside. <br/><br/>
+ *
+ * The list is kept from one update to the next and sorted again with an
+ * insertion sort. When objects only move a little each update the list is
+ * almost sorted already, so this takes about as long as there are objects. Works
+ * best in wide rooms like side scrolling levels, where few objects share the same
+ * x range. A SpatialHash is better when many objects move far each update.
+ * <br/><br/>
+ *
+ * query() finds where to start in the list with a binary search, going back by
+ * the width of the widest object so objects that start left of the rectangle are
+ * still found. One very wide object makes every query look at more of the list.
+ */
+public class SweepAndPrune implements Broadphase {
+	// Variables
+	private int numSlots;                             // Number of slots used, including free ones
+	private double bottom[];                          // Bottom of each slot's object's collision bounds
+	private double top[];                             // Top of each slot's object's collision bounds
+	private double right[];                           // Right edge of each slot's object's collision bounds
+	private int seen[];                               // Update number each slot's object was last seen in
+	private int numFree;                              // Number of free slots
+	private int free[];                               // Slots that can be reused
+	private int numEnds;                              // Number of endpoints, two for each object
+	private double endValue[];                        // X position of each endpoint, sorted
+	private int endInfo[];                            // Slot * 2 for a left edge, slot * 2 + 1 for a right edge
+	private int active[];                             // Slots whose x range the sweep is inside
+	private int activeIndex[];                        // Where each slot is in active
+	private int updateNumber;                         // Increases with each update
+	private double maxWidth;                          // Widest collision bounds as of the last update
+
+	// Objects
+	private GameObject objects[];                     // The object in each slot, null if the slot is free
+	private IdentityHashMap<GameObject, Integer> slots;   // The slot of each object
+
+	public SweepAndPrune() {
+		objects = new GameObject[16];
+		bottom = new double[16];
+		top = new double[16];
+		right = new double[16];
+		seen = new int[16];
+		free = new int[16];
+		activeIndex = new int[16];
+		active = new int[16];
+
+		endValue = new double[32];
+		endInfo = new int[32];
+
+		slots = new IdentityHashMap<GameObject, Integer>();
+	}
+
+	@Override
+	public void update(ArrayList<GameObject> obs) {
+		updateNumber++;
+		maxWidth = 0;
+
+		// Find new objects and refresh the bounds of the ones already here
+		for (int o = 0; o < obs.size(); o++) {
+			GameObject ob = obs.get(o);
+
+			if (ob == null || ob.getNumColBoxes() == 0) continue;
+
+			Integer slot = slots.get(ob);
+			int s = slot == null ? add(ob) : slot;
+
+			seen[s] = updateNumber;
+			bottom[s] = ob.getCollisionBottom();
+			top[s] = ob.getCollisionTop();
+			right[s] = ob.getCollisionRight();
+			maxWidth = Math.max(maxWidth, right[s] - ob.getCollisionLeft());
+		}
+
+		// Drop the endpoints of objects that are gone and move the rest to the new bounds
+		int kept = 0;
+
+		for (int e = 0; e < numEnds; e++) {
+			int s = endInfo[e] >> 1;
+
+			if (seen[s] != updateNumber) {
+				if ((endInfo[e] & 1) == 0) remove(s);
+				continue;
+			}
+
+			endInfo[kept] = endInfo[e];
+			endValue[kept] = (endInfo[e] & 1) == 0 ? objects[s].getCollisionLeft() : objects[s].getCollisionRight();
+			kept++;
+		}
+
+		numEnds = kept;
+
+		sort();
+	}
+
+	@Override
+	public void findPairs(ArrayList<GameObject> pairs) {
+		int numActive = 0;
+
+		for (int e = 0; e < numEnds; e++) {
+			int s = endInfo[e] >> 1;
+
+			if ((endInfo[e] & 1) == 0) {
+				// Left edge: s overlaps every active object on x, so only y is left to check
+				for (int a = 0; a < numActive; a++) {
+					int other = active[a];
+
+					if (bottom[s] <= top[other] && bottom[other] <= top[s]) {
+						pairs.add(objects[other]);
+						pairs.add(objects[s]);
+					}
+				}
+
+				activeIndex[s] = numActive;
+				active[numActive++] = s;
+			} else {
+				// Right edge: take s out of the active list
+				int last = active[--numActive];
+				active[activeIndex[s]] = last;
+				activeIndex[last] = activeIndex[s];
+			}
+		}
+	}
+
+	@Override
+	public void query(double qLeft, double qBottom, double qRight, double qTop, ArrayList<GameObject> results) {
+		// Objects that overlap the rectangle start between qLeft - maxWidth and qRight
+		int e = firstEnd(qLeft - maxWidth);
+
+		for (; e < numEnds && endValue[e] <= qRight; e++) {
+			if ((endInfo[e] & 1) != 0) continue;
+
+			int s = endInfo[e] >> 1;
+
+			if (right[s] >= qLeft && bottom[s] <= qTop && qBottom <= top[s]) {
+				results.add(objects[s]);
+			}
+		}
+	}
+
+	/**
+	 * Binary search the sorted endpoints.
+	 *
+	 * @return The index of the first endpoint at or past x, numEnds if there is none.
+	 */
+	private int firstEnd(double x) {
+		int low = 0;
+		int high = numEnds;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (endValue[mid] < x) low = mid + 1;
+			else high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Give an object a slot and add its endpoints to the end of the list. The sort
+	 * puts them in place.
+	 *
+	 * @return The object's slot.
+	 */
+	private int add(GameObject ob) {
+		int s;
+
+		if (numFree > 0) {
+			s = free[--numFree];
+		} else {
+			if (numSlots == objects.length) {
+				int size = numSlots * 2;
+				objects = Arrays.copyOf(objects, size);
+				bottom = Arrays.copyOf(bottom, size);
+				top = Arrays.copyOf(top, size);
+				right = Arrays.copyOf(right, size);
+				seen = Arrays.copyOf(seen, size);
+				free = Arrays.copyOf(free, size);
+				active = Arrays.copyOf(active, size);
+				activeIndex = Arrays.copyOf(activeIndex, size);
+			}
+
+			s = numSlots++;
+		}
+
+		if (numEnds + 2 > endValue.length) {
+			endValue = Arrays.copyOf(endValue, endValue.length * 2);
+			endInfo = Arrays.copyOf(endInfo, endInfo.length * 2);
+		}
+
+		objects[s] = ob;
+		slots.put(ob, s);
+
+		endInfo[numEnds++] = s * 2;
+		endInfo[numEnds++] = s * 2 + 1;
+
+		return s;
+	}
+
+	/**
+	 * Free an object's slot. Its endpoints must be dropped by the caller.
+	 */
+	private void remove(int s) {
+		slots.remove(objects[s]);
+		objects[s] = null;
+		free[numFree++] = s;
+	}
+
+	/**
+	 * Insertion sort the endpoints by x. Left edges go before right edges at the same
+	 * x so that objects that only touch are still found.
+	 */
+	private void sort() {
+		for (int e = 1; e < numEnds; e++) {
+			double value = endValue[e];
+			int info = endInfo[e];
+			int i = e - 1;
+
+			while (i >= 0 && (endValue[i] > value || (endValue[i] == value && (endInfo[i] & 1) == 1 && (info & 1) == 0))) {
+				endValue[i + 1] = endValue[i];
+				endInfo[i + 1] = endInfo[i];
+				i--;
+			}
+
+			endValue[i + 1] = value;
+			endInfo[i + 1] = info;
+		}
+	}
+}
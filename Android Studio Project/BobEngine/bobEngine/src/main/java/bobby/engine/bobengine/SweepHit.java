@@ -0,0 +1,107 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+/**
+ * The first thing an object ran into on its way from where it was before the last
+ * update to where it is now, found by Room.sweep(). Can be used again for each
+ * sweep so nothing new has to be made every frame.
+ */
+public class SweepHit {
+	// Variables
+	private double time;                              // How far along the way the hit happened, from 0 to 1
+	private double normalX;                           // Direction the surface that was hit faces
+	private double normalY;
+	private double x;                                 // Where the moving object was when it hit
+	private double y;
+
+	// Objects
+	private GameObject object;                        // The object that was hit, null for none
+
+	public SweepHit() {
+		clear();
+	}
+
+	/**
+	 * Forget the last hit.
+	 */
+	public void clear() {
+		object = null;
+		time = 1;
+		normalX = normalY = 0;
+		x = y = 0;
+	}
+
+	void set(GameObject object, double time, double normalX, double normalY, double x, double y) {
+		this.object = object;
+		this.time = time;
+		this.normalX = normalX;
+		this.normalY = normalY;
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * Returns the object that was hit, or null if nothing was hit.
+	 */
+	public GameObject getObject() {
+		return object;
+	}
+
+	/**
+	 * Returns how far along its way the moving object was when it hit, from 0 for
+	 * where it was before the last update to 1 for where it is now.
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the x part of the normal of the side that was hit: -1 for the left
+	 * side, 1 for the right side, 0 for the top or bottom. Both parts are 0 if the
+	 * objects were already touching at the start.
+	 */
+	public double getNormalX() {
+		return normalX;
+	}
+
+	/**
+	 * Returns the y part of the normal of the side that was hit: -1 for the bottom,
+	 * 1 for the top, 0 for the left or right side.
+	 */
+	public double getNormalY() {
+		return normalY;
+	}
+
+	/**
+	 * Returns the x position the moving object was at when it hit.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * Returns the y position the moving object was at when it hit.
+	 */
+	public double getY() {
+		return y;
+	}
+}
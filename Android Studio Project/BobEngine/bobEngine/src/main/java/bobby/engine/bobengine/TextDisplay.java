@@ -87,8 +87,7 @@ public class TextDisplay extends GameObject {
 		Graphic g = getView().getGraphicsHelper().addGraphic(R.drawable.characters);
 		setGraphic(g, 13, 6);
 
-		y = getRoom().getHeight();
-		x = 0;
+		setPosition(0, getRoom().getHeight());
 		setBoxWidth(getRoom().getWidth());
 		alignment = LEFT;
 		characters = new Character[1];
@@ -272,6 +271,9 @@ public class TextDisplay extends GameObject {
 	 * Updates the positions of each character if the whole TextDisplay has moved.
 	 */
 	public void updatePosition() {
+		double x = getX();
+		double y = getY();
+
 		for (int i = 0; i < characters.length; i++) {
 			if (characters[i] != null) {
 				characters[i].x = x + characters[i].xOff;
@@ -292,6 +294,10 @@ public class TextDisplay extends GameObject {
 	 */
 	private void calculateText() {
 		// Variables
+		double x = getX();       // Where the text starts
+		double y = getY();
+		double width = getWidth();
+		double height = getHeight();
 		double cursor = x;       // Keeps track of where to place the next character
 		int line = 0;            // Keeps track of the line we are placing characters on
 		int firstChar = 0;       // The first character in characters[] on line number line
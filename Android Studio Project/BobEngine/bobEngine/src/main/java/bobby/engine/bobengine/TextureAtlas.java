@@ -0,0 +1,292 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Packs small graphics into shared textures called pages. GameObjects whose
+ * graphics are on the same page can be drawn together with one texture bind and
+ * one draw call. <br/><br/>
+ *
+ * Graphics are placed on a page as soon as they are added to the GraphicsHelper,
+ * using only their width and height. The page's texture is put together from the
+ * graphics' drawables when it is loaded. Each graphic keeps its own width and height
+ * and its own 0 to 1 graphic coordinates; Graphic.toTextureX() and toTextureY()
+ * convert them to coordinates on the page. <br/><br/>
+ *
+ * Space on a page is found with a skyline packer: the page keeps the height of the
+ * lowest free row at each x position and puts each new graphic where it leaves the
+ * skyline lowest. Space is not reused when a graphic is removed. A page is removed
+ * once all of its graphics have been removed.
+ */
+public class TextureAtlas {
+	// Constants
+	public static final int PADDING = 1;           // Pixels around each graphic that repeat its edge, so filtering doesn't pick up its neighbours
+
+	// Variables
+	private int pageSize;                          // Width and height of each page, in pixels
+	private int maxSize;                           // Largest width or height of a graphic that will be packed
+
+	// Objects
+	private ArrayList<Page> pages;                 // The pages in this atlas
+
+	/**
+	 * Create an atlas.
+	 *
+	 * @param pageSize The width and height of each page, in pixels. Should be a power of two.
+	 * @param maxSize Graphics wider or taller than this get their own texture instead.
+	 */
+	public TextureAtlas(int pageSize, int maxSize) {
+		this.pageSize = pageSize;
+		this.maxSize = Math.min(maxSize, pageSize - 2 * PADDING);
+
+		pages = new ArrayList<Page>();
+	}
+
+	/**
+	 * Returns the width and height of this atlas' pages.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Determine if a graphic is small enough to be packed.
+	 */
+	public boolean fits(Graphic graphic) {
+		return graphic.width > 0 && graphic.height > 0 && graphic.width <= maxSize && graphic.height <= maxSize;
+	}
+
+	/**
+	 * Put a graphic on the first page that has room for it and the same texture
+	 * parameters.
+	 *
+	 * @param graphic The graphic to pack
+	 * @return The page the graphic was put on, or null if a new page is needed.
+	 */
+	public Page pack(Graphic graphic) {
+		for (int p = 0; p < pages.size(); p++) {
+			Page page = pages.get(p);
+
+			if (page.matches(graphic) && page.insert(graphic)) return page;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Create a new page with the same texture parameters as graphic and put
+	 * graphic on it. The page needs to be given an ID by the GraphicsHelper.
+	 *
+	 * @param graphic The graphic that didn't fit on any of the existing pages
+	 * @return The new page.
+	 */
+	public Page newPage(Graphic graphic) {
+		Page page = new Page(pageSize, graphic.minFilter, graphic.magFilter, graphic.useMipMaps);
+		pages.add(page);
+		page.insert(graphic);
+
+		return page;
+	}
+
+	/**
+	 * Take a graphic off of its page. If the page has no graphics left it is
+	 * removed from this atlas and marked for removal from the GraphicsHelper.
+	 * The graphic has to be packed again if it is added back later.
+	 *
+	 * @param graphic The graphic that is being removed
+	 */
+	public void remove(Graphic graphic) {
+		Page page = graphic.getAtlasPage();
+
+		graphic.clearAtlasPage();
+
+		if (page != null && page.members.remove(graphic) && page.members.isEmpty()) {
+			pages.remove(page);
+			page.remove();
+		}
+	}
+
+	/**
+	 * A texture holding many graphics.
+	 */
+	public static class Page extends Graphic {
+		// Variables
+		private int numSegments;                   // Number of segments in the skyline
+		private int segX[];                        // Left edge of each skyline segment
+		private int segY[];                        // Height used so far under each segment
+		private int segWidth[];                    // Width of each segment
+		private boolean dirty;                     // Flag indicates graphics were added after the page's texture was made
+
+		// Objects
+		private ArrayList<Graphic> members;        // The graphics on this page
+
+		private Page(int size, int minFilter, int magFilter, boolean useMipMaps) {
+			super(0, size, size, minFilter, magFilter, useMipMaps, 0);
+			persistent = true;                     // Pages are removed when their graphics are, not by cleanups
+
+			numSegments = 1;
+			segX = new int[16];
+			segY = new int[16];
+			segWidth = new int[16];
+			segWidth[0] = size;
+
+			members = new ArrayList<Graphic>();
+		}
+
+		/**
+		 * Returns the graphics on this page.
+		 */
+		public ArrayList<Graphic> getMembers() {
+			return members;
+		}
+
+		/**
+		 * Returns true if graphics were added to this page after its texture was made.
+		 */
+		public boolean isDirty() {
+			return dirty;
+		}
+
+		/**
+		 * Signify that the page's texture has been made from all of its graphics.
+		 */
+		public void clean() {
+			dirty = false;
+		}
+
+		/**
+		 * Returns true if graphic uses the same texture parameters as this page.
+		 */
+		private boolean matches(Graphic graphic) {
+			return graphic.minFilter == minFilter && graphic.magFilter == magFilter && graphic.useMipMaps == useMipMaps;
+		}
+
+		/**
+		 * Find the lowest place on this page for graphic and put it there.
+		 *
+		 * @return True if graphic was placed, false if there is no room.
+		 */
+		private boolean insert(Graphic graphic) {
+			int w = graphic.width + 2 * PADDING;
+			int h = graphic.height + 2 * PADDING;
+
+			int best = -1;
+			int bestY = 0;
+
+			for (int s = 0; s < numSegments; s++) {
+				int y = fit(s, w);
+
+				if (y >= 0 && y + h <= height && (best == -1 || y < bestY)) {
+					best = s;
+					bestY = y;
+				}
+			}
+
+			if (best == -1) return false;
+
+			int x = segX[best];
+			addSegment(best, x, bestY + h, w);
+
+			graphic.setAtlasPage(this, x + PADDING, bestY + PADDING);
+			members.add(graphic);
+			if (isLoaded()) dirty = true;
+
+			return true;
+		}
+
+		/**
+		 * Find how high a w pixel wide graphic would have to go if its left edge was
+		 * at the start of segment s.
+		 *
+		 * @return The y position, or -1 if the graphic would go past the right edge.
+		 */
+		private int fit(int s, int w) {
+			if (segX[s] + w > width) return -1;
+
+			int y = 0;
+			int remaining = w;
+
+			while (remaining > 0) {
+				y = Math.max(y, segY[s]);
+				remaining -= segWidth[s];
+				s++;
+			}
+
+			return y;
+		}
+
+		/**
+		 * Raise the skyline where a graphic was placed. The new segment starts at
+		 * segment s and covers up the segments it lies on top of.
+		 */
+		private void addSegment(int s, int x, int y, int w) {
+			if (numSegments == segX.length) {
+				segX = Arrays.copyOf(segX, numSegments * 2);
+				segY = Arrays.copyOf(segY, numSegments * 2);
+				segWidth = Arrays.copyOf(segWidth, numSegments * 2);
+			}
+
+			// Make room for the new segment at s
+			System.arraycopy(segX, s, segX, s + 1, numSegments - s);
+			System.arraycopy(segY, s, segY, s + 1, numSegments - s);
+			System.arraycopy(segWidth, s, segWidth, s + 1, numSegments - s);
+			numSegments++;
+
+			segX[s] = x;
+			segY[s] = y;
+			segWidth[s] = w;
+
+			// Shrink or remove the segments the new one covers
+			int i = s + 1;
+			while (i < numSegments && segX[i] < x + w) {
+				int overlap = x + w - segX[i];
+
+				if (overlap >= segWidth[i]) {
+					removeSegment(i);
+				} else {
+					segX[i] += overlap;
+					segWidth[i] -= overlap;
+					break;
+				}
+			}
+
+			// Join neighbouring segments at the same height
+			for (i = 0; i < numSegments - 1; ) {
+				if (segY[i] == segY[i + 1]) {
+					segWidth[i] += segWidth[i + 1];
+					removeSegment(i + 1);
+				} else {
+					i++;
+				}
+			}
+		}
+
+		private void removeSegment(int s) {
+			System.arraycopy(segX, s + 1, segX, s, numSegments - s - 1);
+			System.arraycopy(segY, s + 1, segY, s, numSegments - s - 1);
+			System.arraycopy(segWidth, s + 1, segWidth, s, numSegments - s - 1);
+			numSegments--;
+		}
+	}
+}
@@ -24,8 +24,23 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * This class listens for and handles touch input.
+ * This class listens for and handles touch input. <br/><br/>
+ *
+ * Touch events arrive on the UI thread but the game is updated on another thread,
+ * so onTouch() only puts each event in a queue. The BobView's current room takes
+ * the events out at the start of each update, in the order they happened, and that is
+ * when the positions and held flags change and the newpress and released events
+ * run. The queue is made once and has one writer and one reader, so it needs no
+ * locks and makes no garbage. The events handled in the last update can be looked
+ * at with getNumEvents() and the getEvent methods. <br/><br/>
+ *
+ * If the game stops taking events out for long enough that the queue fills up,
+ * moves are dropped first. Pointers touching and leaving the screen that don't
+ * fit are still handled at the next update, so a pointer is never left held, but
+ * each pointer only gets one newpress and one released for all of them.
  * 
  * @author Ben
  * @modified 9/21/15
@@ -34,6 +49,11 @@ public class Touch implements OnTouchListener {
 
 	// Constants
 	public final static int MAX_FINGERS = 10;       // The max number of fingers that can touch the screen.
+	public final static int DOWN = 0;               // Event type of a pointer touching the screen
+	public final static int MOVE = 1;               // Event type of a pointer moving
+	public final static int UP = 2;                 // Event type of a pointer leaving the screen
+	private final static int QUEUE_SIZE = 256;      // Number of events the queue holds. Must be a power of 2.
+	private final static int RESERVED = 2 * MAX_FINGERS;   // Slots at the end of the queue only DOWN and UP events can use
 
 	// Variables
 	private int numTouches;                         // Current number of pointers on the screen
@@ -44,6 +64,34 @@ public class Touch implements OnTouchListener {
 	/** Y positions of the pointers currently touching the screen. (0 is at the bottom of the screen)*/
 	private float Y[];                                // Touch Y positions; NOTE: 0 at the TOP of the screen. That's the opposite of the graphics.
 
+	// Queue of events waiting to be handled. Only onTouch() writes events and tail,
+	// only handleEvents() reads events and writes head.
+	private int queueType[];                          // Type of each event: DOWN, MOVE or UP
+	private int queuePointer[];                       // Pointer of each event
+	private int queueCount[];                         // Number of pointers on the screen when each event happened, counting the pointer leaving for UP
+	private float queueX[];                           // Position of each event's pointer
+	private float queueY[];
+	private long queueTime[];                         // Time of each event, in SystemClock.uptimeMillis() time
+	private volatile int head;                        // Number of events taken out of the queue so far
+	private volatile int tail;                        // Number of events put in the queue so far
+
+	// DOWN and UP events that didn't fit in the queue. Written by onTouch() before
+	// lost is changed, taken by handleEvents().
+	private AtomicInteger lost;                       // Pointers touching (low bits) and leaving (high bits) the screen
+	private int lostCount;                            // Number of pointers held after the last lost event
+	private float lostX[];                            // Position of each pointer at its last lost event
+	private float lostY[];
+	private boolean overflowing;                      // Flag indicates DOWN and UP events go in lost until handleEvents() has taken it. Only used by onTouch().
+
+	// Events handled in the last update, copied out of the queue
+	private int numEvents;
+	private int eventType[];
+	private int eventPointer[];
+	private int eventCount[];
+	private float eventX[];
+	private float eventY[];
+	private long eventTime[];
+
 	// Objects
 	private BobView view;                          // BobView that contains this touch listener.
 
@@ -57,6 +105,24 @@ public class Touch implements OnTouchListener {
 		this.view = view;
 		numTouches = 0;
 
+		queueType = new int[QUEUE_SIZE];
+		queuePointer = new int[QUEUE_SIZE];
+		queueCount = new int[QUEUE_SIZE];
+		queueX = new float[QUEUE_SIZE];
+		queueY = new float[QUEUE_SIZE];
+		queueTime = new long[QUEUE_SIZE];
+
+		lost = new AtomicInteger();
+		lostX = new float[MAX_FINGERS];
+		lostY = new float[MAX_FINGERS];
+
+		eventType = new int[QUEUE_SIZE];
+		eventPointer = new int[QUEUE_SIZE];
+		eventCount = new int[QUEUE_SIZE];
+		eventX = new float[QUEUE_SIZE];
+		eventY = new float[QUEUE_SIZE];
+		eventTime = new long[QUEUE_SIZE];
+
 		for (int i = 0; i < MAX_FINGERS; i++) {
 			X[i] = -1;
 			Y[i] = -1;
@@ -147,14 +213,19 @@ public class Touch implements OnTouchListener {
 	 * @return True if o is being touched by any pointer, false otherwise.
 	 */
 	public boolean objectTouched(GameObject o) {
+		double x = o.getX();
+		double y = o.getY();
+		double halfW = Math.abs(o.getWidth()) / 2;
+		double halfH = Math.abs(o.getHeight()) / 2;
+
 		if (!o.followCamera) {
 			double camLeft = o.getRoom().getCameraLeftEdge();
 			double camBot = o.getRoom().getCameraBottomEdge();
 
-			return areaTouched(o.x - Math.abs(o.width) / 2 - camLeft, o.y + Math.abs(o.height) / 2 - camBot, o.x + Math.abs(o.width) / 2 - camLeft, o.y - Math.abs(o.height) / 2 - camBot);
+			return areaTouched(x - halfW - camLeft, y + halfH - camBot, x + halfW - camLeft, y - halfH - camBot);
 		}
 
-		return areaTouched(o.x - Math.abs(o.width) / 2, o.y + Math.abs(o.height) / 2, o.x + Math.abs(o.width) / 2, o.y - Math.abs(o.height) / 2);
+		return areaTouched(x - halfW, y + halfH, x + halfW, y - halfH);
 	}
 
 	/**
@@ -164,14 +235,19 @@ public class Touch implements OnTouchListener {
 	 * @return The ID of the pointer touching object o, -1 if o is not being touched.
 	 */
 	public int objectTouchedByIndex(GameObject o) {
+		double x = o.getX();
+		double y = o.getY();
+		double halfW = Math.abs(o.getWidth()) / 2;
+		double halfH = Math.abs(o.getHeight()) / 2;
+
 		if (!o.followCamera) {
 			double camLeft = o.getRoom().getCameraLeftEdge();
 			double camBot = o.getRoom().getCameraBottomEdge();
 
-			return areaTouchedByIndex(o.x - Math.abs(o.width) / 2 - camLeft, o.y + Math.abs(o.height) / 2 - camBot, o.x + Math.abs(o.width) / 2 - camLeft, o.y - Math.abs(o.height) / 2 - camBot);
+			return areaTouchedByIndex(x - halfW - camLeft, y + halfH - camBot, x + halfW - camLeft, y - halfH - camBot);
 		}
 
-		return areaTouchedByIndex(o.x - Math.abs(o.width) / 2, o.y + Math.abs(o.height) / 2, o.x + Math.abs(o.width) / 2, o.y - Math.abs(o.height) / 2);
+		return areaTouchedByIndex(x - halfW, y + halfH, x + halfW, y - halfH);
 	}
 
 	/**
@@ -182,14 +258,19 @@ public class Touch implements OnTouchListener {
 	 *         as defined by o's x, y, height, and width.
 	 */
 	public boolean objectTouched(int index, GameObject o) {
+		double x = o.getX();
+		double y = o.getY();
+		double halfW = Math.abs(o.getWidth()) / 2;
+		double halfH = Math.abs(o.getHeight()) / 2;
+
 		if (!o.followCamera) {
 			double camLeft = o.getRoom().getCameraLeftEdge();
 			double camBot = o.getRoom().getCameraBottomEdge();
 
-			return areaTouched(index, o.x - Math.abs(o.width) / 2 - camLeft, o.y + Math.abs(o.height) / 2 - camBot, o.x + Math.abs(o.width) / 2 - camLeft, o.y - Math.abs(o.height) / 2 - camBot);
+			return areaTouched(index, x - halfW - camLeft, y + halfH - camBot, x + halfW - camLeft, y - halfH - camBot);
 		}
 
-		return areaTouched(index, o.x - Math.abs(o.width) / 2, o.y + Math.abs(o.height) / 2, o.x + Math.abs(o.width) / 2, o.y - Math.abs(o.height) / 2);
+		return areaTouched(index, x - halfW, y + halfH, x + halfW, y - halfH);
 	}
 
 	/**
@@ -261,83 +342,212 @@ public class Touch implements OnTouchListener {
 	}
 
 	/**
-	 * Handle touch events.
+	 * Returns the number of touch events handled at the start of the last update.
 	 */
-	@Override
-	public boolean onTouch(View v, MotionEvent event) {
-		// Variables
-		numTouches = event.getPointerCount();            // The current number of touches
-		int index = event.getActionIndex();              // The finger that is touching the screen
+	public int getNumEvents() {
+		return numEvents;
+	}
 
-		switch (event.getActionMasked() & MotionEvent.ACTION_MASK) {
-		case MotionEvent.ACTION_DOWN:
-			for (int i = 0; i < MAX_FINGERS; i++) {
-				if(i < numTouches) {
-					held[i] = true;
-				} else {
-					held[i] = false;
-				}
-			}
+	/**
+	 * Returns the type of a touch event handled in the last update: DOWN, MOVE or
+	 * UP.
+	 *
+	 * @param e The event, from 0 to getNumEvents() - 1, oldest first
+	 */
+	public int getEventType(int e) {
+		return eventType[e];
+	}
+
+	/**
+	 * Returns the pointer that caused a touch event handled in the last update.
+	 */
+	public int getEventPointer(int e) {
+		return eventPointer[e];
+	}
 
-			X[0] = event.getX();
-			Y[0] = view.getHeight() - event.getY();
+	/**
+	 * Returns the x position of the pointer when a touch event handled in the last
+	 * update happened.
+	 */
+	public float getEventX(int e) {
+		return eventX[e];
+	}
 
-			if (view.getCurrentRoom() != null) view.getCurrentRoom().signifyNewpress(index);
-			break;
+	/**
+	 * Returns the y position of the pointer when a touch event handled in the last
+	 * update happened. (0 is at the bottom of the screen)
+	 */
+	public float getEventY(int e) {
+		return eventY[e];
+	}
 
-		case MotionEvent.ACTION_MOVE:
-			for (int i = 0; i < numTouches; i++) {
-				X[i] = event.getX(i);
-				Y[i] = view.getHeight() - event.getY(i);
-			}
+	/**
+	 * Returns when a touch event handled in the last update happened, in
+	 * SystemClock.uptimeMillis() time.
+	 */
+	public long getEventTime(int e) {
+		return eventTime[e];
+	}
 
-			break;
+	/**
+	 * Take the waiting events out of the queue, in the order they happened. For each
+	 * event the pointer positions and held flags are changed, then the room's
+	 * newpress or released event runs for DOWN and UP events. Called by the BobView's
+	 * current room at the start of each of its updates, once per update.
+	 *
+	 * @param room The room being updated
+	 */
+	void handleEvents(Room room) {
+		int first = head;
+		int last = tail;                              // Events put in after this wait for the next update
 
-		case MotionEvent.ACTION_UP:
+		numEvents = last - first;
 
+		for (int e = 0; e < numEvents; e++) {
+			int q = (first + e) & (QUEUE_SIZE - 1);
 
-            if (view.getCurrentRoom() != null) view.getCurrentRoom().signifyReleased(index);
+			eventType[e] = queueType[q];
+			eventPointer[e] = queuePointer[q];
+			eventCount[e] = queueCount[q];
+			eventX[e] = queueX[q];
+			eventY[e] = queueY[q];
+			eventTime[e] = queueTime[q];
+		}
+
+		head = last;                                  // onTouch() can use the slots again
+
+		for (int e = 0; e < numEvents; e++) {
+			int pointer = eventPointer[e];
+			int count = eventType[e] == UP ? eventCount[e] - 1 : eventCount[e];   // The pointer leaving isn't held anymore
 
-			for (int i = 0; i < MAX_FINGERS; i++) {
-				if(i < numTouches - 1) {
-					held[i] = true;
-				} else {
-					held[i] = false;
+			if (pointer >= MAX_FINGERS) continue;
+
+			X[pointer] = eventX[e];
+			Y[pointer] = eventY[e];
+			numTouches = count;
+
+			if (eventType[e] != MOVE) {
+				for (int i = 0; i < MAX_FINGERS; i++) {
+					held[i] = i < count;
 				}
 			}
 
-			numTouches = 0;
+			if (eventType[e] == DOWN) room.newpress(pointer);
+			else if (eventType[e] == UP) room.released(pointer);
+		}
 
-			break;
+		// Events that didn't fit in the queue came after all of the ones in it
+		int edges = lost.getAndSet(0);
 
-		case MotionEvent.ACTION_POINTER_DOWN:
+		if (edges == 0) return;
 
-			for (int i = 0; i < MAX_FINGERS; i++) {
-				if(i < numTouches) {
-					held[i] = true;
-				} else {
-					held[i] = false;
-				}
+		for (int p = 0; p < MAX_FINGERS; p++) {
+			boolean down = (edges & (1 << p)) != 0;
+			boolean up = (edges & (1 << (p + 16))) != 0;
+
+			if (!down && !up) continue;
+
+			X[p] = lostX[p];
+			Y[p] = lostY[p];
+
+			if (up && held[p]) {                      // A held pointer can only leave first
+				held[p] = false;
+				room.released(p);
+				up = false;
 			}
 
-			X[index] = event.getX(index);
-			Y[index] = view.getHeight() - event.getY(index);
+			if (down) {
+				held[p] = true;
+				room.newpress(p);
+			}
 
-			if (view.getCurrentRoom() != null) view.getCurrentRoom().signifyNewpress(index);
-			break;
+			if (up) {
+				held[p] = false;
+				room.released(p);
+			}
+		}
 
-		case MotionEvent.ACTION_POINTER_UP:
+		numTouches = lostCount;
+
+		for (int i = 0; i < MAX_FINGERS; i++) {
+			held[i] = i < lostCount;
+		}
+	}
+
+	/**
+	 * Put an event in the queue. When the queue is nearly full, MOVE events are
+	 * dropped so there is still room for DOWN and UP events. A DOWN or UP event
+	 * that doesn't fit goes in lost instead, and so do the ones after it until
+	 * handleEvents() has taken them, so they are still handled in order.
+	 */
+	private void addEvent(int type, int pointer, int count, float x, float y, long time) {
+		int t = tail;
 
-            if (view.getCurrentRoom() != null) view.getCurrentRoom().signifyReleased(index);
+		if (overflowing && lost.get() == 0) overflowing = false;   // handleEvents() took the lost events
+
+		if (type == MOVE) {
+			if (overflowing || t - head >= QUEUE_SIZE - RESERVED) return;   // A later event has the position
+		} else if (overflowing || t - head == QUEUE_SIZE) {
+			if (pointer >= MAX_FINGERS) return;
+
+			overflowing = true;
+			lostX[pointer] = x;
+			lostY[pointer] = view.getHeight() - y;
+			lostCount = type == UP ? count - 1 : count;
+
+			int edge = type == DOWN ? 1 << pointer : 1 << (pointer + 16);
+			int old;
+
+			do {
+				old = lost.get();
+			} while (!lost.compareAndSet(old, old | edge));    // Also makes the positions and count visible to handleEvents()
+
+			return;
+		}
 
-			for (int i = 0; i < MAX_FINGERS; i++) {
-				if(i < numTouches - 1) {
-					held[i] = true;
-				} else {
-					held[i] = false;
+		int q = t & (QUEUE_SIZE - 1);
+
+		queueType[q] = type;
+		queuePointer[q] = pointer;
+		queueCount[q] = count;
+		queueX[q] = x;
+		queueY[q] = view.getHeight() - y;
+		queueTime[q] = time;
+
+		tail = t + 1;                                 // Only now can handleEvents() see it
+	}
+
+	/**
+	 * Handle touch events.
+	 */
+	@Override
+	public boolean onTouch(View v, MotionEvent event) {
+		int count = event.getPointerCount();
+		int index = event.getActionIndex();              // The finger that is touching the screen
+
+		switch (event.getActionMasked() & MotionEvent.ACTION_MASK) {
+		case MotionEvent.ACTION_DOWN:
+		case MotionEvent.ACTION_POINTER_DOWN:
+			addEvent(DOWN, index, count, event.getX(index), event.getY(index), event.getEventTime());
+			break;
+
+		case MotionEvent.ACTION_MOVE:
+			// Moves are batched, so put in the older positions first
+			for (int h = 0; h < event.getHistorySize(); h++) {
+				for (int i = 0; i < count; i++) {
+					addEvent(MOVE, i, count, event.getHistoricalX(i, h), event.getHistoricalY(i, h), event.getHistoricalEventTime(h));
 				}
 			}
 
+			for (int i = 0; i < count; i++) {
+				addEvent(MOVE, i, count, event.getX(i), event.getY(i), event.getEventTime());
+			}
+
+			break;
+
+		case MotionEvent.ACTION_UP:
+		case MotionEvent.ACTION_POINTER_UP:
+			addEvent(UP, index, count, event.getX(index), event.getY(index), event.getEventTime());
 			break;
 		}
 
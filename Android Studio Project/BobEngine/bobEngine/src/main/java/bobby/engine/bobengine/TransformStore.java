@@ -0,0 +1,236 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+/**
+ * The x, y, angle, width and height of a room's objects, kept in one array
+ * each. This is where GameObject.getX(), setX() and the rest read and write, so
+ * culling, building vertices and working out collision bounds go down the arrays
+ * in the order of the room's object list instead of jumping from object to
+ * object. <br/><br/>
+ *
+ * Each object in the room's list has the slot with the same number as its place
+ * in the list (see GameObject.getTransformSlot()). Slots are numbered from 0 with
+ * no gaps; when an object is removed the last slot moves into its place, the same
+ * as in the list. An object that isn't in a room keeps its transform in a store of
+ * its own with one slot. Get a room's store with Room.getTransformStore().
+ */
+public class TransformStore {
+	// Variables
+	private int size;                                 // Number of slots in use
+	double x[];                                       // X position of each slot's object, midpoint
+	double y[];                                       // Y position, midpoint
+	double angle[];                                   // Rotation angle
+	double width[];                                   // Width
+	double height[];                                  // Height
+
+	// Objects
+	GameObject objects[];                             // The object in each slot, the same as the room's list of objects
+
+	/**
+	 * Make a store with room for a number of objects. It grows when it needs more.
+	 *
+	 * @param capacity Number of slots to start with
+	 */
+	TransformStore(int capacity) {
+		objects = new GameObject[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		angle = new double[capacity];
+		width = new double[capacity];
+		height = new double[capacity];
+	}
+
+	/**
+	 * Make a store with one slot that holds ob's transform while ob isn't in a
+	 * room.
+	 */
+	TransformStore(GameObject ob) {
+		this(1);
+		objects[0] = ob;
+		size = 1;
+	}
+
+	/**
+	 * Move an object's transform from the store it is in now into the next slot.
+	 *
+	 * @return The object's new slot.
+	 */
+	int add(GameObject ob) {
+		if (size == objects.length) {
+			grow(size * 2);
+		}
+
+		TransformStore from = ob.transforms;
+		int f = ob.slot;
+
+		objects[size] = ob;
+		x[size] = from.x[f];
+		y[size] = from.y[f];
+		angle[size] = from.angle[f];
+		width[size] = from.width[f];
+		height[size] = from.height[f];
+
+		ob.transforms = this;
+		ob.slot = size;
+
+		return size++;
+	}
+
+	/**
+	 * Take a slot's object out of the store and move the last slot into its place.
+	 * The object's transform goes back to its own store.
+	 *
+	 * @param s The slot to empty
+	 */
+	void remove(int s) {
+		detach(s);
+		size--;
+
+		if (s < size) {
+			GameObject last = objects[size];
+
+			objects[s] = last;
+			x[s] = x[size];
+			y[s] = y[size];
+			angle[s] = angle[size];
+			width[s] = width[size];
+			height[s] = height[size];
+
+			if (last.transforms == this && last.slot == size) last.slot = s;
+		}
+
+		objects[size] = null;
+	}
+
+	/**
+	 * Empty the store. Each object's transform goes back to its own store.
+	 */
+	void clear() {
+		for (int s = 0; s < size; s++) {
+			detach(s);
+			objects[s] = null;
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * Copy a slot's transform into its object's own store, if the object is still
+	 * using the slot.
+	 */
+	private void detach(int s) {
+		GameObject ob = objects[s];
+
+		if (ob.transforms != this || ob.slot != s) return;   // Added to another room since
+
+		TransformStore own = ob.detached;
+
+		own.x[0] = x[s];
+		own.y[0] = y[s];
+		own.angle[0] = angle[s];
+		own.width[0] = width[s];
+		own.height[0] = height[s];
+
+		ob.transforms = own;
+		ob.slot = 0;
+	}
+
+	private void grow(int capacity) {
+		GameObject newObjects[] = new GameObject[capacity];
+		System.arraycopy(objects, 0, newObjects, 0, size);
+		objects = newObjects;
+
+		x = copy(x, capacity);
+		y = copy(y, capacity);
+		angle = copy(angle, capacity);
+		width = copy(width, capacity);
+		height = copy(height, capacity);
+	}
+
+	private double[] copy(double from[], int capacity) {
+		double to[] = new double[capacity];
+		System.arraycopy(from, 0, to, 0, size);
+		return to;
+	}
+
+	/**
+	 * Find the slots whose rectangle is on the screen, in one pass down the arrays.
+	 * Works the same way as Quad.onScreen(), for objects that are only drawn with
+	 * their main quad.
+	 *
+	 * @param left Left edge of the screen in the room
+	 * @param right Right edge
+	 * @param bottom Bottom edge
+	 * @param top Top edge
+	 * @param on Set to true for each slot that is on the screen. Must be at least
+	 *           getSize() long.
+	 */
+	void cull(double left, double right, double bottom, double top, boolean on[]) {
+		for (int s = 0; s < size; s++) {
+			double halfW = Math.abs(width[s]) / 2;
+			double halfH = height[s] / 2;
+
+			// & instead of && so there's only one branch for each slot
+			on[s] = (x[s] > left - halfW) & (x[s] < right + halfW) & (y[s] > bottom - halfH) & (y[s] < top + halfH);
+		}
+	}
+
+	/**
+	 * Returns the number of slots in use.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the object in a slot.
+	 */
+	public GameObject getObject(int slot) {
+		return objects[slot];
+	}
+
+	/**
+	 * Returns the x position of each slot's object. Only the first getSize() entries
+	 * are in use. The arrays are replaced when the store grows, so get them again
+	 * after objects have been added. Use GameObject.setX() and the rest to change
+	 * a transform.
+	 */
+	public double[] getX() {
+		return x;
+	}
+
+	public double[] getY() {
+		return y;
+	}
+
+	public double[] getAngle() {
+		return angle;
+	}
+
+	public double[] getWidth() {
+		return width;
+	}
+
+	public double[] getHeight() {
+		return height;
+	}
+}
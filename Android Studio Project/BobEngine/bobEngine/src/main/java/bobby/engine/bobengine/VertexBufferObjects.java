@@ -0,0 +1,200 @@
+/**
+ * BobEngine - 2D game engine for Android
+ *
+ * Copyright (C) 2014, 2015 Benjamin Blaszczak
+ *
+ * BobEngine is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser Public License
+ * version 2.1 as published by the free software foundation.
+ *
+ * BobEngine is provided without warranty; without even the implied
+ * warranty of merchantability or fitness for a particular
+ * purpose. See the GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with BobEngine; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth
+ * Floor, Boston, MA 02110-1301 USA
+ *
+ */
+
+package bobby.engine.bobengine;
+
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * Keeps a Room's vertices and graphic coordinates in OpenGL vertex buffer objects
+ * so that they stay in GPU memory between frames. The BobRenderer has one set
+ * that is used by whichever room is drawing. <br/><br/>
+ *
+ * Each frame is uploaded with upload(). A frame that keeps its changed ranges (see
+ * RenderFrame.trackChanges()) and was built right after the frame that was
+ * uploaded last only has those ranges uploaded, with glBufferSubData(). Objects
+ * that didn't move, change frame, or shift to another place in the frame aren't
+ * uploaded at all. Any other frame is uploaded whole into freshly allocated
+ * storage, so the GPU doesn't have to finish drawing from the old contents
+ * first. <br/><br/>
+ *
+ * Buffer objects belong to an OpenGL context. When the BobRenderer creates a new
+ * context the old buffers are gone and new ones are made on the next upload().
+ */
+public class VertexBufferObjects {
+	// Constants
+	private static final int MIN_FLOATS = 1024;    // Smallest buffer size, in floats
+
+	// Variables
+	private int vertexVBO;                         // Buffer object holding the vertices, 0 if not created
+	private int textureVBO;                        // Buffer object holding the graphic coordinates, 0 if not created
+	private int context;                           // The BobRenderer context generation the buffers were created in
+	private int capacity;                          // Number of floats each buffer object can hold
+	private int uploaded;                          // Build of the frame the buffer objects hold, 0 for none
+	private int ids[] = new int[2];                // For generating and deleting buffer objects
+
+	public VertexBufferObjects() {
+		context = -1;
+		capacity = 0;
+		uploaded = 0;
+	}
+
+	/**
+	 * Bring the buffer objects up to date with a frame built for the BobRenderer.
+	 * The frame's quads start at 0 in the buffer objects.
+	 *
+	 * @param gl The OpenGL object to upload with
+	 * @param frame The frame to upload
+	 * @param contextGeneration The BobRenderer's current context generation.
+	 */
+	public void upload(GL11 gl, RenderFrame frame, int contextGeneration) {
+		if (context != contextGeneration) {    // The context was recreated so the old buffers no longer exist
+			vertexVBO = textureVBO = 0;
+			capacity = 0;
+			uploaded = 0;
+			context = contextGeneration;
+		}
+
+		int floats = frame.getNumQuads() * GameObject.Quad.VERT_SIZE;
+
+		if (frame.getBuild() == uploaded) return;                  // Drawing the same frame again
+
+		if (floats > capacity) grow(gl, floats);
+
+		FloatBuffer vertices = frame.getVertexBuffer();
+		FloatBuffer textures = frame.getTextureBuffer();
+
+		if (floats == 0) {
+			// Nothing to upload
+		} else if (uploaded != 0 && frame.tracksChanges() && frame.getPreviousBuild() == uploaded) {
+			for (int r = 0; r < frame.getNumChanged(); r++) {
+				int start = frame.getChangedStart(r) * GameObject.Quad.VERT_SIZE;
+				int end = frame.getChangedEnd(r) * GameObject.Quad.VERT_SIZE;
+
+				uploadRange(gl, vertexVBO, vertices, start, end);
+				uploadRange(gl, textureVBO, textures, start, end);
+			}
+		} else {
+			uploadAll(gl, vertexVBO, vertices, floats);
+			uploadAll(gl, textureVBO, textures, floats);
+		}
+
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		uploaded = frame.getBuild();
+	}
+
+	/**
+	 * Draw quads from the buffer objects.
+	 *
+	 * @param gl The OpenGL object to draw with
+	 * @param offset The offset of the first quad's vertices, in floats
+	 * @param numIndices The number of indices to draw
+	 * @param indexVBO The buffer object holding the quad indices
+	 */
+	public void draw(GL11 gl, int offset, int numIndices, int indexVBO) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, vertexVBO);
+		gl.glVertexPointer(2, GL10.GL_FLOAT, 0, offset * 4);
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, textureVBO);
+		gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, offset * 4);
+
+		gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexVBO);
+		gl.glDrawElements(GL10.GL_TRIANGLES, numIndices, GL10.GL_UNSIGNED_SHORT, 0);
+
+		// Unbind so client side arrays can be used again.
+		gl.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Delete the buffer objects. They will be created again if another frame is uploaded.
+	 *
+	 * @param gl The OpenGL object to delete with
+	 * @param contextGeneration The BobRenderer's current context generation.
+	 */
+	public void release(GL11 gl, int contextGeneration) {
+		if (vertexVBO == 0) return;
+
+		if (context == contextGeneration) {
+			ids[0] = vertexVBO;
+			ids[1] = textureVBO;
+			gl.glDeleteBuffers(2, ids, 0);
+		}
+
+		vertexVBO = textureVBO = 0;
+		capacity = 0;
+		uploaded = 0;
+	}
+
+	/**
+	 * Make the buffer objects big enough to hold the given number of floats. The old
+	 * contents are discarded, so the next frame is uploaded whole.
+	 */
+	private void grow(GL11 gl, int floats) {
+		int newCapacity = Math.max(MIN_FLOATS, capacity);
+
+		while (newCapacity < floats) {
+			newCapacity *= 2;
+		}
+
+		if (vertexVBO == 0) {
+			gl.glGenBuffers(2, ids, 0);
+			vertexVBO = ids[0];
+			textureVBO = ids[1];
+		}
+
+		capacity = newCapacity;
+		uploaded = 0;
+	}
+
+	/**
+	 * Replace the whole contents of a buffer object. The old storage is let go of
+	 * instead of written over, so this doesn't wait for draws that still use it.
+	 *
+	 * @param vbo The buffer object to upload to
+	 * @param data The new data, starting at 0
+	 * @param floats Number of floats in data
+	 */
+	private void uploadAll(GL11 gl, int vbo, FloatBuffer data, int floats) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, vbo);
+		gl.glBufferData(GL11.GL_ARRAY_BUFFER, capacity * 4, null, GL11.GL_DYNAMIC_DRAW);
+
+		data.position(0);
+		gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, 0, floats * 4, data);
+	}
+
+	/**
+	 * Upload part of a buffer object's contents.
+	 *
+	 * @param vbo The buffer object to upload to
+	 * @param data The new data for the whole buffer object, starting at 0
+	 * @param start The first float to upload
+	 * @param end The float after the last one to upload
+	 */
+	private void uploadRange(GL11 gl, int vbo, FloatBuffer data, int start, int end) {
+		gl.glBindBuffer(GL11.GL_ARRAY_BUFFER, vbo);
+
+		data.position(start);
+		gl.glBufferSubData(GL11.GL_ARRAY_BUFFER, start * 4, (end - start) * 4, data);
+		data.position(0);
+	}
+}
@@ -34,12 +34,11 @@ public class Android extends GameObject {
 
 	// Set/Reset
 	public void set(double x, double y, double size, int layer) {
-		this.x = x;
-		this.y = y;
+		setPosition(x, y);
 		this.layer = layer;
 
-		height = myRoom.getHeight() / size;
-		width = height;
+		setHeight(myRoom.getHeight() / size);
+		setWidth(getHeight());
 
 		//two.width = width;
 		//two.height = height;
@@ -60,8 +59,10 @@ public class Android extends GameObject {
 	// Step
 	@Override
 	public void step(double deltaTime) {
-		x += dX * speed * deltaTime;
-		y += dY * speed * deltaTime;
+		double x = getX() + dX * speed * deltaTime;
+		double y = getY() + dY * speed * deltaTime;
+		double width = getWidth();
+		double height = getHeight();
 
 		if (x > myRoom.getWidth() - width / 2) {
 			dX = -dX;
@@ -83,6 +84,7 @@ public class Android extends GameObject {
 			y = height / 2;
 		}
 
+		setPosition(x, y);
 		two.x = x + width;
 		two.y = y;
 
@@ -0,0 +1,135 @@
+package bobby.example.bobengineexample;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import bobby.engine.bobengine.GameObject;
+import bobby.engine.bobengine.Room;
+import bobby.engine.bobengine.TrigTable;
+
+/**
+ * Times how long it takes to work out the vertices of 2000 rotated quads, the old
+ * way with double precision trig and the new way with cached float trig, with and
+ * without the TrigTable. Make one in a room and call run() on a background thread.
+ * The results are written to the log under "BobEngine". <br/><br/>
+ *
+ * Both ways read the quad's fields and its object's room and check followCamera
+ * the same way. The quads have never been updated, so neither way draws between
+ * two positions.
+ */
+public class QuadBenchmark {
+
+	// Constants
+	private static final int NUM_QUADS = 2000;
+	private static final int ITERATIONS = 500;     // Times every quad is done in each run
+	private static final int RUNS = 7;             // The median run is reported
+
+	// Objects
+	private GameObject owners[];
+	private GameObject.Quad quads[];
+	private float verts[];
+
+	public QuadBenchmark(Room room) {
+		Random rand = new Random(1);
+
+		owners = new GameObject[NUM_QUADS];
+		quads = new GameObject.Quad[NUM_QUADS];
+		verts = new float[NUM_QUADS * GameObject.Quad.VERT_SIZE];
+
+		for (int q = 0; q < NUM_QUADS; q++) {
+			owners[q] = new GameObject(0, room);   // Not added to the room
+			quads[q] = owners[q].new Quad();       // Not the main quad, so it uses its own x, y, width, height and angle
+			quads[q].x = rand.nextInt(room.getWidth() + 1);
+			quads[q].y = rand.nextInt(room.getHeight() + 1);
+			quads[q].width = 16 + rand.nextInt(49);
+			quads[q].height = 16 + rand.nextInt(49);
+			quads[q].angle = rand.nextInt(360);
+		}
+	}
+
+	/**
+	 * Run every case and log the results.
+	 */
+	public void run() {
+		boolean table = TrigTable.isEnabled();
+
+		TrigTable.setEnabled(false);
+		long old = time(0, true);
+		long exact = time(1, true);
+		long exactStill = time(1, false);
+
+		TrigTable.setEnabled(true);
+		long lookup = time(1, true);
+
+		TrigTable.setEnabled(table);
+
+		Log.i("BobEngine", "Quad vertices, microseconds per " + NUM_QUADS + " quads:");
+		Log.i("BobEngine", "  old double trig, turning:   " + old);
+		Log.i("BobEngine", "  float trig, turning:        " + exact);
+		Log.i("BobEngine", "  trig table, turning:        " + lookup);
+		Log.i("BobEngine", "  any mode, angle unchanged:  " + exactStill);
+	}
+
+	/**
+	 * Time one case.
+	 *
+	 * @param path 0 for the old math, 1 for Quad.getVertices()
+	 * @param turn True to change every quad's angle before each iteration
+	 * @return The median time of each run, in microseconds per NUM_QUADS quads.
+	 */
+	private long time(int path, boolean turn) {
+		long runs[] = new long[RUNS];
+
+		for (int r = 0; r < RUNS; r++) {
+			long start = System.nanoTime();
+
+			for (int i = 0; i < ITERATIONS; i++) {
+				int cursor = 0;
+
+				for (int q = 0; q < NUM_QUADS; q++) {
+					if (turn) quads[q].angle += 1.5;
+
+					if (path == 0) cursor = oldVertices(owners[q], quads[q], cursor, verts);
+					else cursor = quads[q].getVertices(cursor, verts);
+				}
+			}
+
+			runs[r] = (System.nanoTime() - start) / ITERATIONS / 1000;
+		}
+
+		Arrays.sort(runs);
+		return runs[RUNS / 2];
+	}
+
+	/**
+	 * The rotated quad math Quad.getVertices() used before it cached its trig.
+	 */
+	private static int oldVertices(GameObject owner, GameObject.Quad quad, int cursor, float allVertices[]) {
+		double x = quad.x;
+		double y = quad.y;
+		double width = quad.width;
+		double height = quad.height;
+		Room room = owner.getRoom();
+
+		if (owner.followCamera) {                  // getVertices() uses the draw edges, which are the same without interpolation
+			x += room.getCameraLeftEdge();
+			y += room.getCameraBottomEdge();
+		}
+
+		double cos = Math.cos(Math.toRadians(quad.angle + 180));
+		double sin = Math.sin(Math.toRadians(quad.angle + 180));
+
+		allVertices[cursor] = (float) ((x - (x - width / 2)) * cos - (y - (y - height / 2)) * sin + x);
+		allVertices[cursor + 1] = (float) ((x - (x - width / 2)) * sin + (y - (y - height / 2)) * cos + y);
+		allVertices[cursor + 2] = (float) ((x - (x - width / 2)) * cos - (y - (y + height / 2)) * sin + x);
+		allVertices[cursor + 3] = (float) ((x - (x - width / 2)) * sin + (y - (y + height / 2)) * cos + y);
+		allVertices[cursor + 4] = (float) ((x - (x + width / 2)) * cos - (y - (y - height / 2)) * sin + x);
+		allVertices[cursor + 5] = (float) ((x - (x + width / 2)) * sin + (y - (y - height / 2)) * cos + y);
+		allVertices[cursor + 6] = (float) ((x - (x + width / 2)) * cos - (y - (y + height / 2)) * sin + x);
+		allVertices[cursor + 7] = (float) ((x - (x + width / 2)) * sin + (y - (y + height / 2)) * cos + y);
+
+		return cursor + GameObject.Quad.VERT_SIZE;
+	}
+}
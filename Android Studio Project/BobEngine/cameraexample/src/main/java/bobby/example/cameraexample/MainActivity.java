@@ -34,10 +34,10 @@ public class MainActivity extends BobActivity {
                 room = new Room(view);
 
                 object = new GameObject(room);        // Initializes the object and adds it to the room.
-                object.x = room.getWidth() / 2;       // Center of the screen when camera (x,y) is (0,0)
-                object.y = room.getHeight() / 2;      // Center of the screen
-                object.width = room.getWidth() / 10;  // Set the width
-                object.height = object.width;         // and height dimensions
+                object.setX(room.getWidth() / 2);     // Center of the screen when camera (x,y) is (0,0)
+                object.setY(room.getHeight() / 2);    // Center of the screen
+                object.setWidth(room.getWidth() / 10);  // Set the width
+                object.setHeight(object.getWidth());    // and height dimensions
                 object.setGraphic(g);                 // Set which graphic the object should use.
 
                 goToRoom(room); // This is how we tell BobEngine which room to update and draw!!
@@ -18,17 +18,16 @@ public class DraggableObject extends GameObject {
 		Graphic graphic = getView().getGraphicsHelper().addGraphic(R.drawable.ic_launcher);
 		setGraphic(graphic);
 
-		x = room.getWidth() / 2;
-		y = room.getHeight() / 2;
-		height = room.getHeight() / 15;
-		width = height;
+		setPosition(room.getWidth() / 2, room.getHeight() / 2);
+		setHeight(room.getHeight() / 15);
+		setWidth(getHeight());
 	}
 
 	@Override
 	public void step(double dt) {
 		if (pointer != -1 && getTouch().held(pointer)) {  // If the pointer touching this object is being held on the screen...
-			x = getTouch().getX(pointer);                 // set the x...
-			y = getTouch().getY(pointer);                 // and the y of this object to that of the pointer.
+			setX(getTouch().getX(pointer));               // set the x...
+			setY(getTouch().getY(pointer));               // and the y of this object to that of the pointer.
 		}
 	}
 
@@ -28,20 +28,22 @@ public class Background extends GameObject {
 	 * Set up and reset the background
 	 */
 	public void set(int x, int speed) {
-		this.x = x;
 		this.speed = speed;
 
-		width = getRoom().getWidth();
-		height = getRoom().getHeight();
-		y = height / 2;
+		setWidth(getRoom().getWidth());
+		setHeight(getRoom().getHeight());
+		setPosition(x, getHeight() / 2);
 	}
 
 	@Override
 	public void step(double dt) {
-		x -= speed;
+		double x = getX() - speed;
+		double width = getWidth();
 
 		if (x <= -width / 2) {
 			x = getRoom().getWidth() + width / 2 - (x + width / 2);
 		}
+
+		setX(x);
 	}
 }
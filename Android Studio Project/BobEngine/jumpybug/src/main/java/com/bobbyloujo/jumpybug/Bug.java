@@ -48,10 +48,9 @@ public class Bug extends GameObject {
 	 * Set up and reset the bug.
 	 */
 	public void set() {
-		x = getRoom().getWidth() / 2;
-		y = getRoom().getHeight() * 3 / 4;
-		width = getRoom().getWidth() / 8;
-		height = width;
+		setPosition(getRoom().getWidth() / 2, getRoom().getHeight() * 3 / 4);
+		setWidth(getRoom().getWidth() / 8);
+		setHeight(getWidth());
 		vy = 0;
 		layer = 3;
 	}
@@ -62,11 +61,11 @@ public class Bug extends GameObject {
 	@Override
 	public void step(double dt) {
 		vy -= ACC;                 // Acceleration of gravity
-		y += vy;                   // y velocity
+		setY(getY() + vy);         // y velocity
 
-		angle = vy / 2;            // Change the bug's angle based on the bug's y velocity
+		setAngle(vy / 2);          // Change the bug's angle based on the bug's y velocity
 
-		if (y < height / 2) {      // Hit the ground, game over!
+		if (getY() < getHeight() / 2) {  // Hit the ground, game over!
 			GameView.gameOver.set();
 			getView().goToRoom(GameView.gameOver);
 		}
@@ -80,6 +79,6 @@ public class Bug extends GameObject {
 	@Override
 	public void newpress(int index) {
 		// Make the bug jump
-		if (y + JUMP_V < getRoom().getHeight()) vy = JUMP_V;
+		if (getY() + JUMP_V < getRoom().getHeight()) vy = JUMP_V;
 	}
 }
@@ -44,27 +44,27 @@ public class Flower extends GameObject {
 	}
 
 	public void set(boolean isTop) {
-		height = getRoom().getHeight() / 2;
-		width = height / 4;
-		x = -width;
+		setHeight(getRoom().getHeight() / 2);
+		setWidth(getHeight() / 4);
+		setX(-getWidth());
 
 		passed = true;
 
 		if (isTop) {
-			y = getRoom().getHeight();
-			angle = 180;
+			setY(getRoom().getHeight());
+			setAngle(180);
 		} else {
-			y = 0;
-			angle = 0;
+			setY(0);
+			setAngle(0);
 		}
 	}
 
 	@Override
 	public void step(double dt) {
-		x -= SPEED;
+		setX(getX() - SPEED);
 
 		// Passed the bug, increment score.
-		if (x < getRoom().getWidth() / 2 && !passed && angle == 0) {
+		if (getX() < getRoom().getWidth() / 2 && !passed && getAngle() == 0) {
 			((GameRoom) getRoom()).incrementScore();
 			passed = true;
 
@@ -72,7 +72,7 @@ public class Flower extends GameObject {
 		}
 
 		// Back on the right, can be passed again.
-		if (x > getRoom().getWidth()) {
+		if (getX() > getRoom().getWidth()) {
 			passed = false;
 		}
 	}
@@ -29,26 +29,23 @@ public class GameOver extends Room {
     }
 
     public void set() {
-        play.x = getWidth() / 2;
-        play.y = getHeight() / 4;
-        play.width = getWidth() / 4;
-        play.height = play.width / 2;
+        play.setPosition(getWidth() / 2, getHeight() / 4);
+        play.setWidth(getWidth() / 4);
+        play.setHeight(play.getWidth() / 2);
         play.setGraphic(GameView.play, 2);
 
         bg1.set(getWidth() / 2, 4);
         bg2.set(getWidth() * 3 / 2, 4);
 
         score.setNumber(GameView.game.getScore());
-        score.y = getHeight() / 2;
-        score.width = getWidth() / 5;
-        score.height = score.width;
-        score.x = getWidth() / 2;
+        score.setPosition(getWidth() / 2, getHeight() / 2);
+        score.setWidth(getWidth() / 5);
+        score.setHeight(score.getWidth());
         score.setAlignment(1);
 
-        gameOver.x = getWidth() / 2;
-        gameOver.y = getHeight() * 5 / 6;
-        gameOver.width = getWidth() / 3;
-        gameOver.height = gameOver.width;
+        gameOver.setPosition(getWidth() / 2, getHeight() * 5 / 6);
+        gameOver.setWidth(getWidth() / 3);
+        gameOver.setHeight(gameOver.getWidth());
         gameOver.setGraphic(GameView.over, 1);
     }
 
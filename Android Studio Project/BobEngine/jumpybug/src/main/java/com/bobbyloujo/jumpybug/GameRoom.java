@@ -65,10 +65,9 @@ public class GameRoom extends Room {
         bg1.set(getWidth() / 2, 4);
         bg2.set(getWidth() * 3 / 2, 4);
 
-        scoreDis.x = getWidth() / 2;
-        scoreDis.y = getHeight() * 3 / 4;
-        scoreDis.width = getWidth() / 5;
-        scoreDis.height = scoreDis.width;
+        scoreDis.setPosition(getWidth() / 2, getHeight() * 3 / 4);
+        scoreDis.setWidth(getWidth() / 5);
+        scoreDis.setHeight(scoreDis.getWidth());
         scoreDis.layer = 3;
         scoreDis.setNumber(score);
         scoreDis.setAlignment(1); // 0 for left alignment, 1 for center, 2 for right
@@ -108,13 +107,13 @@ public class GameRoom extends Room {
         if (distance % SPACE * getRatioX() == 0) {
 
             // Move the next flowers off the right side of the screen
-            topFlowers[currentFlower].x = getWidth() + topFlowers[currentFlower].width;
-            bottomFlowers[currentFlower].x = getWidth() + bottomFlowers[currentFlower].width;
+            topFlowers[currentFlower].setX(getWidth() + topFlowers[currentFlower].getWidth());
+            bottomFlowers[currentFlower].setX(getWidth() + bottomFlowers[currentFlower].getWidth());
 
             // Random y positions
             int offset = rand.nextInt(getHeight() / 4);
-            topFlowers[currentFlower].y = getHeight() + offset - GAP * getRatioY();
-            bottomFlowers[currentFlower].y = offset;
+            topFlowers[currentFlower].setY(getHeight() + offset - GAP * getRatioY());
+            bottomFlowers[currentFlower].setY(offset);
 
             // Increment to the next flower.
             currentFlower++;
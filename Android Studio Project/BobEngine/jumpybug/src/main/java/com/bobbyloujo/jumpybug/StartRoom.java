@@ -42,23 +42,22 @@ public class StartRoom extends Room {
          * we'll just do all the setup for it here. The title graphic doesn't do much, so I don't
          * feel the need to define it's own class.
          */
-		title.x = getWidth() / 2;            // getWidth() returns the width of this view. This line centers the graphic horizontally.
-		title.y = getHeight() * 3 / 4;       // and this positions it 3/4 of the way up the screen.
-		title.width = getWidth() * 3 / 4;    // The width of the title will be 3/4 the width of the screen.
-		title.height = title.width / 2;      // Our graphic is twice as wide as it is tall.
+		title.setX(getWidth() / 2);             // getWidth() returns the width of this view. This line centers the graphic horizontally.
+		title.setY(getHeight() * 3 / 4);        // and this positions it 3/4 of the way up the screen.
+		title.setWidth(getWidth() * 3 / 4);     // The width of the title will be 3/4 the width of the screen.
+		title.setHeight(title.getWidth() / 2);  // Our graphic is twice as wide as it is tall.
 		title.setGraphic(GameView.title, 1); // We assign the graphic that we added in our GameView to our title object. This graphic has 1 frame.
 
         /*
          * Setting up the play button will be very similar.
          */
-		playButton.x = getWidth() / 2;
-		playButton.y = getHeight() / 4;
-		playButton.width = getWidth() / 4;
-		playButton.height = playButton.width / 2;
+		playButton.setPosition(getWidth() / 2, getHeight() / 4);
+		playButton.setWidth(getWidth() / 4);
+		playButton.setHeight(playButton.getWidth() / 2);
 		playButton.setGraphic(GameView.play, 2);  // Play button has 2 frames: one for pressed and one for not pressed.
 
 		bg1.set(getWidth() / 2, 4);               // Visible, will move off screen
-		bg2.set((int) bg1.x + getWidth(), 4);     // Off screen, will move on screen.
+		bg2.set((int) bg1.getX() + getWidth(), 4);  // Off screen, will move on screen.
 	}
 
 	/**
@@ -20,10 +20,9 @@ public class Room1 extends Room {
 
 		door = new GameObject(this);
 		door.setGraphic(GameView.doorForRoom1);
-		door.x = getWidth() / 2;
-		door.y = getHeight() / 2;
-		door.width = getWidth() / 2;
-		door.height = door.width * 2;
+		door.setPosition(getWidth() / 2, getHeight() / 2);
+		door.setWidth(getWidth() / 2);
+		door.setHeight(door.getWidth() * 2);
 	}
 
 	/**
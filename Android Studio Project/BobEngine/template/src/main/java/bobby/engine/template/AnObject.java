@@ -25,8 +25,7 @@ public class AnObject extends GameObject {
 	 * Set up or reset this object.
 	 */
 	public void set() {
-		x = getRoom().getWidth() / 2;
-		y = getRoom().getHeight() / 2;
+		setPosition(getRoom().getWidth() / 2, getRoom().getHeight() / 2);
 	}
 	
 	/**
@@ -34,6 +33,6 @@ public class AnObject extends GameObject {
 	 */
 	@Override
 	public void step(double deltaTime) {
-		angle++; // Make it spin!
+		setAngle(getAngle() + 1); // Make it spin!
 	}
 }
@@ -38,11 +38,11 @@ public class MainActivity extends Activity {
 				goToRoom(room);
 
 				/* Set the position of the TextDisplay */
-				text.x = room.getWidth() / 2;
-				text.y = room.getHeight();
+				text.setPosition(room.getWidth() / 2, room.getHeight());
 
 				/* The TextDisplay's width and height will be used for the individual characters (font size!) */
-				text.width = text.height = room.getWidth() / 20;
+				text.setWidth(room.getWidth() / 20);
+				text.setHeight(text.getWidth());
 
 				/* Change the text string output by the TextDisplay */
 				text.setText(TEXT);
@@ -16,10 +16,10 @@ public class AnObject extends GameObject {
 	 * Set up or reset this object.
 	 */
 	public void set() {
-		x = getRoom().getWidth() / 2;
-		y = getRoom().getHeight() / 2;
+		setPosition(getRoom().getWidth() / 2, getRoom().getHeight() / 2);
 		
-		width = height = getRoom().getWidth() / 5;
+		setWidth(getRoom().getWidth() / 5);
+		setHeight(getWidth());
 	}
 	
 	/**
@@ -35,13 +35,15 @@ public class AnObject extends GameObject {
 		 * call.
 		 */
 		if (getTouch().held()) {                        // ANY finger is held
-			angle++;                                    // Make it spin!
+			setAngle(getAngle() + 1);                   // Make it spin!
 		}
 		
 		if (getTouch().held(1)) {                       // 2 fingers are held (index IDs 0 and 1)
-			width = height = getRoom().getWidth() / 3;  // Make it bigger!
+			setWidth(getRoom().getWidth() / 3);         // Make it bigger!
+			setHeight(getWidth());
 		} else {                                        // Reset size
-			width = height = getRoom().getWidth() / 5;
+			setWidth(getRoom().getWidth() / 5);
+			setHeight(getWidth());
 		}
 	}
 	
@@ -54,8 +56,8 @@ public class AnObject extends GameObject {
 	 */
 	@Override
 	public void newpress(int index) {
-		x = getTouch().getX();         // Use "getTouch()" to get lots of information about the input
-		y = getTouch().getY();         // These are the coords of the first index (the "oldest" finger on the screen)
+		setX(getTouch().getX());       // Use "getTouch()" to get lots of information about the input
+		setY(getTouch().getY());       // These are the coords of the first index (the "oldest" finger on the screen)
 		
 		if (index == 1) {            // A second finger!
 			getView().setBackgroundColor(1, 0, 0, 1);  // Red background. (RGBA)